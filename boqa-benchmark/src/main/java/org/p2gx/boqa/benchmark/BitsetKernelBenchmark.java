@@ -0,0 +1,88 @@
+package org.p2gx.boqa.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.p2gx.boqa.core.internal.BitsetKernel;
+import org.p2gx.boqa.core.internal.BitsetKernels;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and the Vector API {@link BitsetKernel} on the counting loop of
+ * {@link org.p2gx.boqa.core.algorithm.BoqaBitsetCounter}: for every disease layer, the AND + popcount with the
+ * query layer and with its frontier.
+ * <p>
+ * Run with:
+ * <pre>
+ * ./mvnw -Pbenchmark package
+ * java --add-modules jdk.incubator.vector -jar boqa-benchmark/target/benchmarks.jar BitsetKernelBenchmark
+ * </pre>
+ * The default of 300 words covers the ~19k Phenotypic Abnormality terms of the HPO.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class BitsetKernelBenchmark {
+
+    @Param({"scalar", "vector"})
+    private String kernelName;
+
+    @Param({"300"})
+    private int words;
+
+    @Param({"1024"})
+    private int diseases;
+
+    private BitsetKernel kernel;
+    private long[][] diseaseLayers;
+    private long[] queryLayer;
+    private long[] frontier;
+
+    @Setup
+    public void setup() {
+        kernel = switch (kernelName) {
+            case "scalar" -> BitsetKernels.scalar();
+            case "vector" -> BitsetKernels.vector()
+                    .orElseThrow(() -> new IllegalStateException("Run with --add-modules jdk.incubator.vector"));
+            default -> throw new IllegalArgumentException("Unknown kernel " + kernelName);
+        };
+        Random random = new Random(42);
+        diseaseLayers = new long[diseases][];
+        for (int d = 0; d < diseases; d++) {
+            diseaseLayers[d] = randomBits(random, words);
+        }
+        queryLayer = randomBits(random, words);
+        frontier = randomBits(random, words);
+    }
+
+    private static long[] randomBits(Random random, int words) {
+        long[] bits = new long[words];
+        for (int i = 0; i < words; i++) {
+            // sparse, like initialized layers
+            bits[i] = random.nextLong() & random.nextLong() & random.nextLong();
+        }
+        return bits;
+    }
+
+    @Benchmark
+    public long countAllDiseases() {
+        long sum = 0;
+        for (long[] diseaseLayer : diseaseLayers) {
+            sum += kernel.andCount(diseaseLayer, queryLayer);
+            sum += kernel.andCount(diseaseLayer, frontier);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long andNotAllDiseases() {
+        long sum = 0;
+        for (long[] diseaseLayer : diseaseLayers) {
+            sum += kernel.andNotCount(queryLayer, diseaseLayer);
+        }
+        return sum;
+    }
+}
@@ -2,7 +2,12 @@ package org.p2gx.boqa.cli;
 
 import org.p2gx.boqa.cli.cmd.BoqaBenchmarkCommand;
 import org.p2gx.boqa.cli.cmd.BlendedBenchmarkCommand;
+import org.p2gx.boqa.cli.cmd.CompileCommand;
 import org.p2gx.boqa.cli.cmd.DownloadCommand;
+import org.p2gx.boqa.cli.cmd.FitCommand;
+import org.p2gx.boqa.cli.cmd.ServeCommand;
+import org.p2gx.boqa.cli.cmd.StreamCommand;
+import org.p2gx.boqa.cli.cmd.SweepCommand;
 import picocli.CommandLine;
 import java.util.concurrent.Callable;
 import static picocli.CommandLine.Help.Ansi.Style.*;
@@ -11,11 +16,16 @@ import static picocli.CommandLine.Help.Ansi.Style.*;
  * Main entry point for the BOQA (Bayesian Ontology Query Analysis) command-line application.
  * <p>
  * This class configures and executes the CLI using PicoCLI framework. It sets up the main command
- * with three subcommands:
+ * with eight subcommands:
  * <ul>
  *   <li>{@code download} - Downloads disease and phenotype data</li>
+ *   <li>{@code compile} - Compiles the downloaded data into a snapshot for fast startup</li>
  *   <li>{@code plain} - Runs BOQA benchmark analysis using plain scoring</li>
  *   <li>{@code blended} - Runs BOQA benchmark analysis using blended scoring (work in progress)</li>
+ *   <li>{@code sweep} - Evaluates the ranks of the diagnoses on a grid of alpha and beta values</li>
+ *   <li>{@code fit} - Fits alpha and beta to the diagnoses by maximum likelihood</li>
+ *   <li>{@code serve} - Scores HPO term lists or phenopackets sent over HTTP</li>
+ *   <li>{@code stream} - Scores HPO term lists or phenopackets read line by line from stdin</li>
  * </ul>
  * The application matches phenotypic features observed in patients with annotated 
  * disease-phenotype associations.
@@ -52,9 +62,15 @@ public class Main implements Callable<Integer> {
         CommandLine cline = new CommandLine(new Main())
                 .setColorScheme(COLOR_SCHEME)
                 .addSubcommand("download", new DownloadCommand())
+                .addSubcommand("compile", new CompileCommand())
                 .addSubcommand("plain", new BoqaBenchmarkCommand())
-                .addSubcommand("blended", new BlendedBenchmarkCommand());
+                .addSubcommand("blended", new BlendedBenchmarkCommand())
+                .addSubcommand("sweep", new SweepCommand())
+                .addSubcommand("fit", new FitCommand())
+                .addSubcommand("serve", new ServeCommand())
+                .addSubcommand("stream", new StreamCommand());
         cline.setToggleBooleanFlags(false);
+        cline.setCaseInsensitiveEnumValuesAllowed(true);
         System.exit(cline.execute(args));
     }
 
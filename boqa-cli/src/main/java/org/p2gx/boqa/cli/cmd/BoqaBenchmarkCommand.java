@@ -7,27 +7,46 @@ import org.monarchinitiative.phenol.annotations.io.hpo.HpoDiseaseLoaderOptions;
 import org.monarchinitiative.phenol.annotations.io.hpo.HpoDiseaseLoaders;
 import org.p2gx.boqa.core.*;
 import org.p2gx.boqa.core.algorithm.AlgorithmParameters;
+import org.p2gx.boqa.core.algorithm.BoqaBitsetCounter;
+import org.p2gx.boqa.core.algorithm.BoqaCohortAnalyzer;
+import org.p2gx.boqa.core.algorithm.BoqaCompressedCounter;
+import org.p2gx.boqa.core.algorithm.BoqaInvertedIndexCounter;
+import org.p2gx.boqa.core.algorithm.BoqaMappedCounter;
 import org.p2gx.boqa.core.algorithm.BoqaSetCounter;
+import org.p2gx.boqa.core.algorithm.DiseaseLayers;
 import org.p2gx.boqa.core.analysis.BoqaAnalysisResult;
 import org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer;
+import org.p2gx.boqa.core.analysis.DeadlineAnalysisResult;
+import org.p2gx.boqa.core.analysis.DiagnosisRank;
+import org.p2gx.boqa.core.analysis.Normalization;
 import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+import org.p2gx.boqa.core.diseases.DiseaseLayerStore;
+import org.p2gx.boqa.core.diseases.KnowledgeBaseSnapshot;
 import org.p2gx.boqa.core.output.JsonResultWriter;
 import org.p2gx.boqa.core.patient.PhenopacketData;
 import org.monarchinitiative.phenol.io.OntologyLoader;
 import org.monarchinitiative.phenol.ontology.data.Ontology;
+import org.monarchinitiative.phenol.ontology.data.TermId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
 import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Spec;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -83,13 +102,13 @@ public class BoqaBenchmarkCommand implements Callable<Integer>  {
 
     @CommandLine.Option(
             names={"-n","--num-of-processes"},
-            description ="Number of processes that will run in parallel (default: ${DEFAULT-VALUE}).",
-            defaultValue = "1")
+            description ="Number of threads of the analysis, 0 for the number of available processors (default: ${DEFAULT-VALUE}).",
+            defaultValue = "0")
     private int numOfProcesses;
 
     @CommandLine.Option(
             names = "--out",
-            description = "Output JSON file",
+            description = "Output JSON file, or TSV file with --rank-only",
             required = true)
     private Path outPath;
 
@@ -118,72 +137,212 @@ public class BoqaBenchmarkCommand implements Callable<Integer>  {
             split = ",")
     private Set<String> diseaseDatabases;
 
-    @Override
-    public Integer call() throws Exception {
-        LOGGER.info("Starting up BOQA analysis, loading ontology file {} ...", ontologyFile);
-        Ontology hpo = OntologyLoader.loadOntology(Paths.get(ontologyFile).toFile());
-        LOGGER.debug("Ontology loaded successfully from {}", ontologyFile);
+    @CommandLine.Option(
+            names={"-c", "--counter"},
+            description = "Counter implementation used to compute the BOQA counts. Valid values: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}).",
+            defaultValue = "SET")
+    private CounterType counterType;
 
-        // Parse disease-HPO associations into DiseaseData object
-        LOGGER.info("Importing disease phenotype associations {} from file: {} ...", diseaseDatabases.toString(), phenotypeAnnotationFile);
-        if (diseaseDatabases.contains("OMIM") && diseaseDatabases.contains("ORPHA")) {
-            throw new CommandLine.ParameterException(
-                    new CommandLine(this),
-                    "Error: OMIM and ORPHA cannot be used together!"
-            );
-        }
-        if (!Set.of("OMIM", "ORPHA", "DECIPHER").containsAll(diseaseDatabases)) {
-            throw new CommandLine.ParameterException(
-                    new CommandLine(this),
-                    "Error: Invalid database!"
-            );
-        }
-        Set<DiseaseDatabase> DiseaseDatabaseSet = diseaseDatabases.stream()
-                .map(DiseaseDatabase::fromString)
-                .collect(Collectors.toSet());
-        int defaultCohortSize = 100;
-        HpoDiseaseLoaderOptions options = HpoDiseaseLoaderOptions.of(DiseaseDatabaseSet,false, defaultCohortSize);
-        HpoDiseaseLoader loader = HpoDiseaseLoaders.defaultLoader(hpo, options);
-        HpoDiseases diseases = loader.load(phenotypeAnnotationFile);
-        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo, diseases);
+    @CommandLine.Option(
+            names={"--normalization"},
+            description = "Normalization of the top results when --limit is set. BOUNDED skips diseases that cannot " +
+                    "enter the top results and reports lower bounds of the probabilities. " +
+                    "Valid values: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}).",
+            defaultValue = "EXACT")
+    private Normalization normalization;
 
-        LOGGER.debug("Disease data parsed from {}", phenotypeAnnotationFile);
+    @CommandLine.Option(
+            names={"--cohort"},
+            description = "Score all phenopackets at once as a sparse patients x terms by terms x diseases product " +
+                    "on the inverted index, with exact normalization. Ignores --counter and --normalization.")
+    private boolean cohort;
+
+    @CommandLine.Option(
+            names={"--time-budget-ms"},
+            description = "Stop scoring a phenopacket after this many milliseconds and report the best results found " +
+                    "so far. Partial results are logged with the fraction of diseases scored. Ignored with --cohort " +
+                    "and --rank-only.")
+    private Long timeBudgetMillis;
+
+    @CommandLine.Option(
+            names={"--rank-only"},
+            description = "Only compute the rank and score of the diagnoses of each phenopacket and write them as a TSV " +
+                    "table to --out, instead of the full results. With --normalization BOUNDED, diseases that cannot " +
+                    "beat a diagnosis are not scored and the scores are lower bounds. Ignores --limit and --cohort.")
+    private boolean rankOnly;
+
+    @CommandLine.Option(
+            names={"--layer-store"},
+            description = "Disease layer file used by the MAPPED counter. Written from the annotations if it does not " +
+                    "exist, otherwise mapped read-only and shared with other processes using the same file, without " +
+                    "loading the annotations.")
+    private Path layerStore;
+
+    @CommandLine.Option(
+            names={"--snapshot"},
+            description = "Knowledge base snapshot written by the compile command. Skips loading the ontology and the " +
+                    "annotations, but is refused if it was compiled from other versions of them or for other databases.")
+    private Path snapshotFile;
+
+    /**
+     * Available {@link Counter} implementations. All of them produce identical counts.
+     */
+    enum CounterType {
+        SET {
+            @Override
+            Counter create(DiseaseLayers diseaseLayers, Path layerStore) {
+                return new BoqaSetCounter(diseaseLayers);
+            }
+        },
+        BITSET {
+            @Override
+            Counter create(DiseaseLayers diseaseLayers, Path layerStore) {
+                return new BoqaBitsetCounter(diseaseLayers);
+            }
+        },
+        INVERTED {
+            @Override
+            Counter create(DiseaseLayers diseaseLayers, Path layerStore) {
+                return new BoqaInvertedIndexCounter(diseaseLayers);
+            }
+        },
+        COMPRESSED {
+            @Override
+            Counter create(DiseaseLayers diseaseLayers, Path layerStore) {
+                return new BoqaCompressedCounter(diseaseLayers);
+            }
+        },
+        MAPPED {
+            @Override
+            Counter create(DiseaseLayers diseaseLayers, Path layerStore) throws IOException {
+                if (layerStore == null) {
+                    throw new IllegalArgumentException("The MAPPED counter requires --layer-store");
+                }
+                if (!Files.exists(layerStore)) {
+                    DiseaseLayerStore.write(diseaseLayers, layerStore);
+                }
+                return new BoqaMappedCounter(DiseaseLayerStore.open(layerStore), diseaseLayers.ontologyTraverser());
+            }
+        };
+
+        abstract Counter create(DiseaseLayers diseaseLayers, Path layerStore) throws IOException;
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        checkDiseaseDatabases(this, diseaseDatabases);
 
         AlgorithmParameters params = AlgorithmParameters.create(alpha, beta);
         LOGGER.info("Using alpha={}, beta={}", params.getAlpha(), params.getBeta());
 
-        // Initialize Counter
-        Counter counter = new BoqaSetCounter(diseaseData, hpo);
-        LOGGER.debug("Initialized BoqaSetCounter with {} diseases.", diseaseData.size());
-
         int limit = (resultsLimit != null) ? resultsLimit : Integer.MAX_VALUE;
-        List<BoqaAnalysisResult> boqaAnalysisResults = new ArrayList<>();
+        int parallelism = numOfProcesses > 0 ? numOfProcesses : Runtime.getRuntime().availableProcessors();
+        // all parallel work of the analysis runs in this pool instead of the common pool
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            LOGGER.info("Beginning BOQA analysis for phenopackets on {} threads...", parallelism);
+            LOGGER.info("Results limit set to {}", limit);
+            if (cohort && !rankOnly) {
+                LOGGER.info("Scoring all phenopackets as one cohort, --counter and --normalization are ignored");
+                DiseaseLayers diseaseLayers = loadDiseaseLayers(ontologyFile, phenotypeAnnotationFile, diseaseDatabases, snapshotFile);
+                List<BoqaAnalysisResult> boqaAnalysisResults = pool.submit(() -> {
+                    BoqaInvertedIndexCounter cohortCounter = new BoqaInvertedIndexCounter(diseaseLayers);
+                    List<PhenopacketData> patients =
+                            readPhenopackets(phenopacketFile, cohortCounter::getPrimaryTermId);
+                    BoqaCohortAnalyzer cohortAnalyzer = new BoqaCohortAnalyzer(cohortCounter);
+                    return cohortAnalyzer.computeBoqaResults(patients, limit, params);
+                }).get();
+                LOGGER.info("Finished processing {} phenopackets.", boqaAnalysisResults.size());
+                writeResults(boqaAnalysisResults, params);
+                return 0;
+            }
 
-        AtomicInteger fileCount = new AtomicInteger(0);
+            // Initialize Counter
+            Counter counter = createCounter(counterType, layerStore,
+                    ontologyFile, phenotypeAnnotationFile, diseaseDatabases, snapshotFile);
+            LOGGER.debug("Initialized {} with {} diseases.", counter.getClass().getSimpleName(), counter.getDiseaseIds().size());
 
-        LOGGER.info("Beginning BOQA analysis for phenopackets...");
-        LOGGER.info("Results limit set to {}", limit);
-        // For each line in the phenopacketFile compute counts (run the analysis) and add them to boqaAnalysisResults
-        try (Stream<String> stream = Files.lines(phenopacketFile)) {
-            boqaAnalysisResults = stream
-                    .map(Path::of)
-                    .parallel()
-                    .map(singleFile -> {
-                        PatientData ppkt = new PhenopacketData(singleFile);
-                        BoqaAnalysisResult result = BoqaPatientAnalyzer.computeBoqaResults(
-                                ppkt, counter, limit, params);
-                        int count = fileCount.incrementAndGet();
-                        if (count % 50 == 0) {
-                            System.out.println("Processed: " + count);
-                        }
-                        return result;
-                    })
-                    .toList();
-        } catch (IOException e) {
-            LOGGER.warn("Could not read phenopacket list from {}", phenopacketFile, e);
+            if (rankOnly) {
+                LOGGER.info("Computing the ranks of the diagnoses only, --limit is ignored");
+                List<PhenopacketData> patients =
+                        pool.submit(() -> readPhenopackets(phenopacketFile, counter::getPrimaryTermId)).get();
+                writeDiagnosisRanks(patients, counter, params, pool);
+                return 0;
+            }
+
+            List<Path> phenopacketPaths;
+            try (Stream<String> stream = Files.lines(phenopacketFile)) {
+                phenopacketPaths = stream.map(Path::of).toList();
+            }
+            // with at least as many phenopackets as threads, score the phenopackets in parallel and the diseases of
+            // each phenopacket on its thread; otherwise, score the phenopackets one by one and their diseases in parallel
+            boolean parallelPhenopackets = phenopacketPaths.size() >= parallelism;
+            Executor diseaseExecutor = parallelPhenopackets ? Runnable::run : pool;
+            LOGGER.info("Scoring {} phenopackets, in parallel over {}", phenopacketPaths.size(),
+                    parallelPhenopackets ? "phenopackets" : "diseases");
+            AtomicInteger fileCount = new AtomicInteger(0);
+            Function<Path, BoqaAnalysisResult> analyze = singleFile -> {
+                PatientData ppkt = new PhenopacketData(singleFile, counter::getPrimaryTermId);
+                BoqaAnalysisResult result;
+                if (timeBudgetMillis != null) {
+                    DeadlineAnalysisResult timed = BoqaPatientAnalyzer.computeBoqaResultsWithin(ppkt, counter, limit, params,
+                            normalization, Duration.ofMillis(timeBudgetMillis), diseaseExecutor);
+                    if (timed.partial()) {
+                        LOGGER.warn("Time budget exceeded for {}, partial results from {}% of the diseases",
+                                ppkt.getID(), String.format(Locale.ROOT, "%.1f", 100 * timed.evaluatedFraction()));
+                    }
+                    result = timed.analysisResult();
+                } else {
+                    result = BoqaPatientAnalyzer.computeBoqaResults(ppkt, counter, limit, params, normalization, diseaseExecutor);
+                }
+                int count = fileCount.incrementAndGet();
+                if (count % 50 == 0) {
+                    System.out.println("Processed: " + count);
+                }
+                return result;
+            };
+            List<BoqaAnalysisResult> boqaAnalysisResults = parallelPhenopackets
+                    ? pool.submit(() -> phenopacketPaths.parallelStream().map(analyze).toList()).get()
+                    : phenopacketPaths.stream().map(analyze).toList();
+            LOGGER.info("Finished processing {} phenopackets.", fileCount.get());
+            writeResults(boqaAnalysisResults, params);
+            return 0;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void writeDiagnosisRanks(List<PhenopacketData> phenopackets, Counter counter, AlgorithmParameters params,
+                                     ForkJoinPool pool) throws IOException, InterruptedException, ExecutionException {
+        // one row per diagnosis, NA for diagnoses that are not among the diseases of the counter
+        List<List<String>> rows = pool.submit(() -> phenopackets.parallelStream()
+                .map(ppkt -> {
+                    List<String> diagnosisIds = ppkt.getDiseases().stream().map(PhenopacketData.DiseaseDTO::id).toList();
+                    Map<String, DiagnosisRank> ranks = BoqaPatientAnalyzer.computeDiagnosisRanks(
+                                    ppkt, counter, diagnosisIds, params, normalization).stream()
+                            .collect(Collectors.toMap(DiagnosisRank::diseaseId, r -> r));
+                    return diagnosisIds.stream().distinct()
+                            .map(id -> ranks.containsKey(id)
+                                    ? String.format(Locale.ROOT, "%s\t%s\t%d\t%d\t%s", ppkt.getID(), id,
+                                            ranks.get(id).rank(), ranks.get(id).ties(), ranks.get(id).boqaScore())
+                                    : String.join("\t", ppkt.getID(), id, "NA", "NA", "NA"))
+                            .toList();
+                })
+                .toList()).get();
+        LOGGER.info("Writing diagnosis ranks of {} phenopackets to {}", phenopackets.size(), outPath);
+        try (BufferedWriter writer = Files.newBufferedWriter(outPath)) {
+            writer.write("phenopacket_id\tdisease_id\trank\tties\tboqa_score");
+            writer.newLine();
+            for (List<String> phenopacketRows : rows) {
+                for (String row : phenopacketRows) {
+                    writer.write(row);
+                    writer.newLine();
+                }
+            }
         }
-        LOGGER.info("Finished processing {} phenopackets.", fileCount.get());
+    }
 
+    private void writeResults(List<BoqaAnalysisResult> boqaAnalysisResults, AlgorithmParameters params) throws IOException {
         LOGGER.info("Writing results to {}", outPath);
         String cliArgs = String.join(" ", spec.commandLine().getParseResult().originalArgs());
         Writer writer = new JsonResultWriter();
@@ -196,6 +355,109 @@ public class BoqaBenchmarkCommand implements Callable<Integer>  {
                 outPath
         );
         LOGGER.info("BOQA analysis completed successfully.");
-        return 0;
+    }
+
+    /**
+     * Checks the values of the {@code --database} option.
+     *
+     * @throws CommandLine.ParameterException if a database is invalid, or both OMIM and ORPHA are selected
+     */
+    static void checkDiseaseDatabases(Object command, Set<String> diseaseDatabases) {
+        if (diseaseDatabases.contains("OMIM") && diseaseDatabases.contains("ORPHA")) {
+            throw new CommandLine.ParameterException(
+                    new CommandLine(command),
+                    "Error: OMIM and ORPHA cannot be used together!"
+            );
+        }
+        if (!Set.of("OMIM", "ORPHA", "DECIPHER").containsAll(diseaseDatabases)) {
+            throw new CommandLine.ParameterException(
+                    new CommandLine(command),
+                    "Error: Invalid database!"
+            );
+        }
+    }
+
+    /**
+     * Reads the phenopackets listed in a text file, one path per line, and resolves their terms to primary IDs.
+     */
+    static List<PhenopacketData> readPhenopackets(Path phenopacketFile, UnaryOperator<TermId> primaryTermIds)
+            throws IOException {
+        try (Stream<String> stream = Files.lines(phenopacketFile)) {
+            return stream
+                    .map(Path::of)
+                    .parallel()
+                    .map(path -> new PhenopacketData(path, primaryTermIds))
+                    .toList();
+        }
+    }
+
+    /**
+     * Creates a counter of the given type. An existing layer store of the MAPPED counter is opened without loading the
+     * annotations or initializing the disease layers: only the ontology, or the snapshot if one is given, is read to
+     * encode the queries. All other counters are built from {@link #loadDiseaseLayers(String, Path, Set, Path)}.
+     *
+     * @throws IOException if the snapshot does not match the versions of the ontology and the annotations, or the
+     *                     layer store cannot be read
+     */
+    static Counter createCounter(CounterType counterType, Path layerStore, String ontologyFile,
+                                 Path phenotypeAnnotationFile, Set<String> diseaseDatabases, Path snapshotFile) throws IOException {
+        if (counterType != CounterType.MAPPED || layerStore == null || !Files.exists(layerStore)) {
+            return counterType.create(
+                    loadDiseaseLayers(ontologyFile, phenotypeAnnotationFile, diseaseDatabases, snapshotFile), layerStore);
+        }
+        DiseaseLayerStore store = DiseaseLayerStore.open(layerStore);
+        if (snapshotFile != null) {
+            LOGGER.info("Opening layer store {} with the ontology of snapshot {} ...", layerStore, snapshotFile);
+            DiseaseLayers snapshotLayers = KnowledgeBaseSnapshot.load(snapshotFile,
+                    JsonResultWriter.readHpVersion(Paths.get(ontologyFile)),
+                    JsonResultWriter.readHpoaVersion(phenotypeAnnotationFile),
+                    diseaseDatabases).diseaseLayers();
+            return new BoqaMappedCounter(store, snapshotLayers.ontologyTraverser());
+        }
+        LOGGER.info("Opening layer store {}, loading ontology file {} ...", layerStore, ontologyFile);
+        return new BoqaMappedCounter(store, OntologyLoader.loadOntology(Paths.get(ontologyFile).toFile()));
+    }
+
+    /**
+     * Loads the disease layers from the snapshot if one is given, otherwise from the ontology and the annotations.
+     *
+     * @throws IOException if the snapshot does not match the versions of the ontology and the annotations
+     */
+    static DiseaseLayers loadDiseaseLayers(String ontologyFile, Path phenotypeAnnotationFile,
+                                           Set<String> diseaseDatabases, Path snapshotFile) throws IOException {
+        DiseaseLayers diseaseLayers;
+        String hpoaVersion = JsonResultWriter.readHpoaVersion(phenotypeAnnotationFile);
+        if (snapshotFile != null) {
+            LOGGER.info("Starting up BOQA analysis, loading snapshot {} ...", snapshotFile);
+            diseaseLayers = KnowledgeBaseSnapshot.load(snapshotFile,
+                    JsonResultWriter.readHpVersion(Paths.get(ontologyFile)),
+                    hpoaVersion,
+                    diseaseDatabases).diseaseLayers();
+        } else {
+            LOGGER.info("Starting up BOQA analysis, loading ontology file {} ...", ontologyFile);
+            Ontology hpo = OntologyLoader.loadOntology(Paths.get(ontologyFile).toFile());
+            LOGGER.debug("Ontology loaded successfully from {}", ontologyFile);
+            DiseaseData diseaseData = loadDiseaseData(hpo, phenotypeAnnotationFile, diseaseDatabases);
+            diseaseLayers = DiseaseLayers.of(diseaseData, hpo);
+        }
+        LOGGER.info("Layer deduplication for HPOA release {}: {}", hpoaVersion, diseaseLayers.dedupReport());
+        return diseaseLayers;
+    }
+
+    /**
+     * Parses the disease-HPO associations of the given databases from phenotype.hpoa.
+     */
+    static DiseaseData loadDiseaseData(Ontology hpo, Path phenotypeAnnotationFile, Set<String> diseaseDatabases) throws IOException {
+        LOGGER.info("Importing disease phenotype associations {} from file: {} ...", diseaseDatabases.toString(), phenotypeAnnotationFile);
+        Set<DiseaseDatabase> DiseaseDatabaseSet = diseaseDatabases.stream()
+                .map(DiseaseDatabase::fromString)
+                .collect(Collectors.toSet());
+        int defaultCohortSize = 100;
+        HpoDiseaseLoaderOptions options = HpoDiseaseLoaderOptions.of(DiseaseDatabaseSet,false, defaultCohortSize);
+        HpoDiseaseLoader loader = HpoDiseaseLoaders.defaultLoader(hpo, options);
+        HpoDiseases diseases = loader.load(phenotypeAnnotationFile);
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo, diseases);
+        LOGGER.debug("Disease data parsed from {}", phenotypeAnnotationFile);
+        return diseaseData;
     }
 }
@@ -0,0 +1,80 @@
+package org.p2gx.boqa.cli.cmd;
+
+import org.monarchinitiative.phenol.io.OntologyLoader;
+import org.monarchinitiative.phenol.ontology.data.Ontology;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.algorithm.DiseaseLayers;
+import org.p2gx.boqa.core.diseases.KnowledgeBaseSnapshot;
+import org.p2gx.boqa.core.output.JsonResultWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Command for compiling the HPO and the disease annotations into a {@link KnowledgeBaseSnapshot}.
+ * <p>
+ * Loading hp.json and phenotype.hpoa and initializing the disease layers dominate the startup of the
+ * {@code plain} command. This command does it once and writes the result to a binary snapshot, stamped with the
+ * HPO and HPOA versions and the selected databases. Pass the snapshot to {@code plain --snapshot} together with the
+ * same {@code -o}, {@code -dp} and {@code -db} options; a snapshot compiled from other versions is refused.
+ * </p>
+ *
+ * @see BoqaBenchmarkCommand
+ */
+@CommandLine.Command(
+        name = "compile",
+        mixinStandardHelpOptions = true,
+        description = "Compiles the HPO and disease annotations into a snapshot for fast startup of the plain command (--snapshot).",
+        sortOptions = false)
+public class CompileCommand implements Callable<Integer> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompileCommand.class);
+
+    @CommandLine.Option(
+            names={"-dp","--disease-phenotype-associations"},
+            required = true,
+            description ="Big HPO annotation file (phenotype.hpoa).")
+    private Path phenotypeAnnotationFile;
+
+    @CommandLine.Option(
+            names={"-o","--ontology"},
+            required = true,
+            description ="HPO in JSON format.")
+    private String ontologyFile;
+
+    @CommandLine.Option(
+            names={"-db", "--database"},
+            description = "Comma-separated list of databases. Valid databases are OMIM, ORPHA, and DECIPHER (default: ${DEFAULT-VALUE})." +
+                    "The databases OMIM and ORPHA must not be used at the same time!",
+            defaultValue = "OMIM",
+            split = ",")
+    private Set<String> diseaseDatabases;
+
+    @CommandLine.Option(
+            names = "--out",
+            description = "Output snapshot file",
+            required = true)
+    private Path outPath;
+
+    @Override
+    public Integer call() throws Exception {
+        BoqaBenchmarkCommand.checkDiseaseDatabases(this, diseaseDatabases);
+        LOGGER.info("Compiling snapshot, loading ontology file {} ...", ontologyFile);
+        Ontology hpo = OntologyLoader.loadOntology(Paths.get(ontologyFile).toFile());
+        DiseaseData diseaseData = BoqaBenchmarkCommand.loadDiseaseData(hpo, phenotypeAnnotationFile, diseaseDatabases);
+        DiseaseLayers diseaseLayers = DiseaseLayers.of(diseaseData, hpo);
+        String hpoaVersion = JsonResultWriter.readHpoaVersion(phenotypeAnnotationFile);
+        LOGGER.info("Layer deduplication for HPOA release {}: {}", hpoaVersion, diseaseLayers.dedupReport());
+
+        KnowledgeBaseSnapshot.write(outPath, diseaseLayers, hpo,
+                JsonResultWriter.readHpVersion(Paths.get(ontologyFile)),
+                hpoaVersion,
+                diseaseDatabases);
+        LOGGER.info("Snapshot written to {}", outPath);
+        return 0;
+    }
+}
@@ -0,0 +1,152 @@
+package org.p2gx.boqa.cli.cmd;
+
+import org.p2gx.boqa.core.algorithm.AlgorithmParameters;
+import org.p2gx.boqa.core.algorithm.BoqaCohortAnalyzer;
+import org.p2gx.boqa.core.algorithm.BoqaInvertedIndexCounter;
+import org.p2gx.boqa.core.algorithm.DiseaseLayers;
+import org.p2gx.boqa.core.algorithm.ParameterSweep;
+import org.p2gx.boqa.core.analysis.BoqaAnalysisResult;
+import org.p2gx.boqa.core.output.JsonResultWriter;
+import org.p2gx.boqa.core.patient.PhenopacketData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Spec;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Command for fitting alpha and beta to the diagnoses of a phenopacket cohort.
+ * <p>
+ * The counts of each phenopacket are computed once and cached by a {@link ParameterSweep}, which then maximizes the
+ * likelihood of the diagnoses over {@code log(alpha)} and {@code log(beta)}. The phenopackets are scored with the
+ * fitted values and written as by the {@code plain} command; the fitted values and the likelihood are recorded in
+ * the algorithm parameters of the output metadata.
+ * </p>
+ *
+ * @see SweepCommand for the ranking metrics on a fixed grid
+ */
+@CommandLine.Command(
+        name = "fit",
+        mixinStandardHelpOptions = true,
+        description = "Fits alpha and beta to the diagnoses of phenopackets by maximum likelihood and scores them with the fitted values.",
+        sortOptions = false)
+public class FitCommand implements Callable<Integer> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FitCommand.class);
+
+    @Spec
+    CommandSpec spec;
+
+    @CommandLine.Option(
+            names={"-dp","--disease-phenotype-associations"},
+            required = true,
+            description ="Big HPO annotation file (phenotype.hpoa).")
+    private Path phenotypeAnnotationFile;
+
+    @CommandLine.Option(
+            names={"-o","--ontology"},
+            required = true,
+            description ="HPO in JSON format.")
+    private String ontologyFile;
+
+    @CommandLine.Option(
+            names = {"-p", "--phenopackets"},
+            required = true,
+            description = "Input a text file with list of absolute paths to phenopackets.")
+    private Path phenopacketFile;
+
+    @CommandLine.Option(
+            names = "--out",
+            description = "Output JSON file",
+            required = true)
+    private Path outPath;
+
+    @CommandLine.Option(
+            names = {"-L", "--limit"},
+            description = "Limit number of diseases reported in output.")
+    private Integer resultsLimit;
+
+    @CommandLine.Option(
+            names={"-a","--alpha"},
+            description = "Initial alpha, such that 0<alpha<1 (default: ${DEFAULT-VALUE}).",
+            defaultValue = "5.241914347119568E-05")
+    private Double alpha;
+
+    @CommandLine.Option(
+            names={"-b","--beta"},
+            description = "Initial beta, such that 0<beta<1 (default: ${DEFAULT-VALUE}).",
+            defaultValue = "0.9")
+    private Double beta;
+
+    @CommandLine.Option(
+            names={"--max-iterations"},
+            description = "Maximum number of gradient steps (default: ${DEFAULT-VALUE}).",
+            defaultValue = "500")
+    private int maxIterations;
+
+    @CommandLine.Option(
+            names={"-db", "--database"},
+            description = "Comma-separated list of databases. Valid databases are OMIM, ORPHA, and DECIPHER (default: ${DEFAULT-VALUE})." +
+                    "The databases OMIM and ORPHA must not be used at the same time!",
+            defaultValue = "OMIM",
+            split = ",")
+    private Set<String> diseaseDatabases;
+
+    @CommandLine.Option(
+            names={"--snapshot"},
+            description = "Knowledge base snapshot written by the compile command.")
+    private Path snapshotFile;
+
+    @Override
+    public Integer call() throws Exception {
+        BoqaBenchmarkCommand.checkDiseaseDatabases(this, diseaseDatabases);
+        AlgorithmParameters start = AlgorithmParameters.create(alpha, beta);
+        DiseaseLayers diseaseLayers = BoqaBenchmarkCommand.loadDiseaseLayers(
+                ontologyFile, phenotypeAnnotationFile, diseaseDatabases, snapshotFile);
+        BoqaInvertedIndexCounter counter = new BoqaInvertedIndexCounter(diseaseLayers);
+
+        List<PhenopacketData> phenopackets =
+                BoqaBenchmarkCommand.readPhenopackets(phenopacketFile, counter::getPrimaryTermId);
+        LOGGER.info("Computing counts of {} phenopackets ...", phenopackets.size());
+        ParameterSweep sweep = ParameterSweep.of(counter, phenopackets,
+                phenopacket -> phenopacket.getDiseases().stream().map(PhenopacketData.DiseaseDTO::id).toList());
+
+        LOGGER.info("Fitting alpha and beta to the diagnoses of {} phenopackets ...", sweep.caseCount());
+        ParameterSweep.FittedParameters fit = sweep.fit(start, maxIterations);
+        AlgorithmParameters params = fit.params();
+        LOGGER.info("Fitted alpha={}, beta={} in {} iterations, mean log likelihood {}",
+                params.getAlpha(), params.getBeta(), fit.iterations(), fit.meanLogLikelihood());
+
+        int limit = (resultsLimit != null) ? resultsLimit : Integer.MAX_VALUE;
+        List<BoqaAnalysisResult> boqaAnalysisResults = new BoqaCohortAnalyzer(counter)
+                .computeBoqaResults(phenopackets, limit, params);
+
+        Map<String, Object> algorithmParams = new LinkedHashMap<>();
+        algorithmParams.put("alpha", params.getAlpha());
+        algorithmParams.put("beta", params.getBeta());
+        algorithmParams.put("fit", Map.of(
+                "initialAlpha", start.getAlpha(),
+                "initialBeta", start.getBeta(),
+                "cases", sweep.caseCount(),
+                "meanLogLikelihood", fit.meanLogLikelihood(),
+                "iterations", fit.iterations(),
+                "converged", fit.converged(),
+                "stopReason", fit.stopReason()));
+        LOGGER.info("Writing results to {}", outPath);
+        new JsonResultWriter().writeResults(
+                boqaAnalysisResults,
+                Paths.get(ontologyFile),
+                phenotypeAnnotationFile,
+                String.join(" ", spec.commandLine().getParseResult().originalArgs()),
+                algorithmParams,
+                outPath);
+        return 0;
+    }
+}
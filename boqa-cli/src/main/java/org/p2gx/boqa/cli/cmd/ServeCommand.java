@@ -0,0 +1,139 @@
+package org.p2gx.boqa.cli.cmd;
+
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.algorithm.AlgorithmParameters;
+import org.p2gx.boqa.core.analysis.Normalization;
+import org.p2gx.boqa.core.server.BoqaHttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Command for serving BOQA queries over HTTP.
+ * <p>
+ * The ontology and the annotations are loaded and the {@link Counter} is built once, then queries are answered by
+ * a {@link BoqaHttpServer} until the process is stopped. This avoids the startup of the {@code plain} command for
+ * ad-hoc queries, e.g.
+ * <pre>
+ * curl 'http://localhost:8080/score?observed=HP:0001166,HP:0000478&amp;limit=5'
+ * curl -X POST --data-binary @phenopacket.json 'http://localhost:8080/score'
+ * </pre>
+ *
+ * @see BoqaBenchmarkCommand for the analysis of phenopacket files
+ */
+@CommandLine.Command(
+        name = "serve",
+        mixinStandardHelpOptions = true,
+        description = "Loads the knowledge base once and scores HPO term lists or phenopackets sent over HTTP.",
+        sortOptions = false)
+public class ServeCommand implements Callable<Integer> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServeCommand.class);
+
+    @CommandLine.Option(
+            names={"-dp","--disease-phenotype-associations"},
+            required = true,
+            description ="Big HPO annotation file (phenotype.hpoa).")
+    private Path phenotypeAnnotationFile;
+
+    @CommandLine.Option(
+            names={"-o","--ontology"},
+            required = true,
+            description ="HPO in JSON format.")
+    private String ontologyFile;
+
+    @CommandLine.Option(
+            names={"--host"},
+            description = "Address to listen on (default: ${DEFAULT-VALUE}).",
+            defaultValue = "127.0.0.1")
+    private String host;
+
+    @CommandLine.Option(
+            names={"--port"},
+            description = "Port to listen on, 0 for any free port (default: ${DEFAULT-VALUE}).",
+            defaultValue = "8080")
+    private int port;
+
+    @CommandLine.Option(
+            names={"-n","--num-of-processes"},
+            description ="Number of threads that score diseases, shared by all requests, 0 for the number of " +
+                    "available processors (default: ${DEFAULT-VALUE}).",
+            defaultValue = "0")
+    private int numOfProcesses;
+
+    @CommandLine.Option(
+            names = {"-L", "--limit"},
+            description = "Number of diseases reported for requests without a limit parameter (default: ${DEFAULT-VALUE}).",
+            defaultValue = "10")
+    private int resultsLimit;
+
+    @CommandLine.Option(
+            names={"-a","--alpha"},
+            description = "Float value such that 0<alpha<1 (default: ${DEFAULT-VALUE}).",
+            defaultValue = "5.241914347119568E-05")
+    private Double alpha;
+
+    @CommandLine.Option(
+            names={"-b","--beta"},
+            description = "Float value such that 0<beta<1 (default: ${DEFAULT-VALUE}).",
+            defaultValue = "0.9")
+    private Double beta;
+
+    @CommandLine.Option(
+            names={"-db", "--database"},
+            description = "Comma-separated list of databases. Valid databases are OMIM, ORPHA, and DECIPHER (default: ${DEFAULT-VALUE})." +
+                    "The databases OMIM and ORPHA must not be used at the same time!",
+            defaultValue = "OMIM",
+            split = ",")
+    private Set<String> diseaseDatabases;
+
+    @CommandLine.Option(
+            names={"-c", "--counter"},
+            description = "Counter implementation used to compute the BOQA counts. Valid values: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}).",
+            defaultValue = "INVERTED")
+    private BoqaBenchmarkCommand.CounterType counterType;
+
+    @CommandLine.Option(
+            names={"--normalization"},
+            description = "Normalization of the top results. BOUNDED skips diseases that cannot enter the top " +
+                    "results and reports lower bounds of the probabilities. " +
+                    "Valid values: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}).",
+            defaultValue = "EXACT")
+    private Normalization normalization;
+
+    @CommandLine.Option(
+            names={"--layer-store"},
+            description = "Disease layer file used by the MAPPED counter.")
+    private Path layerStore;
+
+    @CommandLine.Option(
+            names={"--snapshot"},
+            description = "Knowledge base snapshot written by the compile command.")
+    private Path snapshotFile;
+
+    @Override
+    public Integer call() throws Exception {
+        BoqaBenchmarkCommand.checkDiseaseDatabases(this, diseaseDatabases);
+        AlgorithmParameters params = AlgorithmParameters.create(alpha, beta);
+        LOGGER.info("Using alpha={}, beta={}", params.getAlpha(), params.getBeta());
+        Counter counter = BoqaBenchmarkCommand.createCounter(counterType, layerStore,
+                ontologyFile, phenotypeAnnotationFile, diseaseDatabases, snapshotFile);
+
+        int threads = numOfProcesses > 0 ? numOfProcesses : Runtime.getRuntime().availableProcessors();
+        BoqaHttpServer server = BoqaHttpServer.start(new InetSocketAddress(host, port),
+                counter, params, normalization, resultsLimit, threads);
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            LOGGER.info("Stopping BOQA server");
+            server.close();
+            stopped.countDown();
+        }));
+        stopped.await();
+        return 0;
+    }
+}
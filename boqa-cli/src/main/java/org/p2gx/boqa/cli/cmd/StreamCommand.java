@@ -0,0 +1,154 @@
+package org.p2gx.boqa.cli.cmd;
+
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.algorithm.AlgorithmParameters;
+import org.p2gx.boqa.core.analysis.Normalization;
+import org.p2gx.boqa.core.server.BoqaStreamScorer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command for scoring patients read from stdin, one per line, with one JSON result line per patient on stdout.
+ * <p>
+ * The knowledge base is loaded once, then the lines are scored by a {@link BoqaStreamScorer} as they arrive, so that
+ * another process can pipe patients through BOQA without writing phenopacket files. Log messages are redirected to
+ * stderr to keep stdout valid NDJSON, e.g.
+ * <pre>
+ * printf 'HP:0001166,HP:0000478\n' | java -jar boqa-cli.jar stream -o hp.json -dp phenotype.hpoa
+ * </pre>
+ *
+ * @see ServeCommand for queries over HTTP
+ */
+@CommandLine.Command(
+        name = "stream",
+        mixinStandardHelpOptions = true,
+        description = "Scores HPO term lists or phenopackets read from stdin, one per line, and writes one JSON " +
+                "result per line to stdout.",
+        sortOptions = false)
+public class StreamCommand implements Callable<Integer> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamCommand.class);
+
+    @CommandLine.Option(
+            names={"-dp","--disease-phenotype-associations"},
+            required = true,
+            description ="Big HPO annotation file (phenotype.hpoa).")
+    private Path phenotypeAnnotationFile;
+
+    @CommandLine.Option(
+            names={"-o","--ontology"},
+            required = true,
+            description ="HPO in JSON format.")
+    private String ontologyFile;
+
+    @CommandLine.Option(
+            names={"-n","--num-of-processes"},
+            description ="Number of threads that score diseases, 0 for the number of available processors " +
+                    "(default: ${DEFAULT-VALUE}).",
+            defaultValue = "0")
+    private int numOfProcesses;
+
+    @CommandLine.Option(
+            names={"--max-in-flight"},
+            description = "Maximum number of lines read ahead of the output, 0 for twice the number of threads " +
+                    "(default: ${DEFAULT-VALUE}).",
+            defaultValue = "0")
+    private int maxInFlight;
+
+    @CommandLine.Option(
+            names={"--unordered"},
+            description = "Write each result as soon as it is ready instead of in the order of the input lines. " +
+                    "Match the results to the input by their line number.")
+    private boolean unordered;
+
+    @CommandLine.Option(
+            names = {"-L", "--limit"},
+            description = "Limit number of diseases reported per line (default: ${DEFAULT-VALUE}).",
+            defaultValue = "10")
+    private int resultsLimit;
+
+    @CommandLine.Option(
+            names={"-a","--alpha"},
+            description = "Float value such that 0<alpha<1 (default: ${DEFAULT-VALUE}).",
+            defaultValue = "5.241914347119568E-05")
+    private Double alpha;
+
+    @CommandLine.Option(
+            names={"-b","--beta"},
+            description = "Float value such that 0<beta<1 (default: ${DEFAULT-VALUE}).",
+            defaultValue = "0.9")
+    private Double beta;
+
+    @CommandLine.Option(
+            names={"-db", "--database"},
+            description = "Comma-separated list of databases. Valid databases are OMIM, ORPHA, and DECIPHER (default: ${DEFAULT-VALUE})." +
+                    "The databases OMIM and ORPHA must not be used at the same time!",
+            defaultValue = "OMIM",
+            split = ",")
+    private Set<String> diseaseDatabases;
+
+    @CommandLine.Option(
+            names={"-c", "--counter"},
+            description = "Counter implementation used to compute the BOQA counts. Valid values: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}).",
+            defaultValue = "INVERTED")
+    private BoqaBenchmarkCommand.CounterType counterType;
+
+    @CommandLine.Option(
+            names={"--normalization"},
+            description = "Normalization of the top results. BOUNDED skips diseases that cannot enter the top " +
+                    "results and reports lower bounds of the probabilities. " +
+                    "Valid values: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}).",
+            defaultValue = "EXACT")
+    private Normalization normalization;
+
+    @CommandLine.Option(
+            names={"--layer-store"},
+            description = "Disease layer file used by the MAPPED counter.")
+    private Path layerStore;
+
+    @CommandLine.Option(
+            names={"--snapshot"},
+            description = "Knowledge base snapshot written by the compile command.")
+    private Path snapshotFile;
+
+    @Override
+    public Integer call() throws Exception {
+        // the console log writes to System.out, so stdout is kept for the results only
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+
+        BoqaBenchmarkCommand.checkDiseaseDatabases(this, diseaseDatabases);
+        AlgorithmParameters params = AlgorithmParameters.create(alpha, beta);
+        LOGGER.info("Using alpha={}, beta={}", params.getAlpha(), params.getBeta());
+        Counter counter = BoqaBenchmarkCommand.createCounter(counterType, layerStore,
+                ontologyFile, phenotypeAnnotationFile, diseaseDatabases, snapshotFile);
+
+        int threads = numOfProcesses > 0 ? numOfProcesses : Runtime.getRuntime().availableProcessors();
+        int inFlight = maxInFlight > 0 ? maxInFlight : 2 * threads;
+        LOGGER.info("Reading patients from stdin, {} threads, at most {} lines in flight, {} output",
+                threads, inFlight, unordered ? "unordered" : "ordered");
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            BoqaStreamScorer scorer = new BoqaStreamScorer(
+                    counter, params, normalization, resultsLimit, pool, inFlight, !unordered);
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8));
+            long count = scorer.score(in, out);
+            LOGGER.info("Finished scoring {} lines.", count);
+        } finally {
+            pool.shutdown();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,129 @@
+package org.p2gx.boqa.cli.cmd;
+
+import org.p2gx.boqa.core.algorithm.AlgorithmParameters;
+import org.p2gx.boqa.core.algorithm.BoqaInvertedIndexCounter;
+import org.p2gx.boqa.core.algorithm.DiseaseLayers;
+import org.p2gx.boqa.core.algorithm.ParameterSweep;
+import org.p2gx.boqa.core.patient.PhenopacketData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Command for evaluating BOQA on a grid of alpha and beta values.
+ * <p>
+ * The counts of each phenopacket against all diseases do not depend on alpha and beta, so they are computed once
+ * with a {@link ParameterSweep} and every setting of the grid only rescores them. The diagnoses of the phenopackets
+ * are ranked for each setting and the ranking metrics are written as one TSV row per setting.
+ * </p>
+ *
+ * @see BoqaBenchmarkCommand for the analysis with a single setting
+ */
+@CommandLine.Command(
+        name = "sweep",
+        mixinStandardHelpOptions = true,
+        description = "Evaluates the ranks of the diagnoses of phenopackets on a grid of alpha and beta values.",
+        sortOptions = false)
+public class SweepCommand implements Callable<Integer> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SweepCommand.class);
+
+    @CommandLine.Option(
+            names={"-dp","--disease-phenotype-associations"},
+            required = true,
+            description ="Big HPO annotation file (phenotype.hpoa).")
+    private Path phenotypeAnnotationFile;
+
+    @CommandLine.Option(
+            names={"-o","--ontology"},
+            required = true,
+            description ="HPO in JSON format.")
+    private String ontologyFile;
+
+    @CommandLine.Option(
+            names = {"-p", "--phenopackets"},
+            required = true,
+            description = "Input a text file with list of absolute paths to phenopackets.")
+    private Path phenopacketFile;
+
+    @CommandLine.Option(
+            names = "--out",
+            description = "Output TSV file",
+            required = true)
+    private Path outPath;
+
+    @CommandLine.Option(
+            names={"-a","--alpha"},
+            description = "Comma-separated list of values such that 0<alpha<1 (default: ${DEFAULT-VALUE}).",
+            defaultValue = "1.0E-05,5.241914347119568E-05,1.0E-04,1.0E-03,1.0E-02",
+            split = ",")
+    private List<Double> alphas;
+
+    @CommandLine.Option(
+            names={"-b","--beta"},
+            description = "Comma-separated list of values such that 0<beta<1 (default: ${DEFAULT-VALUE}).",
+            defaultValue = "0.1,0.3,0.5,0.7,0.9",
+            split = ",")
+    private List<Double> betas;
+
+    @CommandLine.Option(
+            names={"-db", "--database"},
+            description = "Comma-separated list of databases. Valid databases are OMIM, ORPHA, and DECIPHER (default: ${DEFAULT-VALUE})." +
+                    "The databases OMIM and ORPHA must not be used at the same time!",
+            defaultValue = "OMIM",
+            split = ",")
+    private Set<String> diseaseDatabases;
+
+    @CommandLine.Option(
+            names={"--snapshot"},
+            description = "Knowledge base snapshot written by the compile command.")
+    private Path snapshotFile;
+
+    @Override
+    public Integer call() throws Exception {
+        BoqaBenchmarkCommand.checkDiseaseDatabases(this, diseaseDatabases);
+        List<AlgorithmParameters> grid = new ArrayList<>();
+        for (double alpha : alphas) {
+            for (double beta : betas) {
+                grid.add(AlgorithmParameters.create(alpha, beta));
+            }
+        }
+        DiseaseLayers diseaseLayers = BoqaBenchmarkCommand.loadDiseaseLayers(
+                ontologyFile, phenotypeAnnotationFile, diseaseDatabases, snapshotFile);
+        BoqaInvertedIndexCounter counter = new BoqaInvertedIndexCounter(diseaseLayers);
+
+        List<PhenopacketData> phenopackets =
+                BoqaBenchmarkCommand.readPhenopackets(phenopacketFile, counter::getPrimaryTermId);
+        LOGGER.info("Computing counts of {} phenopackets ...", phenopackets.size());
+        ParameterSweep sweep = ParameterSweep.of(counter, phenopackets,
+                phenopacket -> phenopacket.getDiseases().stream().map(PhenopacketData.DiseaseDTO::id).toList());
+
+        LOGGER.info("Evaluating {} settings of alpha and beta on {} phenopackets ...", grid.size(), sweep.caseCount());
+        List<ParameterSweep.RankingMetrics> metrics = sweep.evaluate(grid);
+        writeMetrics(metrics, outPath);
+        LOGGER.info("Ranking metrics written to {}", outPath);
+        return 0;
+    }
+
+    private static void writeMetrics(List<ParameterSweep.RankingMetrics> metrics, Path outPath) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(outPath)) {
+            writer.write("alpha\tbeta\tcases\ttop1\ttop3\ttop10\tmean_reciprocal_rank\tmean_rank\tmean_log_posterior");
+            writer.newLine();
+            for (ParameterSweep.RankingMetrics m : metrics) {
+                writer.write(String.format(Locale.ROOT, "%s\t%s\t%d\t%.6f\t%.6f\t%.6f\t%.6f\t%.3f\t%.6f",
+                        m.alpha(), m.beta(), m.cases(), m.top1(), m.top3(), m.top10(),
+                        m.meanReciprocalRank(), m.meanRank(), m.meanLogPosterior()));
+                writer.newLine();
+            }
+        }
+    }
+}
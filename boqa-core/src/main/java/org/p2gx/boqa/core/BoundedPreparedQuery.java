@@ -0,0 +1,35 @@
+package org.p2gx.boqa.core;
+
+import java.util.List;
+
+/**
+ * A {@link PreparedQuery} that also exposes the sizes of the query layer {@code Q}, of its frontier {@code F}
+ * (OFF nodes whose parents are all ON) and of the disease layers {@code D}.
+ * <p>
+ * These sizes bound the counts of a disease before it is counted: {@code TP = |D ∩ Q| <= min(|Q|, |D|)} and
+ * {@code FN = |D ∩ F| <= min(|F|, |D|)}. Since the bounds only grow with {@code |D|}, scanning the diseases in the
+ * order of {@link #diseaseIdsByLayerSize()} visits them by non-increasing score bound, which allows a top-K search
+ * to stop early, see {@link org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer}.
+ */
+public interface BoundedPreparedQuery extends PreparedQuery {
+
+    /**
+     * @return {@code |Q|}, the number of ON nodes of the query layer, i.e. TP + FP for every disease
+     */
+    int queryLayerSize();
+
+    /**
+     * @return {@code |F|}, the number of frontier nodes of the query layer, i.e. TN + FN for every disease
+     */
+    int frontierSize();
+
+    /**
+     * @return {@code |D|}, the number of terms in the initialized layer of a disease
+     */
+    int layerSize(String diseaseId);
+
+    /**
+     * @return all disease IDs, sorted by descending {@link #layerSize(String)} (ties by ID)
+     */
+    List<String> diseaseIdsByLayerSize();
+}
@@ -1,7 +1,11 @@
 package org.p2gx.boqa.core;
 
+import org.monarchinitiative.phenol.ontology.data.TermId;
 import org.p2gx.boqa.core.algorithm.BoqaCounts;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -12,6 +16,10 @@ import java.util.Set;
  * By calling the constructor of an implementing class, hidden layers are created for all diseases.
  * A resulting Counter object is valid for a given HPO release and can be used for all possible analyses.
  * <p>
+ * To score many diseases for one patient, prepare the patient's query once with {@link #prepareQuery(PatientData)}
+ * (or use the batch method {@link #computeBoqaCounts(PatientData, Collection)}) instead of calling
+ * {@link #computeBoqaCounts(String, PatientData)} per disease.
+ * <p>
  * @author <a href="mailto:peter.hansen@bih-charite.de">Peter Hansen</a>
  * @author <a href="mailto:leonardo.chimirri@bih-charite.de">Leonardo Chimirri</a>
  */
@@ -23,8 +31,65 @@ public interface Counter {
      */
     BoqaCounts computeBoqaCounts(String diseaseId, PatientData patientData);
 
+    /**
+     * Expands a patient's observed HPOs once into a {@link PreparedQuery} that computes BoqaCounts for any disease.
+     * <p>
+     * The default implementation delegates to {@link #computeBoqaCounts(String, PatientData)} and should be
+     * overridden by implementations that can share work between diseases.
+     */
+    default PreparedQuery prepareQuery(PatientData patientData) {
+        return new PreparedQuery() {
+            @Override
+            public PatientData patientData() {
+                return patientData;
+            }
+
+            @Override
+            public BoqaCounts computeBoqaCounts(String diseaseId) {
+                return Counter.this.computeBoqaCounts(diseaseId, patientData);
+            }
+        };
+    }
+
+    /**
+     * Returns the BoqaCounts of a patient for the given diseases, expanding the patient's observed HPOs only once.
+     */
+    default List<BoqaCounts> computeBoqaCounts(PatientData patientData, Collection<String> diseaseIds) {
+        return prepareQuery(patientData).computeBoqaCounts(diseaseIds);
+    }
+
+    /**
+     * Returns the BoqaCounts of a patient for all diseases, see {@link #getDiseaseIds()}.
+     */
+    default List<BoqaCounts> computeBoqaCounts(PatientData patientData) {
+        return computeBoqaCounts(patientData, getDiseaseIds());
+    }
+
     /**
      * Return a set with all disease IDs.
      */
     Set<String> getDiseaseIds();
+
+    /**
+     * Returns the dictionary of all diseases, see {@link #getDiseaseIds()}, shared by the results computed with
+     * this counter.
+     * <p>
+     * The default implementation creates a new dictionary without labels on every call and should be overridden.
+     */
+    default DiseaseDictionary getDiseaseDictionary() {
+        return DiseaseDictionary.of(getDiseaseIds(), Map.of());
+    }
+
+    /**
+     * Resolves an alternative or obsolete HPO term ID to its primary ID in the ontology of this counter, e.g. to
+     * read a patient's terms with {@code counter::getPrimaryTermId}, so that the results report and cache the terms
+     * as they are scored.
+     * <p>
+     * The default implementation returns the term ID unchanged.
+     *
+     * @return the primary term ID, or {@code null} if the term is not part of the ontology
+     */
+    default TermId getPrimaryTermId(TermId termId) {
+        return termId;
+    }
 }
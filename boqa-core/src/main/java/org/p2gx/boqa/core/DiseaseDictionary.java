@@ -0,0 +1,78 @@
+package org.p2gx.boqa.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable dictionary that assigns every disease a dense index {@code 0 <= d < size()}, in ascending order of the
+ * disease IDs, and holds each disease label once.
+ * <p>
+ * A dictionary is shared by all results computed with the same {@link Counter}, see
+ * {@link Counter#getDiseaseDictionary()}, so that per-patient results can refer to diseases by index instead of
+ * repeating IDs and labels.
+ */
+public final class DiseaseDictionary {
+
+    private final String[] ids;
+    private final String[] labels;
+    private final Map<String, Integer> indices;
+
+    private DiseaseDictionary(String[] ids, String[] labels) {
+        this.ids = ids;
+        this.labels = labels;
+        this.indices = new HashMap<>(ids.length * 2);
+        for (int d = 0; d < ids.length; d++) {
+            indices.put(ids[d], d);
+        }
+    }
+
+    /**
+     * Creates a dictionary of all diseases of {@code diseaseData}.
+     */
+    public static DiseaseDictionary of(DiseaseData diseaseData) {
+        return of(diseaseData.getDiseaseIds(), diseaseData.getIdToLabel());
+    }
+
+    /**
+     * Creates a dictionary of the given diseases. Diseases without an entry in {@code idToLabel} have a
+     * {@code null} label.
+     */
+    public static DiseaseDictionary of(Collection<String> diseaseIds, Map<String, String> idToLabel) {
+        String[] ids = diseaseIds.stream().distinct().sorted().toArray(String[]::new);
+        String[] labels = Arrays.stream(ids).map(idToLabel::get).toArray(String[]::new);
+        return new DiseaseDictionary(ids, labels);
+    }
+
+    /**
+     * @return number of diseases
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    public String id(int index) {
+        return ids[index];
+    }
+
+    public String label(int index) {
+        return labels[index];
+    }
+
+    /**
+     * @return the index of a disease, or {@code -1} if the disease is not in this dictionary
+     */
+    public int indexOf(String diseaseId) {
+        Integer index = indices.get(diseaseId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return all disease IDs in index order
+     */
+    public List<String> ids() {
+        return List.of(ids);
+    }
+}
@@ -0,0 +1,36 @@
+package org.p2gx.boqa.core;
+
+import org.p2gx.boqa.core.algorithm.BoqaCounts;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A patient's query as prepared by a {@link Counter}: the observed HPO terms are expanded into the query layer
+ * (and whatever else the implementation derives from it) once, after which the {@link BoqaCounts} can be computed
+ * for any number of diseases without touching the patient data again.
+ * <p>
+ * Obtain instances through {@link Counter#prepareQuery(PatientData)}. Implementations are immutable and can be
+ * shared between threads, e.g. to count diseases in parallel.
+ */
+public interface PreparedQuery {
+
+    /**
+     * @return the patient data this query was prepared from
+     */
+    PatientData patientData();
+
+    /**
+     * Returns a BoqaCounts object representing the exponents of alpha, beta, 1-alpha, 1-beta for a disease.
+     */
+    BoqaCounts computeBoqaCounts(String diseaseId);
+
+    /**
+     * Returns the BoqaCounts for the given diseases, in iteration order of {@code diseaseIds}.
+     */
+    default List<BoqaCounts> computeBoqaCounts(Collection<String> diseaseIds) {
+        return diseaseIds.stream()
+                .map(this::computeBoqaCounts)
+                .toList();
+    }
+}
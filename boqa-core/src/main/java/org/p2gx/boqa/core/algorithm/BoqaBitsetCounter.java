@@ -0,0 +1,220 @@
+package org.p2gx.boqa.core.algorithm;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.monarchinitiative.phenol.ontology.data.Ontology;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.BoundedPreparedQuery;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.internal.BitsetKernel;
+import org.p2gx.boqa.core.internal.BitsetKernels;
+import org.p2gx.boqa.core.internal.Bitsets;
+import org.p2gx.boqa.core.internal.OntologyTraverser;
+import org.p2gx.boqa.core.internal.TermIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Bitset-backed {@link Counter} that produces the same {@link BoqaCounts} as {@link BoqaSetCounter}.
+ * <p>
+ * At construction, every HPO term is assigned a dense integer index ({@link TermIndex}) and each disease layer is
+ * stored as a {@code long[]} bitset over all terms. For a patient, the query layer {@code Q}
+ * and its <i>frontier</i> {@code F} (terms that are OFF but whose parents are all ON) are encoded the same way,
+ * so that the four counts for a disease layer {@code D} reduce to AND/ANDNOT and popcount:
+ * <ul>
+ *     <li>TP = |D ∩ Q|, FP = |Q| - TP</li>
+ *     <li>FN = |D ∩ F|, TN = |F| - FN</li>
+ * </ul>
+ * FN and TN are equivalent to the definitions in {@link BoqaSetCounter}: every node of {@code D \ Q} whose parents
+ * are all ON lies in {@code F}, and every OFF child of an ON node whose parents are all ON lies in {@code F} as well.
+ * <p>
+ * The AND + popcount loops run on the {@link BitsetKernel} selected at startup, which uses SIMD instructions if the
+ * JVM is started with {@code --add-modules jdk.incubator.vector}, see {@link BitsetKernels}.
+ */
+public class BoqaBitsetCounter implements Counter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoqaBitsetCounter.class);
+
+    private final OntologyTraverser ontologyTraverser;
+    private final TermIndex termIndex;
+    private final BitsetKernel kernel = BitsetKernels.preferred();
+    // diseaseLayers[g]: distinct layer g, layerGroups[d]: distinct layer of the disease with index d in the dictionary
+    private final long[][] diseaseLayers;
+    private final int[] layerGroups;
+    // layerSizes[d]: number of terms in the layer of disease d
+    private final int[] layerSizes;
+    private final Set<String> diseaseIds;
+    private final List<String> diseaseIdsByLayerSize;
+    private final DiseaseDictionary diseaseDictionary;
+    private final Cache<Set<TermId>, QueryLayer> queryLayerCache = Caffeine.newBuilder().maximumSize(256).build();
+
+    /**
+     * Bitsets of a patient's initialized query layer (ON nodes) and of its frontier, together with their sizes.
+     * Both depend only on the patient and are computed once per patient. The counts of each distinct disease layer
+     * are kept in {@code counts} once computed.
+     */
+    private record QueryLayer(long[] on, int onCount, long[] frontier, int frontierCount, LayerCountsMemo counts) {}
+
+    private final class PreparedBitsetQuery implements BoundedPreparedQuery {
+        private final PatientData patientData;
+        private final QueryLayer queryLayer;
+
+        private PreparedBitsetQuery(PatientData patientData, QueryLayer queryLayer) {
+            this.patientData = patientData;
+            this.queryLayer = queryLayer;
+        }
+
+        @Override
+        public PatientData patientData() {
+            return patientData;
+        }
+
+        @Override
+        public BoqaCounts computeBoqaCounts(String diseaseId) {
+            return BoqaBitsetCounter.this.computeBoqaCounts(diseaseId, queryLayer);
+        }
+
+        @Override
+        public int queryLayerSize() {
+            return queryLayer.onCount();
+        }
+
+        @Override
+        public int frontierSize() {
+            return queryLayer.frontierCount();
+        }
+
+        @Override
+        public int layerSize(String diseaseId) {
+            return BoqaBitsetCounter.this.layerSize(diseaseId);
+        }
+
+        @Override
+        public List<String> diseaseIdsByLayerSize() {
+            return diseaseIdsByLayerSize;
+        }
+    }
+
+    /**
+     * Constructs a BoqaBitsetCounter and initializes all disease layers as bitsets.
+     * <p>
+     * As in {@link BoqaSetCounter}, only descendants of the "Phenotypic Abnormality" term are considered for the
+     * disease layers.
+     *
+     * @param diseaseData the disease data containing disease IDs, labels, and observed phenotypes
+     * @param hpo         the HPO ontology used to traverse and expand phenotype terms
+     */
+    public BoqaBitsetCounter(DiseaseData diseaseData, Ontology hpo) {
+        this(DiseaseLayers.of(diseaseData, hpo));
+    }
+
+    /**
+     * Constructs a BoqaBitsetCounter from already initialized disease layers.
+     *
+     * @param diseaseLayers the initialized disease layers, e.g. read from a snapshot
+     */
+    public BoqaBitsetCounter(DiseaseLayers diseaseLayers) {
+        this.ontologyTraverser = diseaseLayers.ontologyTraverser();
+        this.termIndex = diseaseLayers.termIndex();
+        this.diseaseDictionary = diseaseLayers.diseaseDictionary();
+        this.diseaseIds = Set.copyOf(diseaseDictionary.ids());
+        LOGGER.info("Encoding bitset disease layers for {} diseases over {} terms", diseaseIds.size(), termIndex.size());
+        int layerWords = Bitsets.words(termIndex.size());
+        this.layerGroups = IntStream.range(0, diseaseLayers.size()).map(diseaseLayers::layerGroup).toArray();
+        this.layerSizes = IntStream.range(0, diseaseLayers.size()).map(diseaseLayers::layerSize).toArray();
+        this.diseaseLayers = IntStream.range(0, diseaseLayers.distinctLayerCount())
+                .mapToObj(g -> {
+                    long[] bits = new long[layerWords];
+                    for (int t : diseaseLayers.distinctLayer(g)) {
+                        Bitsets.set(bits, t);
+                    }
+                    return bits;
+                })
+                .toArray(long[][]::new);
+        this.diseaseIdsByLayerSize = diseaseLayers.diseaseIdsByLayerSize();
+    }
+
+    /**
+     * Computes the counts for a disease and a patient's observed HPO terms, see {@link BoqaSetCounter}.
+     * The query layer and its frontier are computed once per patient and cached, as are the counts of diseases with
+     * identical layers.
+     *
+     * @param diseaseId   the unique ID of the disease whose counts are computed
+     * @param patientData the patient data containing observed HPO terms and patient ID
+     * @return a {@link BoqaCounts} record containing the four counts for this disease-patient pair
+     */
+    @Override
+    public BoqaCounts computeBoqaCounts(String diseaseId, PatientData patientData) {
+        return computeBoqaCounts(diseaseId, queryLayerCache.get(patientData.getObservedTerms(), this::initQueryLayer));
+    }
+
+    /**
+     * Expands the patient's observed HPO terms into the bitsets of the query layer and its frontier once.
+     */
+    @Override
+    public BoundedPreparedQuery prepareQuery(PatientData patientData) {
+        return new PreparedBitsetQuery(patientData, initQueryLayer(patientData.getObservedTerms()));
+    }
+
+    private BoqaCounts computeBoqaCounts(String diseaseId, QueryLayer query) {
+        int d = diseaseIndex(diseaseId);
+        int g = layerGroups[d];
+        int tp;
+        int fn;
+        long counts = query.counts().get(g);
+        if (counts == 0) {
+            tp = kernel.andCount(diseaseLayers[g], query.on());
+            fn = kernel.andCount(diseaseLayers[g], query.frontier());
+            query.counts().set(g, tp, fn);
+        } else {
+            tp = LayerCountsMemo.truePositives(counts);
+            fn = LayerCountsMemo.falseNegatives(counts);
+        }
+        return new BoqaCounts(diseaseId, diseaseDictionary.label(d),
+                tp, query.onCount() - tp, query.frontierCount() - fn, fn);
+    }
+
+    /**
+     * @return the number of terms in the initialized layer of a disease
+     */
+    public int layerSize(String diseaseId) {
+        return layerSizes[diseaseIndex(diseaseId)];
+    }
+
+    private int diseaseIndex(String diseaseId) {
+        int index = diseaseDictionary.indexOf(diseaseId);
+        if (index < 0) {
+            throw new IllegalArgumentException("Disease ID \"" + diseaseId + "\" not found!");
+        }
+        return index;
+    }
+
+    private QueryLayer initQueryLayer(Set<TermId> observedHpos) {
+        long[] on = new long[Bitsets.words(termIndex.size())];
+        int onCount = ontologyTraverser.initLayer(observedHpos, on);
+        long[] frontier = new long[on.length];
+        int frontierCount = ontologyTraverser.frontier(on, frontier);
+        return new QueryLayer(on, onCount, frontier, frontierCount, new LayerCountsMemo(diseaseLayers.length));
+    }
+
+    @Override
+    public Set<String> getDiseaseIds() {
+        return this.diseaseIds;
+    }
+
+    @Override
+    public DiseaseDictionary getDiseaseDictionary() {
+        return diseaseDictionary;
+    }
+
+    @Override
+    public TermId getPrimaryTermId(TermId termId) {
+        return ontologyTraverser.getPrimaryTermId(termId);
+    }
+}
@@ -0,0 +1,162 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.analysis.BoqaAnalysisResult;
+import org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer;
+import org.p2gx.boqa.core.internal.Bitsets;
+import org.p2gx.boqa.core.internal.OntologyTraverser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Scores a whole cohort of patients against all diseases of a {@link BoqaInvertedIndexCounter} at once.
+ * <p>
+ * The query layers and frontiers of the patients form a sparse patients × terms matrix, the disease layers a sparse
+ * terms × layers matrix (the posting lists of the counter, over distinct layers). TP and FN of all patients are the
+ * rows of their product, which is computed row by row: for each term of a patient's query layer (frontier), the
+ * posting list of the term is added to the patient's TP (FN) row.
+ * <p>
+ * The patients are split into tiles of {@value #TILE_PATIENTS}, which are scored in parallel. Within a tile, the
+ * product is computed for one block of {@value #BLOCK_LAYERS} distinct layers at a time, so that the rows of the
+ * tile written by the posting lists stay in cache; each posting list is resumed where the previous block stopped.
+ * The rows are then ranked per patient as in {@link BoqaSession}, scoring each distinct layer once. Unlike
+ * {@link BoqaPatientAnalyzer#computeBoqaResults(PatientData, org.p2gx.boqa.core.Counter, int, AlgorithmParameters)}
+ * per patient, this allocates no {@link BoqaCounts} per disease except for the reported results.
+ */
+public final class BoqaCohortAnalyzer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoqaCohortAnalyzer.class);
+    // patients per tile, a tile is scored by one thread
+    private static final int TILE_PATIENTS = 32;
+    // distinct layers per block, the TP and FN rows of a tile take 2 * 32 * 4096 * 4 bytes = 1 MiB per block
+    private static final int BLOCK_LAYERS = 4096;
+
+    private final BoqaInvertedIndexCounter counter;
+    private final OntologyTraverser ontologyTraverser;
+
+    public BoqaCohortAnalyzer(BoqaInvertedIndexCounter counter) {
+        this.counter = counter;
+        this.ontologyTraverser = counter.ontologyTraverser;
+    }
+
+    /**
+     * Computes the {@code resultsLimit} best normalized BOQA scores of every patient, with exact normalization.
+     *
+     * @param patients     the cohort
+     * @param resultsLimit maximum number of top-scoring diseases to return per patient
+     * @param params       alpha, beta, log(alpha), log(beta) etc.
+     * @return the results of the patients, in the order of {@code patients}
+     */
+    public List<BoqaAnalysisResult> computeBoqaResults(List<? extends PatientData> patients, int resultsLimit,
+                                                       AlgorithmParameters params) {
+        LOGGER.info("Scoring {} patients against {} distinct disease layers", patients.size(), counter.distinctLayerCount);
+        return mapTiles(patients, (tile, counts) -> {
+            List<BoqaAnalysisResult> results = new ArrayList<>(tile.size());
+            for (int p = 0; p < tile.size(); p++) {
+                results.add(new BoqaAnalysisResult(tile.get(p), LayerRanking.rank(counter,
+                        counts.counts(), counts.truePositivesOffset(p), counts.counts(), counts.falseNegativesOffset(p),
+                        counts.queryLayerSizes()[p], counts.frontierSizes()[p], resultsLimit, params)));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * TP and FN of all distinct layers for a tile of patients.
+     *
+     * @param counts TP of patient {@code p} and distinct layer {@code g} at {@code truePositivesOffset(p) + g}, FN at
+     *               {@code falseNegativesOffset(p) + g}
+     */
+    record TileCounts(int layers, int[] counts, int[] queryLayerSizes, int[] frontierSizes) {
+        int truePositivesOffset(int p) {
+            return 2 * p * layers;
+        }
+
+        int falseNegativesOffset(int p) {
+            return (2 * p + 1) * layers;
+        }
+    }
+
+    /**
+     * Counts the tiles of {@code patients} in parallel and maps each tile with its counts to a list of results.
+     *
+     * @return the concatenated results, in the order of the tiles
+     */
+    <P extends PatientData, R> List<R> mapTiles(List<P> patients, BiFunction<List<P>, TileCounts, List<R>> mapper) {
+        int tiles = (patients.size() + TILE_PATIENTS - 1) / TILE_PATIENTS;
+        return IntStream.range(0, tiles)
+                .parallel()
+                .mapToObj(tile -> {
+                    List<P> patientsOfTile = patients.subList(tile * TILE_PATIENTS,
+                            Math.min((tile + 1) * TILE_PATIENTS, patients.size()));
+                    return mapper.apply(patientsOfTile, countTile(patientsOfTile));
+                })
+                .flatMap(List::stream)
+                .toList();
+    }
+
+    private TileCounts countTile(List<? extends PatientData> tile) {
+        int layers = counter.distinctLayerCount;
+        int[] postingOffsets = counter.postingOffsets;
+        int[] postings = counter.postings;
+
+        // row 2p: terms of the query layer of patient p, row 2p + 1: those of its frontier
+        int rows = 2 * tile.size();
+        int[][] rowTerms = new int[rows][];
+        int[] queryLayerSizes = new int[tile.size()];
+        int[] frontierSizes = new int[tile.size()];
+        long[] on = new long[Bitsets.words(counter.termIndex.size())];
+        long[] frontier = new long[on.length];
+        for (int p = 0; p < tile.size(); p++) {
+            Arrays.fill(on, 0L);
+            queryLayerSizes[p] = ontologyTraverser.initLayer(tile.get(p).getObservedTerms(), on);
+            frontierSizes[p] = ontologyTraverser.frontier(on, frontier);
+            rowTerms[2 * p] = setBits(on);
+            rowTerms[2 * p + 1] = setBits(frontier);
+        }
+
+        // counts[row * layers + g]: TP (even rows) or FN (odd rows) of distinct layer g
+        int[] counts = new int[rows * layers];
+        // cursors[row][i]: next posting of term rowTerms[row][i] not added yet
+        int[][] cursors = new int[rows][];
+        for (int row = 0; row < rows; row++) {
+            cursors[row] = new int[rowTerms[row].length];
+            for (int i = 0; i < rowTerms[row].length; i++) {
+                cursors[row][i] = postingOffsets[rowTerms[row][i]];
+            }
+        }
+        for (int blockEnd = Math.min(BLOCK_LAYERS, layers); ; blockEnd = Math.min(blockEnd + BLOCK_LAYERS, layers)) {
+            for (int row = 0; row < rows; row++) {
+                int base = row * layers;
+                int[] terms = rowTerms[row];
+                int[] cursor = cursors[row];
+                for (int i = 0; i < terms.length; i++) {
+                    int k = cursor[i];
+                    int end = postingOffsets[terms[i] + 1];
+                    while (k < end && postings[k] < blockEnd) {
+                        counts[base + postings[k++]]++;
+                    }
+                    cursor[i] = k;
+                }
+            }
+            if (blockEnd == layers) {
+                break;
+            }
+        }
+        return new TileCounts(layers, counts, queryLayerSizes, frontierSizes);
+    }
+
+    private static int[] setBits(long[] bits) {
+        int[] indices = new int[Bitsets.cardinality(bits)];
+        int size = 0;
+        for (int t = Bitsets.nextSetBit(bits, 0); t >= 0; t = Bitsets.nextSetBit(bits, t + 1)) {
+            indices[size++] = t;
+        }
+        return indices;
+    }
+}
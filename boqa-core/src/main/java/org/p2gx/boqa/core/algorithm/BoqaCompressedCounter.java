@@ -0,0 +1,244 @@
+package org.p2gx.boqa.core.algorithm;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.monarchinitiative.phenol.ontology.data.Ontology;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.BoundedPreparedQuery;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.internal.Bitsets;
+import org.p2gx.boqa.core.internal.CompressedLayer;
+import org.p2gx.boqa.core.internal.OntologyTraverser;
+import org.p2gx.boqa.core.internal.TermIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * {@link Counter} that keeps the disease layers as {@link CompressedLayer}s, a Roaring-style representation with an
+ * array or bitmap container per chunk of term indices, to reduce the heap used per disease.
+ * <p>
+ * A typical disease layer holds about a hundred terms. Stored as a {@code HashSet<TermId>} in {@link BoqaSetCounter},
+ * each term costs a hash map node on top of the table; as a bitset in {@link BoqaBitsetCounter}, each disease costs
+ * one bit per term of the ontology, regardless of its size. Here, each term costs 2 bytes in an array
+ * container, while dense layers switch to a bitmap. Use {@link #memoryReport()} and {@link #bytesUsed(String)} to
+ * see the footprint of the loaded diseases.
+ * <p>
+ * Patients are handled as in {@link BoqaBitsetCounter}: the query layer and its frontier are bitsets, against which
+ * the compressed disease layers are counted. The counts are identical to those of {@link BoqaSetCounter}.
+ */
+public class BoqaCompressedCounter implements Counter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoqaCompressedCounter.class);
+
+    private final OntologyTraverser ontologyTraverser;
+    private final TermIndex termIndex;
+    private final DiseaseDictionary diseaseDictionary;
+    private final Set<String> diseaseIds;
+    private final List<String> diseaseIdsByLayerSize;
+    // layers[g]: distinct layer g, layerGroups[d]: distinct layer of the disease with index d in the dictionary
+    private final CompressedLayer[] layers;
+    private final int[] layerGroups;
+    private final Cache<Set<TermId>, QueryLayer> queryLayerCache = Caffeine.newBuilder().maximumSize(256).build();
+
+    /**
+     * Memory used by the compressed disease layers. Diseases with identical layers share one compressed layer.
+     *
+     * @param diseases         number of diseases
+     * @param distinctLayers   number of distinct, i.e. stored, layers
+     * @param terms            total number of terms in the stored layers
+     * @param arrayContainers  number of array containers
+     * @param bitmapContainers number of bitmap containers
+     * @param bytes            estimated heap size of the stored layers, assuming compressed oops
+     */
+    public record LayerMemoryReport(int diseases, int distinctLayers, long terms, int arrayContainers,
+                                    int bitmapContainers, long bytes) {
+        @Override
+        public String toString() {
+            return String.format("%d diseases, %d distinct layers, %d terms (%.1f per layer), " +
+                            "%d array / %d bitmap containers, ~%.1f MiB (%.0f bytes per disease)",
+                    diseases, distinctLayers, terms, distinctLayers == 0 ? 0. : (double) terms / distinctLayers,
+                    arrayContainers, bitmapContainers, bytes / (1024. * 1024.),
+                    diseases == 0 ? 0. : (double) bytes / diseases);
+        }
+    }
+
+    /**
+     * Bitsets of a patient's initialized query layer (ON nodes) and of its frontier, together with their sizes, and
+     * the counts of the distinct disease layers computed so far.
+     */
+    private record QueryLayer(long[] on, int onCount, long[] frontier, int frontierCount, LayerCountsMemo counts) {}
+
+    private final class PreparedCompressedQuery implements BoundedPreparedQuery {
+        private final PatientData patientData;
+        private final QueryLayer queryLayer;
+
+        private PreparedCompressedQuery(PatientData patientData, QueryLayer queryLayer) {
+            this.patientData = patientData;
+            this.queryLayer = queryLayer;
+        }
+
+        @Override
+        public PatientData patientData() {
+            return patientData;
+        }
+
+        @Override
+        public BoqaCounts computeBoqaCounts(String diseaseId) {
+            return BoqaCompressedCounter.this.computeBoqaCounts(diseaseId, queryLayer);
+        }
+
+        @Override
+        public int queryLayerSize() {
+            return queryLayer.onCount();
+        }
+
+        @Override
+        public int frontierSize() {
+            return queryLayer.frontierCount();
+        }
+
+        @Override
+        public int layerSize(String diseaseId) {
+            return BoqaCompressedCounter.this.layerSize(diseaseId);
+        }
+
+        @Override
+        public List<String> diseaseIdsByLayerSize() {
+            return diseaseIdsByLayerSize;
+        }
+    }
+
+    /**
+     * Constructs a BoqaCompressedCounter and initializes all disease layers in compressed form.
+     * <p>
+     * As in {@link BoqaSetCounter}, only descendants of the "Phenotypic Abnormality" term are considered for the
+     * disease layers.
+     *
+     * @param diseaseData the disease data containing disease IDs, labels, and observed phenotypes
+     * @param hpo         the HPO ontology used to traverse and expand phenotype terms
+     */
+    public BoqaCompressedCounter(DiseaseData diseaseData, Ontology hpo) {
+        this(DiseaseLayers.of(diseaseData, hpo));
+    }
+
+    /**
+     * Constructs a BoqaCompressedCounter from already initialized disease layers.
+     *
+     * @param diseaseLayers the initialized disease layers, e.g. read from a snapshot
+     */
+    public BoqaCompressedCounter(DiseaseLayers diseaseLayers) {
+        this.ontologyTraverser = diseaseLayers.ontologyTraverser();
+        this.termIndex = diseaseLayers.termIndex();
+        this.diseaseDictionary = diseaseLayers.diseaseDictionary();
+        this.diseaseIds = Set.copyOf(diseaseDictionary.ids());
+        this.layerGroups = IntStream.range(0, diseaseLayers.size()).map(diseaseLayers::layerGroup).toArray();
+        this.layers = IntStream.range(0, diseaseLayers.distinctLayerCount())
+                .mapToObj(g -> CompressedLayer.of(diseaseLayers.distinctLayer(g)))
+                .toArray(CompressedLayer[]::new);
+        this.diseaseIdsByLayerSize = diseaseLayers.diseaseIdsByLayerSize();
+        LOGGER.info("Compressed disease layers: {}", memoryReport());
+    }
+
+    /**
+     * Computes the counts for a disease and a patient's observed HPO terms, see {@link BoqaSetCounter}.
+     * The query layer and its frontier are computed once per patient and cached.
+     *
+     * @param diseaseId   the unique ID of the disease whose counts are computed
+     * @param patientData the patient data containing observed HPO terms and patient ID
+     * @return a {@link BoqaCounts} record containing the four counts for this disease-patient pair
+     */
+    @Override
+    public BoqaCounts computeBoqaCounts(String diseaseId, PatientData patientData) {
+        return computeBoqaCounts(diseaseId, queryLayerCache.get(patientData.getObservedTerms(), this::initQueryLayer));
+    }
+
+    /**
+     * Expands the patient's observed HPO terms into the bitsets of the query layer and its frontier once.
+     */
+    @Override
+    public BoundedPreparedQuery prepareQuery(PatientData patientData) {
+        return new PreparedCompressedQuery(patientData, initQueryLayer(patientData.getObservedTerms()));
+    }
+
+    private BoqaCounts computeBoqaCounts(String diseaseId, QueryLayer query) {
+        int d = diseaseIndex(diseaseId);
+        int g = layerGroups[d];
+        int tp;
+        int fn;
+        long counts = query.counts().get(g);
+        if (counts == 0) {
+            tp = layers[g].andCount(query.on());
+            fn = layers[g].andCount(query.frontier());
+            query.counts().set(g, tp, fn);
+        } else {
+            tp = LayerCountsMemo.truePositives(counts);
+            fn = LayerCountsMemo.falseNegatives(counts);
+        }
+        return new BoqaCounts(diseaseId, diseaseDictionary.label(d),
+                tp, query.onCount() - tp, query.frontierCount() - fn, fn);
+    }
+
+    private QueryLayer initQueryLayer(Set<TermId> observedHpos) {
+        long[] on = new long[Bitsets.words(termIndex.size())];
+        int onCount = ontologyTraverser.initLayer(observedHpos, on);
+        long[] frontier = new long[on.length];
+        int frontierCount = ontologyTraverser.frontier(on, frontier);
+        return new QueryLayer(on, onCount, frontier, frontierCount, new LayerCountsMemo(layers.length));
+    }
+
+    private int diseaseIndex(String diseaseId) {
+        int index = diseaseDictionary.indexOf(diseaseId);
+        if (index < 0) {
+            throw new IllegalArgumentException("Disease ID \"" + diseaseId + "\" not found!");
+        }
+        return index;
+    }
+
+    /**
+     * @return the number of terms in the initialized layer of a disease
+     */
+    public int layerSize(String diseaseId) {
+        return layers[layerGroups[diseaseIndex(diseaseId)]].cardinality();
+    }
+
+    /**
+     * @return the estimated heap size of the compressed layer of a disease in bytes, which may be shared with other
+     * diseases with the same layer
+     */
+    public long bytesUsed(String diseaseId) {
+        return layers[layerGroups[diseaseIndex(diseaseId)]].sizeInBytes();
+    }
+
+    /**
+     * Reports the size of all compressed disease layers.
+     */
+    public LayerMemoryReport memoryReport() {
+        return new LayerMemoryReport(layerGroups.length, layers.length,
+                Arrays.stream(layers).mapToLong(CompressedLayer::cardinality).sum(),
+                Arrays.stream(layers).mapToInt(CompressedLayer::arrayContainerCount).sum(),
+                Arrays.stream(layers).mapToInt(CompressedLayer::bitmapContainerCount).sum(),
+                Arrays.stream(layers).mapToLong(CompressedLayer::sizeInBytes).sum());
+    }
+
+    @Override
+    public Set<String> getDiseaseIds() {
+        return diseaseIds;
+    }
+
+    @Override
+    public DiseaseDictionary getDiseaseDictionary() {
+        return diseaseDictionary;
+    }
+
+    @Override
+    public TermId getPrimaryTermId(TermId termId) {
+        return ontologyTraverser.getPrimaryTermId(termId);
+    }
+}
@@ -0,0 +1,277 @@
+package org.p2gx.boqa.core.algorithm;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.monarchinitiative.phenol.ontology.data.Ontology;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.BoundedPreparedQuery;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.internal.Bitsets;
+import org.p2gx.boqa.core.internal.OntologyTraverser;
+import org.p2gx.boqa.core.internal.TermIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * {@link Counter} built on an inverted index from HPO terms to the diseases whose layer contains them.
+ * <p>
+ * For one patient, most disease layers share no or very few terms with the query layer. Instead of intersecting
+ * every disease layer with the query, this counter walks the posting lists of the terms in the query layer
+ * {@code Q} and in its frontier {@code F} once, accumulating for every disease at the same time:
+ * <ul>
+ *     <li>TP = |D ∩ Q|, FP = |Q| - TP</li>
+ *     <li>FN = |D ∩ F|, TN = |F| - FN</li>
+ * </ul>
+ * The cost of {@link #prepareQuery(PatientData)} therefore scales with the size of the query and the number of
+ * diseases annotated to its terms, rather than with the number of diseases times the size of their layers.
+ * Afterwards, the counts of any disease are looked up in constant time.
+ * <p>
+ * The posting lists hold distinct layers rather than diseases ({@link DiseaseLayers#layerGroup(int)}), so diseases
+ * with identical layers are accumulated once and share their counts.
+ * <p>
+ * The counts are identical to those of {@link BoqaSetCounter}.
+ */
+public class BoqaInvertedIndexCounter implements Counter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoqaInvertedIndexCounter.class);
+
+    // package-private fields are shared with BoqaSession
+    final OntologyTraverser ontologyTraverser;
+    final TermIndex termIndex;
+    final DiseaseDictionary diseaseDictionary;
+    private final Set<String> diseaseIdSet;
+    private final List<String> diseaseIdsByLayerSize;
+    // layerSizes[d]: number of terms in the layer of disease d
+    private final int[] layerSizes;
+    // layerGroups[d]: distinct layer of disease d
+    final int[] layerGroups;
+    final int distinctLayerCount;
+    // diseases with distinct layer g, ascending: groupMembers[groupOffsets[g]] ... groupMembers[groupOffsets[g + 1] - 1]
+    final int[] groupOffsets;
+    final int[] groupMembers;
+    // distinct layers that contain term t: postings[postingOffsets[t]] ... postings[postingOffsets[t + 1] - 1]
+    final int[] postingOffsets;
+    final int[] postings;
+    private final ThreadLocal<Scratch> scratch;
+    private final Cache<Set<TermId>, QueryCounts> queryCountsCache = Caffeine.newBuilder().maximumSize(64).build();
+
+    /**
+     * Constructs a BoqaInvertedIndexCounter: initializes all disease layers and inverts them into posting lists.
+     * As in {@link BoqaSetCounter}, only descendants of the "Phenotypic Abnormality" term are considered for the
+     * disease layers.
+     *
+     * @param diseaseData the disease data containing disease IDs, labels, and observed phenotypes
+     * @param hpo         the HPO ontology used to traverse and expand phenotype terms
+     */
+    public BoqaInvertedIndexCounter(DiseaseData diseaseData, Ontology hpo) {
+        this(DiseaseLayers.of(diseaseData, hpo));
+    }
+
+    /**
+     * Constructs a BoqaInvertedIndexCounter from already initialized disease layers.
+     *
+     * @param diseaseLayers the initialized disease layers, e.g. read from a snapshot
+     */
+    public BoqaInvertedIndexCounter(DiseaseLayers diseaseLayers) {
+        this.ontologyTraverser = diseaseLayers.ontologyTraverser();
+        this.termIndex = diseaseLayers.termIndex();
+        this.diseaseDictionary = diseaseLayers.diseaseDictionary();
+        int words = Bitsets.words(termIndex.size());
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(new long[words], new long[words]));
+        this.diseaseIdSet = Set.copyOf(diseaseDictionary.ids());
+
+        LOGGER.info("Inverting {} distinct disease layers of {} diseases", diseaseLayers.distinctLayerCount(), diseaseDictionary.size());
+        this.layerSizes = IntStream.range(0, diseaseLayers.size()).map(diseaseLayers::layerSize).toArray();
+        this.layerGroups = IntStream.range(0, diseaseLayers.size()).map(diseaseLayers::layerGroup).toArray();
+        this.distinctLayerCount = diseaseLayers.distinctLayerCount();
+        int[][] layers = IntStream.range(0, distinctLayerCount)
+                .mapToObj(diseaseLayers::distinctLayer)
+                .toArray(int[][]::new);
+        this.diseaseIdsByLayerSize = diseaseLayers.diseaseIdsByLayerSize();
+
+        this.groupOffsets = new int[distinctLayerCount + 1];
+        for (int g : layerGroups) {
+            groupOffsets[g + 1]++;
+        }
+        for (int g = 0; g < distinctLayerCount; g++) {
+            groupOffsets[g + 1] += groupOffsets[g];
+        }
+        this.groupMembers = new int[layerGroups.length];
+        int[] nextMember = Arrays.copyOf(groupOffsets, distinctLayerCount);
+        for (int d = 0; d < layerGroups.length; d++) {
+            groupMembers[nextMember[layerGroups[d]]++] = d;
+        }
+
+        // layers also contain ancestors outside Phenotypic Abnormality, so there is a posting list for every term
+        this.postingOffsets = new int[termIndex.size() + 1];
+        for (int[] layer : layers) {
+            for (int t : layer) {
+                postingOffsets[t + 1]++;
+            }
+        }
+        for (int t = 0; t < termIndex.size(); t++) {
+            postingOffsets[t + 1] += postingOffsets[t];
+        }
+        this.postings = new int[postingOffsets[termIndex.size()]];
+        int[] next = Arrays.copyOf(postingOffsets, termIndex.size());
+        for (int g = 0; g < layers.length; g++) {
+            for (int t : layers[g]) {
+                postings[next[t]++] = g; // layers are visited in ascending order
+            }
+        }
+        LOGGER.info("Finished initializing inverted index with {} postings", postings.length);
+    }
+
+    /**
+     * Computes the counts for a disease and a patient's observed HPO terms. The counts of all diseases are
+     * accumulated on the first call for a patient and cached.
+     */
+    @Override
+    public BoqaCounts computeBoqaCounts(String diseaseId, PatientData patientData) {
+        return computeBoqaCounts(diseaseIndex(diseaseId), queryCountsCache.get(patientData.getObservedTerms(), this::accumulate));
+    }
+
+    /**
+     * Walks the posting lists of the patient's query layer and frontier once and accumulates TP and FN for all
+     * diseases.
+     */
+    @Override
+    public BoundedPreparedQuery prepareQuery(PatientData patientData) {
+        return new PreparedPostingsQuery(patientData, accumulate(patientData.getObservedTerms()));
+    }
+
+    /**
+     * Opens a {@link BoqaSession} without any observed terms, to which terms are then added one at a time.
+     */
+    public BoqaSession openSession() {
+        return new BoqaSession(this, "");
+    }
+
+    /**
+     * Opens a {@link BoqaSession} starting from the observed terms of a patient.
+     */
+    public BoqaSession openSession(PatientData patientData) {
+        BoqaSession session = new BoqaSession(this, patientData.getID());
+        patientData.getObservedTerms().forEach(session::addTerm);
+        return session;
+    }
+
+    /**
+     * The bitsets of the query layer and its frontier are only needed while walking the posting lists, so they live
+     * in per-thread scratch buffers; only the accumulated counts are allocated.
+     */
+    private QueryCounts accumulate(Set<TermId> observedHpos) {
+        Scratch scratch = this.scratch.get();
+        Arrays.fill(scratch.on(), 0L);
+        int onCount = ontologyTraverser.initLayer(observedHpos, scratch.on());
+        int frontierCount = ontologyTraverser.frontier(scratch.on(), scratch.frontier());
+        return new QueryCounts(accumulate(scratch.on()), onCount, accumulate(scratch.frontier()), frontierCount);
+    }
+
+    /**
+     * For each distinct disease layer, counts the terms of {@code layer} in it.
+     */
+    private int[] accumulate(long[] layer) {
+        int[] counts = new int[distinctLayerCount];
+        for (int t = Bitsets.nextSetBit(layer, 0); t >= 0; t = Bitsets.nextSetBit(layer, t + 1)) {
+            for (int k = postingOffsets[t]; k < postingOffsets[t + 1]; k++) {
+                counts[postings[k]]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of terms in the initialized layer of a disease
+     */
+    public int layerSize(String diseaseId) {
+        return layerSizes[diseaseIndex(diseaseId)];
+    }
+
+    int diseaseIndex(String diseaseId) {
+        int index = diseaseDictionary.indexOf(diseaseId);
+        if (index < 0) {
+            throw new IllegalArgumentException("Disease ID \"" + diseaseId + "\" not found!");
+        }
+        return index;
+    }
+
+    @Override
+    public Set<String> getDiseaseIds() {
+        return diseaseIdSet;
+    }
+
+    @Override
+    public DiseaseDictionary getDiseaseDictionary() {
+        return diseaseDictionary;
+    }
+
+    @Override
+    public TermId getPrimaryTermId(TermId termId) {
+        return ontologyTraverser.getPrimaryTermId(termId);
+    }
+
+    /**
+     * Per-thread bitsets of a query layer and its frontier, spanning all indexed terms.
+     */
+    private record Scratch(long[] on, long[] frontier) {}
+
+    /**
+     * TP and FN of all distinct disease layers for one query layer, indexed by {@link DiseaseLayers#layerGroup(int)},
+     * together with the sizes of the query layer and its frontier.
+     */
+    private record QueryCounts(int[] truePositives, int onCount, int[] falseNegatives, int frontierCount) {}
+
+    private final class PreparedPostingsQuery implements BoundedPreparedQuery {
+        private final PatientData patientData;
+        private final QueryCounts queryCounts;
+
+        private PreparedPostingsQuery(PatientData patientData, QueryCounts queryCounts) {
+            this.patientData = patientData;
+            this.queryCounts = queryCounts;
+        }
+
+        @Override
+        public PatientData patientData() {
+            return patientData;
+        }
+
+        @Override
+        public BoqaCounts computeBoqaCounts(String diseaseId) {
+            return BoqaInvertedIndexCounter.this.computeBoqaCounts(diseaseIndex(diseaseId), queryCounts);
+        }
+
+        @Override
+        public int queryLayerSize() {
+            return queryCounts.onCount();
+        }
+
+        @Override
+        public int frontierSize() {
+            return queryCounts.frontierCount();
+        }
+
+        @Override
+        public int layerSize(String diseaseId) {
+            return BoqaInvertedIndexCounter.this.layerSize(diseaseId);
+        }
+
+        @Override
+        public List<String> diseaseIdsByLayerSize() {
+            return diseaseIdsByLayerSize;
+        }
+    }
+
+    private BoqaCounts computeBoqaCounts(int d, QueryCounts query) {
+        int tp = query.truePositives()[layerGroups[d]];
+        int fn = query.falseNegatives()[layerGroups[d]];
+        return new BoqaCounts(diseaseDictionary.id(d), diseaseDictionary.label(d), tp, query.onCount() - tp, query.frontierCount() - fn, fn);
+    }
+}
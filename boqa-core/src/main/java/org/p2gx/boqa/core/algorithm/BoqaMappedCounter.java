@@ -0,0 +1,199 @@
+package org.p2gx.boqa.core.algorithm;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.monarchinitiative.phenol.ontology.data.Ontology;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.BoundedPreparedQuery;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.diseases.DiseaseLayerStore;
+import org.p2gx.boqa.core.internal.Bitsets;
+import org.p2gx.boqa.core.internal.OntologyTraverser;
+import org.p2gx.boqa.core.internal.TermIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * {@link Counter} that scores against the disease layers of a memory-mapped {@link DiseaseLayerStore}.
+ * <p>
+ * The disease layers are neither initialized nor copied onto the heap: each disease is counted by reading the term
+ * indices of its layer from the mapped file and testing them against the bitsets of the query layer and its frontier,
+ * as in {@link BoqaBitsetCounter}. Several JVMs scoring against the same store therefore share one copy of the layers
+ * in the page cache, and start up without the cost of initializing them.
+ * <p>
+ * The diseases are those of the store. The counts are identical to those of {@link BoqaSetCounter} for the disease data
+ * the store was written from.
+ */
+public class BoqaMappedCounter implements Counter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoqaMappedCounter.class);
+
+    private final OntologyTraverser ontologyTraverser;
+    private final TermIndex termIndex;
+    private final DiseaseLayerStore store;
+    private final DiseaseDictionary diseaseDictionary;
+    private final Set<String> diseaseIds;
+    private final List<String> diseaseIdsByLayerSize;
+    private final Cache<Set<TermId>, QueryLayer> queryLayerCache = Caffeine.newBuilder().maximumSize(256).build();
+
+    /**
+     * Bitsets of a patient's initialized query layer (ON nodes) and of its frontier, together with their sizes.
+     */
+    private record QueryLayer(long[] on, int onCount, long[] frontier, int frontierCount) {}
+
+    private final class PreparedMappedQuery implements BoundedPreparedQuery {
+        private final PatientData patientData;
+        private final QueryLayer queryLayer;
+
+        private PreparedMappedQuery(PatientData patientData, QueryLayer queryLayer) {
+            this.patientData = patientData;
+            this.queryLayer = queryLayer;
+        }
+
+        @Override
+        public PatientData patientData() {
+            return patientData;
+        }
+
+        @Override
+        public BoqaCounts computeBoqaCounts(String diseaseId) {
+            return BoqaMappedCounter.this.computeBoqaCounts(diseaseId, queryLayer);
+        }
+
+        @Override
+        public int queryLayerSize() {
+            return queryLayer.onCount();
+        }
+
+        @Override
+        public int frontierSize() {
+            return queryLayer.frontierCount();
+        }
+
+        @Override
+        public int layerSize(String diseaseId) {
+            return BoqaMappedCounter.this.layerSize(diseaseId);
+        }
+
+        @Override
+        public List<String> diseaseIdsByLayerSize() {
+            return diseaseIdsByLayerSize;
+        }
+    }
+
+    /**
+     * Constructs a BoqaMappedCounter on a mapped layer store.
+     *
+     * @param store the disease layers, see {@link DiseaseLayerStore#open(java.nio.file.Path)}
+     * @param hpo   the HPO ontology the store was written with, used to expand the patients' phenotype terms
+     * @throws IllegalArgumentException if the store was written with a different HPO release
+     */
+    public BoqaMappedCounter(DiseaseLayerStore store, Ontology hpo) {
+        this(store, new OntologyTraverser(hpo));
+    }
+
+    /**
+     * Constructs a BoqaMappedCounter on a mapped layer store, reusing an existing traverser.
+     *
+     * @param store             the disease layers, see {@link DiseaseLayerStore#open(java.nio.file.Path)}
+     * @param ontologyTraverser a traverser over the HPO release the store was written with
+     * @throws IllegalArgumentException if the store was written with a different HPO release
+     */
+    public BoqaMappedCounter(DiseaseLayerStore store, OntologyTraverser ontologyTraverser) {
+        this.ontologyTraverser = ontologyTraverser;
+        this.termIndex = ontologyTraverser.getTermIndex();
+        if (!store.matches(termIndex)) {
+            throw new IllegalArgumentException("Layer store " + store.path() + " was written with a different HPO release ("
+                    + store.terms().size() + " terms, ontology has " + termIndex.size() + ")");
+        }
+        this.store = store;
+        this.diseaseDictionary = store.diseaseDictionary();
+        this.diseaseIds = Set.copyOf(diseaseDictionary.ids());
+        this.diseaseIdsByLayerSize = IntStream.range(0, diseaseDictionary.size()).boxed()
+                .sorted(Comparator.comparingInt(store::layerSize).reversed())
+                .map(diseaseDictionary::id)
+                .toList(); // stable sort, the dictionary is sorted by ID
+        LOGGER.info("Using layer store {} with {} diseases ({} bytes)", store.path(), diseaseDictionary.size(), store.sizeInBytes());
+    }
+
+    /**
+     * Computes the counts for a disease and a patient's observed HPO terms, see {@link BoqaSetCounter}.
+     * The query layer and its frontier are computed once per patient and cached.
+     *
+     * @param diseaseId   the unique ID of the disease whose counts are computed
+     * @param patientData the patient data containing observed HPO terms and patient ID
+     * @return a {@link BoqaCounts} record containing the four counts for this disease-patient pair
+     */
+    @Override
+    public BoqaCounts computeBoqaCounts(String diseaseId, PatientData patientData) {
+        return computeBoqaCounts(diseaseId, queryLayerCache.get(patientData.getObservedTerms(), this::initQueryLayer));
+    }
+
+    /**
+     * Expands the patient's observed HPO terms into the bitsets of the query layer and its frontier once.
+     */
+    @Override
+    public BoundedPreparedQuery prepareQuery(PatientData patientData) {
+        return new PreparedMappedQuery(patientData, initQueryLayer(patientData.getObservedTerms()));
+    }
+
+    private BoqaCounts computeBoqaCounts(String diseaseId, QueryLayer query) {
+        int d = diseaseIndex(diseaseId);
+        int tp = 0;
+        int fn = 0;
+        for (int k = store.layerStart(d), end = store.layerEnd(d); k < end; k++) {
+            int t = store.termAt(k);
+            if (Bitsets.get(query.on(), t)) {
+                tp++;
+            } else if (Bitsets.get(query.frontier(), t)) {
+                fn++;
+            }
+        }
+        return new BoqaCounts(diseaseId, diseaseDictionary.label(d),
+                tp, query.onCount() - tp, query.frontierCount() - fn, fn);
+    }
+
+    private QueryLayer initQueryLayer(Set<TermId> observedHpos) {
+        long[] on = new long[Bitsets.words(termIndex.size())];
+        int onCount = ontologyTraverser.initLayer(observedHpos, on);
+        long[] frontier = new long[on.length];
+        int frontierCount = ontologyTraverser.frontier(on, frontier);
+        return new QueryLayer(on, onCount, frontier, frontierCount);
+    }
+
+    private int diseaseIndex(String diseaseId) {
+        int index = diseaseDictionary.indexOf(diseaseId);
+        if (index < 0) {
+            throw new IllegalArgumentException("Disease ID \"" + diseaseId + "\" not found!");
+        }
+        return index;
+    }
+
+    /**
+     * @return the number of terms in the layer of a disease
+     */
+    public int layerSize(String diseaseId) {
+        return store.layerSize(diseaseIndex(diseaseId));
+    }
+
+    @Override
+    public Set<String> getDiseaseIds() {
+        return diseaseIds;
+    }
+
+    @Override
+    public DiseaseDictionary getDiseaseDictionary() {
+        return diseaseDictionary;
+    }
+
+    @Override
+    public TermId getPrimaryTermId(TermId termId) {
+        return ontologyTraverser.getPrimaryTermId(termId);
+    }
+}
@@ -0,0 +1,243 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.analysis.BoqaAnalysisResult;
+import org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer;
+import org.p2gx.boqa.core.internal.Bitsets;
+import org.p2gx.boqa.core.internal.OntologyTraverser;
+import org.p2gx.boqa.core.internal.TermAdjacency;
+import org.p2gx.boqa.core.internal.TermIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Stateful BOQA query of one patient whose observed HPO terms are edited one at a time, e.g. in a review UI.
+ * <p>
+ * A session keeps the query layer {@code Q}, its frontier {@code F} and the TP and FN counts of every disease. The
+ * layer is held as a reference count per term, i.e. the number of observed terms that imply it, and the frontier
+ * as the number of ON parents per term. Adding or removing a term therefore only visits the ancestors of that term
+ * whose state flips and their children, and walks the posting lists of the {@link BoqaInvertedIndexCounter} for the
+ * terms that enter or leave {@code Q} or {@code F}. Only diseases annotated to these terms are touched; diseases
+ * with identical layers are updated once.
+ * <p>
+ * The counts are identical to those of a {@link org.p2gx.boqa.core.PreparedQuery} for the current terms, and
+ * {@link #computeBoqaResults(int, AlgorithmParameters)} ranks the diseases as
+ * {@link BoqaPatientAnalyzer#computeBoqaResults(PatientData, org.p2gx.boqa.core.Counter, int, AlgorithmParameters)}.
+ * <p>
+ * Open a session with {@link BoqaInvertedIndexCounter#openSession()}. Sessions are not thread-safe.
+ */
+public final class BoqaSession {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoqaSession.class);
+
+    private final BoqaInvertedIndexCounter counter;
+    private final OntologyTraverser ontologyTraverser;
+    private final TermIndex termIndex;
+    private final TermAdjacency parents;
+    private final TermAdjacency children;
+    private final DiseaseDictionary diseaseDictionary;
+    private final String patientId;
+    private final Set<TermId> observedTerms = new LinkedHashSet<>();
+    // impliedBy[t]: number of observed terms that have t as an ancestor (or are t), t is ON if positive
+    private final int[] impliedBy;
+    // onParents[t]: number of ON parents of t, t is in the frontier if it is OFF and all its parents are ON
+    private final int[] onParents;
+    private final long[] frontier;
+    private int queryLayerSize;
+    private int frontierSize;
+    // TP and FN of each distinct disease layer
+    private final int[] truePositives;
+    private final int[] falseNegatives;
+    // number of layer counts updated by the last edit
+    private int changedLayers;
+
+    BoqaSession(BoqaInvertedIndexCounter counter, String patientId) {
+        this.counter = counter;
+        this.ontologyTraverser = counter.ontologyTraverser;
+        this.termIndex = counter.termIndex;
+        this.parents = ontologyTraverser.getParents();
+        this.children = ontologyTraverser.getChildren();
+        this.diseaseDictionary = counter.diseaseDictionary;
+        this.patientId = patientId;
+        this.impliedBy = new int[termIndex.size()];
+        this.onParents = new int[termIndex.size()];
+        this.frontier = new long[Bitsets.words(termIndex.size())];
+        this.truePositives = new int[counter.distinctLayerCount];
+        this.falseNegatives = new int[counter.distinctLayerCount];
+    }
+
+    /**
+     * Adds an observed term and updates the query layer, its frontier and the counts of the affected diseases.
+     * Alternative term IDs are replaced by their primary term ID.
+     *
+     * @param term the HPO term to add
+     * @return {@code true} if the term was added, {@code false} if it was already observed or is not part of the HPO
+     */
+    public boolean addTerm(TermId term) {
+        int index = indexOf(term);
+        if (index < 0 || !observedTerms.add(termIndex.termAt(index))) {
+            return false;
+        }
+        changedLayers = 0;
+        for (int t : ontologyTraverser.ancestors(index)) {
+            if (impliedBy[t]++ == 0) {
+                switchOn(t);
+            }
+        }
+        LOGGER.debug("Added {}: {} layer counts updated", term, changedLayers);
+        return true;
+    }
+
+    /**
+     * Removes an observed term and updates the query layer, its frontier and the counts of the affected diseases.
+     *
+     * @param term the HPO term to remove
+     * @return {@code true} if the term was removed, {@code false} if it was not observed
+     */
+    public boolean removeTerm(TermId term) {
+        int index = indexOf(term);
+        if (index < 0 || !observedTerms.remove(termIndex.termAt(index))) {
+            return false;
+        }
+        changedLayers = 0;
+        for (int t : ontologyTraverser.ancestors(index)) {
+            if (--impliedBy[t] == 0) {
+                switchOff(t);
+            }
+        }
+        LOGGER.debug("Removed {}: {} layer counts updated", term, changedLayers);
+        return true;
+    }
+
+    private int indexOf(TermId term) {
+        int index = termIndex.indexOf(term);
+        if (index < 0) {
+            TermId primaryTermId = ontologyTraverser.getPrimaryTermId(term);
+            index = primaryTermId == null ? -1 : termIndex.indexOf(primaryTermId);
+        }
+        return index;
+    }
+
+    private void switchOn(int t) {
+        if (Bitsets.get(frontier, t)) {
+            leaveFrontier(t);
+        }
+        queryLayerSize++;
+        updateCounts(truePositives, t, 1);
+        for (int k = children.start(t); k < children.end(t); k++) {
+            int child = children.target(k);
+            if (++onParents[child] == parents.degree(child) && impliedBy[child] == 0) {
+                Bitsets.set(frontier, child);
+                frontierSize++;
+                updateCounts(falseNegatives, child, 1);
+            }
+        }
+    }
+
+    private void switchOff(int t) {
+        queryLayerSize--;
+        updateCounts(truePositives, t, -1);
+        for (int k = children.start(t); k < children.end(t); k++) {
+            int child = children.target(k);
+            if (Bitsets.get(frontier, child)) {
+                leaveFrontier(child);
+            }
+            onParents[child]--;
+        }
+        if (parents.degree(t) > 0 && onParents[t] == parents.degree(t)) {
+            Bitsets.set(frontier, t);
+            frontierSize++;
+            updateCounts(falseNegatives, t, 1);
+        }
+    }
+
+    private void leaveFrontier(int t) {
+        Bitsets.clear(frontier, t);
+        frontierSize--;
+        updateCounts(falseNegatives, t, -1);
+    }
+
+    /**
+     * Adds {@code delta} to the counts of all distinct layers that contain term {@code t}.
+     */
+    private void updateCounts(int[] counts, int t, int delta) {
+        for (int k = counter.postingOffsets[t]; k < counter.postingOffsets[t + 1]; k++) {
+            counts[counter.postings[k]] += delta;
+        }
+        changedLayers += counter.postingOffsets[t + 1] - counter.postingOffsets[t];
+    }
+
+    /**
+     * @return the observed terms, in the order they were added
+     */
+    public Set<TermId> observedTerms() {
+        return Collections.unmodifiableSet(observedTerms);
+    }
+
+    /**
+     * @return {@code |Q|}, the number of ON nodes of the query layer
+     */
+    public int queryLayerSize() {
+        return queryLayerSize;
+    }
+
+    /**
+     * @return {@code |F|}, the number of frontier nodes of the query layer
+     */
+    public int frontierSize() {
+        return frontierSize;
+    }
+
+    /**
+     * @return the current counts of a disease
+     * @throws IllegalArgumentException if the disease is unknown
+     */
+    public BoqaCounts computeBoqaCounts(String diseaseId) {
+        return computeBoqaCounts(counter.diseaseIndex(diseaseId));
+    }
+
+    private BoqaCounts computeBoqaCounts(int d) {
+        int g = counter.layerGroups[d];
+        int tp = truePositives[g];
+        int fn = falseNegatives[g];
+        return new BoqaCounts(diseaseDictionary.id(d), diseaseDictionary.label(d),
+                tp, queryLayerSize - tp, frontierSize - fn, fn);
+    }
+
+    /**
+     * Ranks all diseases for the current terms and returns the {@code resultsLimit} best normalized BOQA scores,
+     * sorted by score (ties by disease ID). Each distinct disease layer is scored once, in a single pass that also
+     * accumulates the normalization constant.
+     *
+     * @param resultsLimit maximum number of top-scoring diseases to return
+     * @param params       alpha, beta, log(alpha), log(beta) etc.
+     * @return the current patient data with at most {@code resultsLimit} results
+     */
+    public BoqaAnalysisResult computeBoqaResults(int resultsLimit, AlgorithmParameters params) {
+        return new BoqaAnalysisResult(patientData(), LayerRanking.rank(counter, truePositives, 0, falseNegatives, 0,
+                queryLayerSize, frontierSize, resultsLimit, params));
+    }
+
+    /**
+     * @return the patient data of the current terms
+     */
+    public PatientData patientData() {
+        Set<TermId> terms = Set.copyOf(observedTerms);
+        return new PatientData() {
+            @Override
+            public String getID() {
+                return patientId;
+            }
+
+            @Override
+            public Set<TermId> getObservedTerms() {
+                return terms;
+            }
+        };
+    }
+}
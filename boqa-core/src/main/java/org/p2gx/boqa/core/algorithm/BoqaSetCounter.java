@@ -1,44 +1,96 @@
 package org.p2gx.boqa.core.algorithm;
 
-import org.monarchinitiative.phenol.graph.OntologyGraph;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.monarchinitiative.phenol.ontology.data.Ontology;
 import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.BoundedPreparedQuery;
 import org.p2gx.boqa.core.Counter;
 import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.DiseaseDictionary;
 import org.p2gx.boqa.core.PatientData;
 import org.p2gx.boqa.core.internal.OntologyTraverser;
+import org.p2gx.boqa.core.internal.TermIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This class initializes all disease layers through its constructor, i.e. it computes the full induced HPO graph via
  * disease-phenotype annotations for all diseases. <p>
  * Its method {@link #computeBoqaCounts(String, PatientData) ComputeBoqaCounts} contains the BOQA algorithm which, for
  * a given set of observed HPO terms as TermIds belonging to a patient, counts the four integers needed to compute each
- * disease's probability, see also the record {@link BoqaCounts BoqaCounts}.
+ * disease's probability, see also the record {@link BoqaCounts BoqaCounts}. To count many diseases for the same
+ * patient, use {@link #prepareQuery(PatientData)}.
  * <p>
  *
  * @author <a href="mailto:leonardo.chimirri@bih-charite.de">Leonardo Chimirri</a>
  * <p>
- * @implNote Consider implementing XML or JSON serialization to cache disease layers, avoiding recomputation.
- * Avoid `Serializable` interface, since it is heavily criticized and deprecated.
+ * @implNote The disease layers can be cached in a {@link org.p2gx.boqa.core.diseases.KnowledgeBaseSnapshot}, avoiding
+ * recomputation, see {@link #BoqaSetCounter(DiseaseLayers)}.
  * Especially important for melded/digenic where combinatorial complexity increases.
  * @todo should idToLabel live in {@link DiseaseData}?
  */
 public class BoqaSetCounter implements Counter {
     private static final Logger LOGGER = LoggerFactory.getLogger(BoqaSetCounter.class);
-    private static final TermId PHENOTYPIC_ABNORMALITY = TermId.of("HP:0000118");
 
     private final OntologyTraverser ontologyTraverser;
-    private final Map<TermId, Set<TermId>> diseaseLayers;
+    // diseaseLayers[d]: initialized layer of the disease with index d in the dictionary, as an array so that
+    // counting iterates it without allocating an iterator
+    private final TermId[][] diseaseLayers;
     private final Set<String> diseaseIds;
-    private final Map<String, String> idToLabel;
+    private final List<String> diseaseIdsByLayerSize;
+    private final DiseaseDictionary diseaseDictionary;
+    private final Cache<Set<TermId>, QueryLayer> queryLayerCache = Caffeine.newBuilder().maximumSize(256).build();
 
+    /**
+     * The initialized query layer of a patient (ON nodes) and its frontier.
+     */
+    private record QueryLayer(Set<TermId> on, Set<TermId> frontier) {}
+
+    private final class PreparedSetQuery implements BoundedPreparedQuery {
+        private final PatientData patientData;
+        private final QueryLayer queryLayer;
+
+        private PreparedSetQuery(PatientData patientData, QueryLayer queryLayer) {
+            this.patientData = patientData;
+            this.queryLayer = queryLayer;
+        }
+
+        @Override
+        public PatientData patientData() {
+            return patientData;
+        }
+
+        @Override
+        public BoqaCounts computeBoqaCounts(String diseaseId) {
+            return BoqaSetCounter.this.computeBoqaCounts(diseaseId, queryLayer);
+        }
+
+        @Override
+        public int queryLayerSize() {
+            return queryLayer.on().size();
+        }
+
+        @Override
+        public int frontierSize() {
+            return queryLayer.frontier().size();
+        }
+
+        @Override
+        public int layerSize(String diseaseId) {
+            return BoqaSetCounter.this.layerSize(diseaseId);
+        }
+
+        @Override
+        public List<String> diseaseIdsByLayerSize() {
+            return diseaseIdsByLayerSize;
+        }
+    }
 
     /**
      * Constructs a BoqaSetCounter and initializes all disease layers.
@@ -51,87 +103,113 @@ public class BoqaSetCounter implements Counter {
      * @todo remove filtering after successful testing in exomiser and modification to diseaseData
      */
     public BoqaSetCounter(DiseaseData diseaseData, Ontology hpo) {
-        this.idToLabel = Map.copyOf(diseaseData.getIdToLabel());
-        this.ontologyTraverser = new OntologyTraverser(hpo);
-        this.diseaseIds = Set.copyOf(diseaseData.getDiseaseIds());
-        LOGGER.info("Initializing disease layers for {} diseases", diseaseIds.size());
-        OntologyGraph<TermId> hpoGraph = ontologyTraverser.getHpoGraph();
-        Set<TermId> phenotypicAbnormalities = Set.copyOf(hpoGraph.getDescendantSet(PHENOTYPIC_ABNORMALITY));
-        this.diseaseLayers = diseaseIds.parallelStream()
-                .collect(Collectors.toUnmodifiableMap(TermId::of, diseaseId -> {
-                    Set<TermId> diseasePhenotypes = diseaseData.getObservedDiseaseFeatures(diseaseId).stream()
-                            .map(TermId::of)
-                            .filter(phenotypicAbnormalities::contains)
-                            .collect(Collectors.toSet());
-                    return ontologyTraverser.initLayer(diseasePhenotypes);
-                }));
-        LOGGER.info("Finished initializing disease layers");
+        this(DiseaseLayers.of(diseaseData, hpo));
+    }
+
+    /**
+     * Constructs a BoqaSetCounter from already initialized disease layers.
+     *
+     * @param diseaseLayers the initialized disease layers, e.g. read from a snapshot
+     */
+    public BoqaSetCounter(DiseaseLayers diseaseLayers) {
+        this.ontologyTraverser = diseaseLayers.ontologyTraverser();
+        this.diseaseDictionary = diseaseLayers.diseaseDictionary();
+        this.diseaseIds = Set.copyOf(diseaseDictionary.ids());
+        TermIndex termIndex = diseaseLayers.termIndex();
+        this.diseaseLayers = IntStream.range(0, diseaseLayers.size())
+                .mapToObj(d -> Arrays.stream(diseaseLayers.layer(d)).mapToObj(termIndex::termAt).toArray(TermId[]::new))
+                .toArray(TermId[][]::new);
+        this.diseaseIdsByLayerSize = diseaseLayers.diseaseIdsByLayerSize();
     }
 
     /**
      * This method computes counts given a disease ID and a patient's observed HPO terms.
      * These counts are related to true/false positives and true/false negatives, and are used later to compute the
      * probability that a patient has the input disease.
+     * <p>
+     * The query layer {@code Q} and its frontier {@code F} (OFF nodes whose parents are all ON, see
+     * {@link OntologyTraverser#frontier(Set)}) depend only on the patient. They are computed once per patient and
+     * cached, so that for a disease layer {@code D} the counts reduce to two set intersections:
+     * <ul>
+     *     <li>TP = |D ∩ Q|, FP = |Q| - TP</li>
+     *     <li>FN = |D ∩ F|, TN = |F| - FN</li>
+     * </ul>
      *
      * @param diseaseId   the unique OMIM ID of the disease whose counts are computed
      * @param patientData the patient data containing observed HPO terms and patient ID
      * @return a {@link BoqaCounts} record containing the four counts for this disease-patient pair
-     * @implNote Consider caching children of all ON nodes to improve offNodesCount calculation.
      */
     @Override
     public BoqaCounts computeBoqaCounts(String diseaseId, PatientData patientData) {
-        Set<TermId> observedHpos = patientData.getObservedTerms();
+        return computeBoqaCounts(diseaseId, queryLayerCache.get(patientData.getObservedTerms(), this::initQueryLayer));
+    }
+
+    /**
+     * Expands the patient's observed HPO terms into the query layer and its frontier once.
+     */
+    @Override
+    public BoundedPreparedQuery prepareQuery(PatientData patientData) {
+        return new PreparedSetQuery(patientData, initQueryLayer(patientData.getObservedTerms()));
+    }
+
+    private BoqaCounts computeBoqaCounts(String diseaseId, QueryLayer query) {
+        int d = diseaseIndex(diseaseId);
+        TermId[] diseaseLayer = diseaseLayers[d];
+
+        int truePositives = intersectionSize(diseaseLayer, query.on());
+        int falsePositives = query.on().size() - truePositives;
+        int betaCounts = intersectionSize(diseaseLayer, query.frontier()); // exponent of beta
+        int offNodesCount = query.frontier().size() - betaCounts; // exponent of 1-alpha
+        if (LOGGER.isDebugEnabled()) { // avoids boxing the counts for every disease
+            LOGGER.debug("True positives: {}, False positives: {}, (BOQA) True negatives: {}, (BOQA) False negatives: {}", truePositives, falsePositives, offNodesCount, betaCounts);
+            LOGGER.debug("BOQA counts computed for disease {} ({})", diseaseId, diseaseDictionary.label(d));
+        }
+
+        return new BoqaCounts(diseaseId, diseaseDictionary.label(d), truePositives, falsePositives, offNodesCount, betaCounts);
+    }
+
+    private QueryLayer initQueryLayer(Set<TermId> observedHpos) {
         Set<TermId> queryLayer = ontologyTraverser.initLayer(observedHpos);
-        Set<TermId> diseaseLayer = diseaseLayers.get(TermId.of(diseaseId));
-
-        // TP
-        Set<TermId> truePositives = new HashSet<>(diseaseLayer);
-        truePositives.retainAll(queryLayer);
-
-        // FP
-        Set<TermId> falsePositives = new HashSet<>(queryLayer);
-        falsePositives.removeAll(diseaseLayer);
-
-        // FN
-        Set<TermId> falseNegatives = new HashSet<>(diseaseLayer);
-        falseNegatives.removeAll(queryLayer); // equivalent with removeAll(intersection)
-        // Now iterate over these and count only those with all parents ON
-        int betaCounts = 0; // exponent of beta
-        for (TermId node : falseNegatives) {
-            if (ontologyTraverser.allParentsActive(node, queryLayer)) {
-                betaCounts += 1;
-            }
+        return new QueryLayer(queryLayer, ontologyTraverser.frontier(queryLayer));
+    }
+
+    /**
+     * @return the number of terms in the initialized layer of a disease
+     */
+    public int layerSize(String diseaseId) {
+        return diseaseLayers[diseaseIndex(diseaseId)].length;
+    }
+
+    private int diseaseIndex(String diseaseId) {
+        int index = diseaseDictionary.indexOf(diseaseId);
+        if (index < 0) {
+            throw new IllegalArgumentException("Disease ID \"" + diseaseId + "\" not found!");
         }
-        int offNodesCount = 0; // exponent of 1-alpha
-        Set<TermId> checkedNodes = new HashSet<>(); // used to avoid overcounting
-        for (TermId qobs : queryLayer) {
-            Set<TermId> children = new HashSet<>(ontologyTraverser.getHpoGraph().extendWithChildren(qobs, false));
-            // Go through all children of ON terms
-            for (TermId child : children) { // TODO consider a set with children of all of the terms
-                // Find those that are off
-                if (!queryLayer.contains(child)) {
-                    // Check if they are also off in the disease Layer
-                    if (!diseaseLayer.contains(child)) {
-                        // Make sure the node has not already been counted
-                        if (!checkedNodes.contains(child)) {
-                            // increase counter iff all parents are ON
-                            if (ontologyTraverser.allParentsActive(child, queryLayer)) {
-                                offNodesCount += 1;
-                                checkedNodes.add(child);
-                            }
-                        }
-                    }
-                }
+        return index;
+    }
+
+    private static int intersectionSize(TermId[] layer, Set<TermId> queryTerms) {
+        int count = 0;
+        for (TermId termId : layer) {
+            if (queryTerms.contains(termId)) {
+                count++;
             }
         }
-        LOGGER.debug("True positives: {}, False positives: {}, (BOQA) True negatives: {}, (BOQA) False negatives: {}", truePositives.size(), falsePositives.size(), offNodesCount, betaCounts);
-        LOGGER.debug("BOQA counts computed for disease {} ({})", diseaseId, idToLabel.get(diseaseId));
-
-        return new BoqaCounts(diseaseId, idToLabel.get(diseaseId), truePositives.size(), falsePositives.size(), offNodesCount, betaCounts);
+        return count;
     }
 
     @Override
     public Set<String> getDiseaseIds() {
         return this.diseaseIds;
     }
+
+    @Override
+    public DiseaseDictionary getDiseaseDictionary() {
+        return diseaseDictionary;
+    }
+
+    @Override
+    public TermId getPrimaryTermId(TermId termId) {
+        return ontologyTraverser.getPrimaryTermId(termId);
+    }
 }
@@ -0,0 +1,261 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.monarchinitiative.phenol.ontology.data.Ontology;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.internal.Bitsets;
+import org.p2gx.boqa.core.internal.OntologyTraverser;
+import org.p2gx.boqa.core.internal.TermIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * The initialized layers of all diseases, i.e. the annotated Phenotypic Abnormality terms of each disease together
+ * with all their ancestors except the root, as sorted indices of the {@link TermIndex} of an {@link OntologyTraverser}.
+ * The ancestors may lie outside Phenotypic Abnormality, so the indices range over all terms of the index.
+ * <p>
+ * Initializing the layers is the expensive part of constructing a {@link Counter}. All counters can be constructed
+ * from the same instance, which can also be written to and read back from a
+ * {@link org.p2gx.boqa.core.diseases.KnowledgeBaseSnapshot} instead of recomputing it.
+ * <p>
+ * Many diseases, e.g. the members of an allelic series, end up with identical layers after the ancestor expansion.
+ * Diseases are therefore grouped by layer at construction: the diseases of a group share one array, and counters
+ * can count each distinct layer once, see {@link #layerGroup(int)} and {@link #dedupReport()}.
+ */
+public final class DiseaseLayers {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiseaseLayers.class);
+    private static final TermId PHENOTYPIC_ABNORMALITY = TermId.of("HP:0000118");
+
+    private final OntologyTraverser ontologyTraverser;
+    private final DiseaseDictionary diseaseDictionary;
+    // layers[d]: sorted term indices of the layer of the disease with index d in the dictionary
+    private final int[][] layers;
+    // layerGroups[d]: index of the layer of disease d among the distinct layers, numbered by first occurrence
+    private final int[] layerGroups;
+    private final int[][] distinctLayers;
+    private final List<String> diseaseIdsByLayerSize;
+
+    /**
+     * Number of diseases and of distinct layers among them.
+     *
+     * @param diseases       number of diseases
+     * @param distinctLayers number of distinct layers, i.e. counts computed per query by a deduplicating counter
+     */
+    public record LayerDedupReport(int diseases, int distinctLayers) {
+        /**
+         * @return diseases per distinct layer, i.e. the factor by which deduplication reduces counting
+         */
+        public double ratio() {
+            return distinctLayers == 0 ? 1. : (double) diseases / distinctLayers;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d diseases, %d distinct layers (%.2f diseases per layer)",
+                    diseases, distinctLayers, ratio());
+        }
+    }
+
+    /**
+     * Content of a layer as a hash key.
+     */
+    private record LayerKey(int[] layer, int hash) {
+        LayerKey(int[] layer) {
+            this(layer, Arrays.hashCode(layer));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LayerKey other && hash == other.hash && Arrays.equals(layer, other.layer);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private DiseaseLayers(OntologyTraverser ontologyTraverser, DiseaseDictionary diseaseDictionary, int[][] layers) {
+        this.ontologyTraverser = ontologyTraverser;
+        this.diseaseDictionary = diseaseDictionary;
+        this.layers = layers.clone();
+        this.layerGroups = new int[layers.length];
+        Map<LayerKey, Integer> groups = new HashMap<>();
+        List<int[]> distinct = new ArrayList<>();
+        for (int d = 0; d < layers.length; d++) {
+            Integer group = groups.putIfAbsent(new LayerKey(layers[d]), distinct.size());
+            if (group == null) {
+                layerGroups[d] = distinct.size();
+                distinct.add(layers[d]);
+            } else {
+                layerGroups[d] = group;
+                this.layers[d] = distinct.get(group);
+            }
+        }
+        this.distinctLayers = distinct.toArray(int[][]::new);
+        this.diseaseIdsByLayerSize = IntStream.range(0, layers.length).boxed()
+                .sorted(Comparator.comparingInt((Integer d) -> layers[d].length).reversed())
+                .map(diseaseDictionary::id)
+                .toList(); // stable sort, the dictionary is sorted by ID
+        LOGGER.info("Disease layers: {}", dedupReport());
+    }
+
+    /**
+     * Initializes the layers of all diseases of {@code diseaseData}.
+     *
+     * @param diseaseData the disease data containing disease IDs, labels, and observed phenotypes
+     * @param hpo         the HPO ontology used to traverse and expand phenotype terms
+     */
+    public static DiseaseLayers of(DiseaseData diseaseData, Ontology hpo) {
+        return of(diseaseData, new OntologyTraverser(hpo));
+    }
+
+    /**
+     * Initializes the layers of all diseases of {@code diseaseData}. Only descendants of the "Phenotypic Abnormality"
+     * term are considered.
+     * <p>
+     * Each layer is the union of the precomputed ancestor closures ({@link OntologyTraverser#ancestorClosure(int)}) of
+     * the annotated terms of a disease, so no graph is traversed and the diseases are initialized in parallel without
+     * shared state. The traverser may therefore also be one recreated from a snapshot.
+     *
+     * @param diseaseData       the disease data containing disease IDs, labels, and observed phenotypes
+     * @param ontologyTraverser a traverser created from the HPO ontology
+     */
+    public static DiseaseLayers of(DiseaseData diseaseData, OntologyTraverser ontologyTraverser) {
+        TermIndex termIndex = ontologyTraverser.getTermIndex();
+        int phenotypicAbnormalityCount = termIndex.phenotypicAbnormalityCount();
+        int termCount = termIndex.size();
+        int phenotypicAbnormality = termIndex.indexOf(PHENOTYPIC_ABNORMALITY);
+        DiseaseDictionary diseaseDictionary = DiseaseDictionary.of(diseaseData);
+        LOGGER.info("Initializing disease layers for {} diseases", diseaseDictionary.size());
+        int[][] layers = IntStream.range(0, diseaseDictionary.size())
+                .parallel()
+                .mapToObj(d -> {
+                    // a closure may leave Phenotypic Abnormality, e.g. HP:0100610 is also a Pregnancy history term
+                    long[] layer = new long[Bitsets.words(termCount)];
+                    for (String feature : diseaseData.getObservedDiseaseFeatures(diseaseDictionary.id(d))) {
+                        int index = termIndex.indexOf(TermId.of(feature));
+                        if (index >= 0 && index < phenotypicAbnormalityCount && index != phenotypicAbnormality) {
+                            for (int ancestor : ontologyTraverser.ancestorClosure(index)) {
+                                Bitsets.set(layer, ancestor);
+                            }
+                        }
+                    }
+                    int[] terms = new int[Bitsets.cardinality(layer)];
+                    for (int k = 0, t = Bitsets.nextSetBit(layer, 0); t >= 0; t = Bitsets.nextSetBit(layer, t + 1)) {
+                        terms[k++] = t;
+                    }
+                    return terms;
+                })
+                .toArray(int[][]::new);
+        DiseaseLayers diseaseLayers = new DiseaseLayers(ontologyTraverser, diseaseDictionary, layers);
+        LOGGER.info("Finished initializing disease layers with {} terms", diseaseLayers.entryCount());
+        return diseaseLayers;
+    }
+
+    /**
+     * Wraps precomputed layers, e.g. as read back from a file. The arrays are not copied.
+     *
+     * @param ontologyTraverser the traverser whose term indices the layers hold
+     * @param diseaseDictionary the diseases
+     * @param layers            sorted term indices for each disease of the dictionary
+     * @throws IllegalArgumentException if the layers do not match the dictionary or the term index
+     */
+    public static DiseaseLayers of(OntologyTraverser ontologyTraverser, DiseaseDictionary diseaseDictionary, int[][] layers) {
+        if (layers.length != diseaseDictionary.size()) {
+            throw new IllegalArgumentException("Got " + layers.length + " layers for " + diseaseDictionary.size() + " diseases");
+        }
+        int termCount = ontologyTraverser.getTermIndex().size();
+        for (int[] layer : layers) {
+            for (int k = 0; k < layer.length; k++) {
+                if (layer[k] < 0 || layer[k] >= termCount || (k > 0 && layer[k] <= layer[k - 1])) {
+                    throw new IllegalArgumentException("Layer terms must be sorted term indices");
+                }
+            }
+        }
+        return new DiseaseLayers(ontologyTraverser, diseaseDictionary, layers);
+    }
+
+    public OntologyTraverser ontologyTraverser() {
+        return ontologyTraverser;
+    }
+
+    public TermIndex termIndex() {
+        return ontologyTraverser.getTermIndex();
+    }
+
+    /**
+     * @return the diseases; layers are indexed like this dictionary
+     */
+    public DiseaseDictionary diseaseDictionary() {
+        return diseaseDictionary;
+    }
+
+    /**
+     * @return number of diseases
+     */
+    public int size() {
+        return layers.length;
+    }
+
+    /**
+     * @return sorted term indices of the layer of disease {@code d}; the array must not be modified
+     */
+    public int[] layer(int d) {
+        return layers[d];
+    }
+
+    public int layerSize(int d) {
+        return layers[d].length;
+    }
+
+    /**
+     * @return the index of the layer of disease {@code d} among the {@link #distinctLayerCount()} distinct layers;
+     * diseases with identical layers have the same index
+     */
+    public int layerGroup(int d) {
+        return layerGroups[d];
+    }
+
+    /**
+     * @return number of distinct layers
+     */
+    public int distinctLayerCount() {
+        return distinctLayers.length;
+    }
+
+    /**
+     * @return sorted term indices of distinct layer {@code g}; the array must not be modified
+     */
+    public int[] distinctLayer(int g) {
+        return distinctLayers[g];
+    }
+
+    public LayerDedupReport dedupReport() {
+        return new LayerDedupReport(layers.length, distinctLayers.length);
+    }
+
+    /**
+     * @return total number of terms in all layers
+     */
+    public long entryCount() {
+        return Arrays.stream(layers).mapToLong(layer -> layer.length).sum();
+    }
+
+    /**
+     * @return all disease IDs, by descending layer size and then by ID
+     */
+    public List<String> diseaseIdsByLayerSize() {
+        return diseaseIdsByLayerSize;
+    }
+}
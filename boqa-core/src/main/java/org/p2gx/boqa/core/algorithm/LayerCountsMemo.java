@@ -0,0 +1,40 @@
+package org.p2gx.boqa.core.algorithm;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * TP and FN of one query layer for each distinct disease layer ({@link DiseaseLayers#layerGroup(int)}), filled in
+ * as the diseases are counted, so that diseases with identical layers are only counted once.
+ * <p>
+ * Safe for concurrent use: a layer counted by two threads at the same time is merely counted twice, with the same
+ * result.
+ */
+final class LayerCountsMemo {
+    // set in every known entry, so that 0 means not counted yet
+    private static final long KNOWN = 1L << 63;
+
+    private final AtomicLongArray counts;
+
+    LayerCountsMemo(int distinctLayers) {
+        this.counts = new AtomicLongArray(distinctLayers);
+    }
+
+    /**
+     * @return the packed counts of layer {@code group}, or 0 if it has not been counted yet
+     */
+    long get(int group) {
+        return counts.get(group);
+    }
+
+    void set(int group, int truePositives, int falseNegatives) {
+        counts.set(group, KNOWN | (long) truePositives << 32 | falseNegatives);
+    }
+
+    static int truePositives(long packed) {
+        return (int) (packed >>> 32) & Integer.MAX_VALUE;
+    }
+
+    static int falseNegatives(long packed) {
+        return (int) packed;
+    }
+}
@@ -0,0 +1,110 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.analysis.BoqaResult;
+import org.p2gx.boqa.core.analysis.ColumnarBoqaResults;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Ranks the diseases of a {@link BoqaInvertedIndexCounter} from the TP and FN counts of its distinct layers, as
+ * accumulated by {@link BoqaSession} and {@link BoqaCohortAnalyzer}.
+ * <p>
+ * The un-normalized log probability of a disease is
+ * {@code |Q| × log(α) + |F| × log(1-α) + tp × (log(1-β) - log(α)) + fn × (log(β) - log(1-α))}. Only the last two
+ * terms differ between diseases, so each distinct layer is scored once, in a single pass that also accumulates the
+ * normalization constant over all diseases.
+ */
+final class LayerRanking {
+
+    private LayerRanking() {
+    }
+
+    /**
+     * Returns the {@code resultsLimit} best normalized BOQA scores, sorted by score (ties by disease ID), as
+     * {@link org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer} does with exact normalization.
+     *
+     * @param truePositives  TP of distinct layer {@code g} at {@code truePositives[tpOffset + g]}
+     * @param falseNegatives FN of distinct layer {@code g} at {@code falseNegatives[fnOffset + g]}
+     */
+    static ColumnarBoqaResults rank(BoqaInvertedIndexCounter counter,
+                                    int[] truePositives, int tpOffset, int[] falseNegatives, int fnOffset,
+                                    int queryLayerSize, int frontierSize, int resultsLimit, AlgorithmParameters params) {
+        double tpWeight = params.getLogOneMinusBeta() - params.getLogAlpha();
+        double fnWeight = params.getLogBeta() - params.getLogOneMinusAlpha();
+        double common = queryLayerSize * params.getLogAlpha() + frontierSize * params.getLogOneMinusAlpha();
+        int layers = counter.distinctLayerCount;
+        int[] groupOffsets = counter.groupOffsets;
+        int[] groupMembers = counter.groupMembers;
+        double[] scores = new double[layers];
+        double max = Double.NEGATIVE_INFINITY;
+        for (int g = 0; g < layers; g++) {
+            scores[g] = common + truePositives[tpOffset + g] * tpWeight + falseNegatives[fnOffset + g] * fnWeight;
+            max = Math.max(max, scores[g]);
+        }
+        double sum = 0.0;
+        for (int g = 0; g < layers; g++) {
+            sum += (groupOffsets[g + 1] - groupOffsets[g]) * Math.exp(scores[g] - max);
+        }
+        double logZ = max + Math.log(sum);
+
+        // the best distinct layers, until they hold resultsLimit diseases, with the worst layer on top; its score is
+        // the score of the resultsLimit-th best disease
+        DiseaseDictionary dictionary = counter.diseaseDictionary;
+        PriorityQueue<Integer> best = new PriorityQueue<>(Comparator.comparingDouble(g -> scores[g]));
+        int diseasesInBest = 0;
+        for (int g = 0; g < layers && resultsLimit > 0; g++) {
+            if (diseasesInBest < resultsLimit || scores[g] > scores[best.peek()]) {
+                best.add(g);
+                diseasesInBest += groupOffsets[g + 1] - groupOffsets[g];
+                while (diseasesInBest - (groupOffsets[best.peek() + 1] - groupOffsets[best.peek()]) >= resultsLimit) {
+                    int worst = best.poll();
+                    diseasesInBest -= groupOffsets[worst + 1] - groupOffsets[worst];
+                }
+            }
+        }
+        if (best.isEmpty()) {
+            return ColumnarBoqaResults.of(dictionary, List.of());
+        }
+
+        // all diseases of the layers above the cut-off score enter the results; the diseases of the layers at the
+        // cut-off, possibly more than fit, are taken by disease ID, whichever layer they belong to
+        double cutOff = scores[best.peek()];
+        List<BoqaResult> results = new ArrayList<>(Math.min(resultsLimit, diseasesInBest));
+        List<int[]> tied = new ArrayList<>();
+        for (int g = 0; g < layers; g++) {
+            if (scores[g] > cutOff) {
+                for (int k = groupOffsets[g]; k < groupOffsets[g + 1]; k++) {
+                    results.add(result(dictionary, groupMembers[k], truePositives[tpOffset + g],
+                            falseNegatives[fnOffset + g], queryLayerSize, frontierSize, scores[g], logZ));
+                }
+            } else if (scores[g] == cutOff) {
+                for (int k = groupOffsets[g]; k < groupOffsets[g + 1]; k++) {
+                    tied.add(new int[]{g, groupMembers[k]});
+                }
+            }
+        }
+        tied.sort(Comparator.comparing(t -> dictionary.id(t[1])));
+        for (int i = 0; i < tied.size() && results.size() < resultsLimit; i++) {
+            int g = tied.get(i)[0];
+            results.add(result(dictionary, tied.get(i)[1], truePositives[tpOffset + g],
+                    falseNegatives[fnOffset + g], queryLayerSize, frontierSize, scores[g], logZ));
+        }
+        results.sort(LayerRanking::compareByScoreThenId);
+        return ColumnarBoqaResults.of(dictionary, results);
+    }
+
+    private static BoqaResult result(DiseaseDictionary dictionary, int d, int tp, int fn,
+                                     int queryLayerSize, int frontierSize, double rawScore, double logZ) {
+        return new BoqaResult(new BoqaCounts(dictionary.id(d), dictionary.label(d),
+                tp, queryLayerSize - tp, frontierSize - fn, fn), Math.exp(rawScore - logZ));
+    }
+
+    private static int compareByScoreThenId(BoqaResult a, BoqaResult b) {
+        int byScore = a.compareTo(b);
+        return byScore != 0 ? byScore : a.counts().diseaseId().compareTo(b.counts().diseaseId());
+    }
+}
@@ -0,0 +1,440 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.p2gx.boqa.core.PatientData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates how well BOQA ranks the diagnosed diseases of a cohort for many settings of alpha and beta.
+ * <p>
+ * {@link BoqaCounts} do not depend on alpha and beta, and the score of a disease only depends on its TP and FN:
+ * {@code |Q|} and {@code |F|} are the same for all diseases of a patient and cancel out of the normalized score.
+ * The counts of every patient are therefore computed once, with {@link BoqaCohortAnalyzer}, and reduced to the
+ * distinct {@code (tp, fn)} pairs of the patient with the number of diseases per pair. The pairs of all patients
+ * are kept in one {@code int[]}, column by column per patient. Each setting then scores a patient with one pass over
+ * its pair columns, a second pass accumulates the normalization constant and the rank of the diagnosis.
+ * <p>
+ * Diseases with the same score share their mean rank. If a patient has several diagnoses, the best ranked one
+ * counts. Patients without a diagnosis among the diseases of the counter are not evaluated.
+ * <p>
+ * {@link #fit(AlgorithmParameters, int)} maximizes the likelihood of the diagnoses over alpha and beta on the same
+ * pairs.
+ */
+public final class ParameterSweep {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParameterSweep.class);
+    // cases per task of the parallel likelihood
+    private static final int CHUNK_CASES = 256;
+    // stopping criteria and sufficient increase of the fit
+    private static final double GRADIENT_TOLERANCE = 1e-8;
+    private static final double LIKELIHOOD_TOLERANCE = 1e-12;
+    private static final double MIN_STEP = 1e-20;
+    private static final double ARMIJO = 1e-4;
+    private static final double[] START_ALPHAS = {1e-6, 1e-5, 1e-4, 1e-3, 1e-2, 0.1, 0.5};
+    private static final double[] START_BETAS = {0.1, 0.3, 0.5, 0.7, 0.9};
+
+    // case c starts at caseOffsets[c] with the number of pairs n, the number of diagnoses m, then the columns
+    // tp[n], fn[n], diseases[n] and the pair indices of the diagnoses[m]
+    private final int[] buffer;
+    private final int[] caseOffsets;
+    private final int maxPairs;
+    private final int skippedPatients;
+
+    private ParameterSweep(int[] buffer, int[] caseOffsets, int skippedPatients) {
+        this.buffer = buffer;
+        this.caseOffsets = caseOffsets;
+        this.skippedPatients = skippedPatients;
+        int max = 0;
+        for (int c = 0; c + 1 < caseOffsets.length; c++) {
+            max = Math.max(max, buffer[caseOffsets[c]]);
+        }
+        this.maxPairs = max;
+    }
+
+    /**
+     * Computes the counts of all patients against all diseases of the counter.
+     *
+     * @param counter    the diseases
+     * @param patients   the cohort
+     * @param diagnoses  the diagnosed disease IDs of a patient, e.g. {@code OMIM:154700}
+     * @return the sweep over the patients with at least one diagnosis known to the counter
+     */
+    public static <P extends PatientData> ParameterSweep of(BoqaInvertedIndexCounter counter, List<P> patients,
+                                                            Function<? super P, ? extends Collection<String>> diagnoses) {
+        List<int[]> cases = new BoqaCohortAnalyzer(counter).mapTiles(patients, (tile, counts) -> {
+            List<int[]> tileCases = new ArrayList<>(tile.size());
+            for (int p = 0; p < tile.size(); p++) {
+                tileCases.add(reduce(counter, counts, p, diagnoses.apply(tile.get(p))));
+            }
+            return tileCases;
+        });
+        int size = 0;
+        int skipped = 0;
+        for (int[] c : cases) {
+            if (c == null) {
+                skipped++;
+            } else {
+                size += c.length;
+            }
+        }
+        int[] caseOffsets = new int[cases.size() - skipped + 1];
+        int[] buffer = new int[size];
+        int c = 0;
+        for (int[] pairs : cases) {
+            if (pairs != null) {
+                System.arraycopy(pairs, 0, buffer, caseOffsets[c], pairs.length);
+                caseOffsets[c + 1] = caseOffsets[c] + pairs.length;
+                c++;
+            }
+        }
+        if (skipped > 0) {
+            LOGGER.warn("{} of {} patients have no diagnosis among the {} diseases and are not evaluated",
+                    skipped, patients.size(), counter.getDiseaseIds().size());
+        }
+        LOGGER.info("Counts of {} patients reduced to {} (tp, fn) pairs, {} bytes",
+                c, (size - 2 * c) / 3, 4L * size);
+        return new ParameterSweep(buffer, caseOffsets, skipped);
+    }
+
+    /**
+     * Reduces the TP and FN of patient {@code p} of a tile to its distinct {@code (tp, fn)} pairs.
+     *
+     * @return the case in the layout of {@link #buffer}, or {@code null} if no diagnosis is known
+     */
+    private static int[] reduce(BoqaInvertedIndexCounter counter, BoqaCohortAnalyzer.TileCounts counts, int p,
+                                Collection<String> diagnoses) {
+        int[] diagnosedDiseases = diagnoses.stream()
+                .mapToInt(counter.diseaseDictionary::indexOf)
+                .filter(d -> d >= 0)
+                .distinct()
+                .toArray();
+        if (diagnosedDiseases.length == 0) {
+            return null;
+        }
+        int[] rows = counts.counts();
+        int tpOffset = counts.truePositivesOffset(p);
+        int fnOffset = counts.falseNegativesOffset(p);
+        int[] groupOffsets = counter.groupOffsets;
+        // one key (tp << 32 | fn) per disease, after sorting the run of a key is as long as its number of diseases
+        long[] keys = new long[groupOffsets[counter.distinctLayerCount]];
+        for (int g = 0; g < counter.distinctLayerCount; g++) {
+            Arrays.fill(keys, groupOffsets[g], groupOffsets[g + 1], key(rows[tpOffset + g], rows[fnOffset + g]));
+        }
+        Arrays.sort(keys);
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                n++;
+            }
+        }
+        int[] pairs = new int[2 + 3 * n + diagnosedDiseases.length];
+        pairs[0] = n;
+        pairs[1] = diagnosedDiseases.length;
+        int pair = -1;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                pair++;
+                pairs[2 + pair] = (int) (keys[i] >>> 32);
+                pairs[2 + n + pair] = (int) keys[i];
+            }
+            pairs[2 + 2 * n + pair]++;
+        }
+        long[] distinctKeys = new long[n];
+        for (int i = 0; i < n; i++) {
+            distinctKeys[i] = key(pairs[2 + i], pairs[2 + n + i]);
+        }
+        for (int j = 0; j < diagnosedDiseases.length; j++) {
+            int g = counter.layerGroups[diagnosedDiseases[j]];
+            pairs[2 + 3 * n + j] = Arrays.binarySearch(distinctKeys, key(rows[tpOffset + g], rows[fnOffset + g]));
+        }
+        return pairs;
+    }
+
+    private static long key(int tp, int fn) {
+        return (long) tp << 32 | fn;
+    }
+
+    /**
+     * @return the number of evaluated patients
+     */
+    public int caseCount() {
+        return caseOffsets.length - 1;
+    }
+
+    /**
+     * @return the number of patients without a diagnosis among the diseases of the counter
+     */
+    public int skippedPatients() {
+        return skippedPatients;
+    }
+
+    /**
+     * Evaluates the settings in parallel.
+     *
+     * @return the metrics of each setting, in the order of {@code grid}
+     */
+    public List<RankingMetrics> evaluate(List<AlgorithmParameters> grid) {
+        return IntStream.range(0, grid.size())
+                .parallel()
+                .mapToObj(i -> evaluate(grid.get(i)))
+                .toList();
+    }
+
+    /**
+     * @return the ranking metrics of the diagnoses with the given alpha and beta
+     */
+    public RankingMetrics evaluate(AlgorithmParameters params) {
+        double tpWeight = params.getLogOneMinusBeta() - params.getLogAlpha();
+        double fnWeight = params.getLogBeta() - params.getLogOneMinusAlpha();
+        double[] scores = new double[maxPairs];
+        int top1 = 0;
+        int top3 = 0;
+        int top10 = 0;
+        double reciprocalRanks = 0.0;
+        double ranks = 0.0;
+        double logPosteriors = 0.0;
+        for (int c = 0; c < caseCount(); c++) {
+            int base = caseOffsets[c];
+            int n = buffer[base];
+            int m = buffer[base + 1];
+            int tpColumn = base + 2;
+            int fnColumn = tpColumn + n;
+            int diseasesColumn = fnColumn + n;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                scores[i] = buffer[tpColumn + i] * tpWeight + buffer[fnColumn + i] * fnWeight;
+                max = Math.max(max, scores[i]);
+            }
+            double diagnosisScore = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < m; j++) {
+                diagnosisScore = Math.max(diagnosisScore, scores[buffer[diseasesColumn + n + j]]);
+            }
+            double sum = 0.0;
+            int higher = 0;
+            int tied = 0;
+            for (int i = 0; i < n; i++) {
+                int diseases = buffer[diseasesColumn + i];
+                sum += diseases * Math.exp(scores[i] - max);
+                if (scores[i] > diagnosisScore) {
+                    higher += diseases;
+                } else if (scores[i] == diagnosisScore) {
+                    tied += diseases;
+                }
+            }
+            double rank = 1 + higher + (tied - 1) / 2.0;
+            top1 += rank <= 1 ? 1 : 0;
+            top3 += rank <= 3 ? 1 : 0;
+            top10 += rank <= 10 ? 1 : 0;
+            reciprocalRanks += 1 / rank;
+            ranks += rank;
+            logPosteriors += diagnosisScore - max - Math.log(sum);
+        }
+        int cases = caseCount();
+        return new RankingMetrics(params.getAlpha(), params.getBeta(), cases,
+                fraction(top1, cases), fraction(top3, cases), fraction(top10, cases),
+                reciprocalRanks / cases, ranks / cases, logPosteriors / cases);
+    }
+
+    private static double fraction(int hits, int cases) {
+        return (double) hits / cases;
+    }
+
+    /**
+     * Fits alpha and beta to the diagnoses by maximizing their mean log likelihood, i.e. the mean over the patients
+     * of the log of the summed normalized scores of their diagnoses. The likelihood is a smooth function of
+     * {@code log(alpha)} and {@code log(beta)} and is maximized by gradient ascent in these coordinates with a
+     * backtracking line search, starting from the best of {@code start} and a coarse grid of alpha and beta.
+     *
+     * @param start         candidate initial alpha and beta
+     * @param maxIterations maximum number of gradient steps
+     * @return the fitted parameters
+     * @throws IllegalArgumentException if no patient has a known diagnosis
+     */
+    public FittedParameters fit(AlgorithmParameters start, int maxIterations) {
+        if (caseCount() == 0) {
+            throw new IllegalArgumentException("Cannot fit alpha and beta without a patient with a known diagnosis");
+        }
+        // the likelihood is not concave in log(alpha) and log(beta), so start from the best of start and a coarse grid
+        double logAlpha = start.getLogAlpha();
+        double logBeta = start.getLogBeta();
+        double[] current = logLikelihood(logAlpha, logBeta);
+        for (double alpha : START_ALPHAS) {
+            for (double beta : START_BETAS) {
+                double[] candidate = logLikelihood(Math.log(alpha), Math.log(beta));
+                if (candidate[0] > current[0]) {
+                    logAlpha = Math.log(alpha);
+                    logBeta = Math.log(beta);
+                    current = candidate;
+                }
+            }
+        }
+        LOGGER.debug("Starting fit at alpha={}, beta={}, mean log likelihood {}",
+                Math.exp(logAlpha), Math.exp(logBeta), current[0]);
+        double step = 1.0;
+        int iteration = 0;
+        StopReason stopReason = StopReason.MAX_ITERATIONS;
+        while (iteration < maxIterations && stopReason == StopReason.MAX_ITERATIONS) {
+            double squaredNorm = current[1] * current[1] + current[2] * current[2];
+            if (squaredNorm < GRADIENT_TOLERANCE * GRADIENT_TOLERANCE) {
+                stopReason = StopReason.CONVERGED;
+                break;
+            }
+            iteration++;
+            while (true) {
+                double nextLogAlpha = logAlpha + step * current[1];
+                double nextLogBeta = logBeta + step * current[2];
+                // alpha and beta must stay below 1
+                double[] next = nextLogAlpha < 0 && nextLogBeta < 0
+                        ? logLikelihood(nextLogAlpha, nextLogBeta)
+                        : null;
+                if (next != null && next[0] >= current[0] + ARMIJO * step * squaredNorm) {
+                    if (next[0] - current[0] < LIKELIHOOD_TOLERANCE) {
+                        stopReason = StopReason.CONVERGED;
+                    }
+                    logAlpha = nextLogAlpha;
+                    logBeta = nextLogBeta;
+                    current = next;
+                    step *= 2;
+                    break;
+                }
+                step /= 2;
+                if (step < MIN_STEP) {
+                    // no step along the gradient improves the likelihood, although the gradient is not small
+                    stopReason = StopReason.STALLED;
+                    break;
+                }
+            }
+            LOGGER.debug("Iteration {}: alpha={}, beta={}, mean log likelihood {}",
+                    iteration, Math.exp(logAlpha), Math.exp(logBeta), current[0]);
+        }
+        if (stopReason == StopReason.MAX_ITERATIONS) {
+            LOGGER.warn("Fit of alpha and beta did not converge in {} iterations", maxIterations);
+        } else if (stopReason == StopReason.STALLED) {
+            LOGGER.warn("Fit of alpha and beta stalled after {} iterations: the line search found no step above {}",
+                    iteration, MIN_STEP);
+        }
+        return new FittedParameters(AlgorithmParameters.create(Math.exp(logAlpha), Math.exp(logBeta)),
+                current[0], iteration, stopReason);
+    }
+
+
+    /**
+     * Computes the mean log likelihood of the diagnoses and its gradient in parallel over the patients.
+     * <p>
+     * With {@code x = log(alpha)}, {@code y = log(beta)}, the score {@code s} of a pair has the derivatives
+     * {@code ds/dx = -tp + fn × alpha / (1 - alpha)} and {@code ds/dy = -tp × beta / (1 - beta) + fn}, and the
+     * gradient of the log likelihood of a patient is that of the mean score of its diagnoses minus that of the mean
+     * score of all diseases, both weighted by normalized scores. So only the difference of the weighted means of TP
+     * and FN is accumulated per patient.
+     *
+     * @return {@code {mean log likelihood, d/dx, d/dy}}
+     */
+    double[] logLikelihood(double logAlpha, double logBeta) {
+        double alpha = Math.exp(logAlpha);
+        double beta = Math.exp(logBeta);
+        double tpWeight = Math.log1p(-beta) - logAlpha;
+        double fnWeight = logBeta - Math.log1p(-alpha);
+        int chunks = (caseCount() + CHUNK_CASES - 1) / CHUNK_CASES;
+        // {log likelihood, difference of mean TP, difference of mean FN}
+        double[] sums = IntStream.range(0, chunks)
+                .parallel()
+                .mapToObj(chunk -> chunkLogLikelihood(chunk * CHUNK_CASES,
+                        Math.min((chunk + 1) * CHUNK_CASES, caseCount()), tpWeight, fnWeight))
+                .reduce(new double[3], (a, b) -> new double[]{a[0] + b[0], a[1] + b[1], a[2] + b[2]});
+        int cases = caseCount();
+        double tpDifference = sums[1] / cases;
+        double fnDifference = sums[2] / cases;
+        return new double[]{
+                sums[0] / cases,
+                -tpDifference + alpha / (1 - alpha) * fnDifference,
+                -beta / (1 - beta) * tpDifference + fnDifference};
+    }
+
+    private double[] chunkLogLikelihood(int from, int to, double tpWeight, double fnWeight) {
+        double[] scores = new double[maxPairs];
+        double[] sums = new double[3];
+        for (int c = from; c < to; c++) {
+            int base = caseOffsets[c];
+            int n = buffer[base];
+            int m = buffer[base + 1];
+            int tpColumn = base + 2;
+            int fnColumn = tpColumn + n;
+            int diseasesColumn = fnColumn + n;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                scores[i] = buffer[tpColumn + i] * tpWeight + buffer[fnColumn + i] * fnWeight;
+                max = Math.max(max, scores[i]);
+            }
+            double sum = 0.0;
+            double tpSum = 0.0;
+            double fnSum = 0.0;
+            for (int i = 0; i < n; i++) {
+                double weight = buffer[diseasesColumn + i] * Math.exp(scores[i] - max);
+                sum += weight;
+                tpSum += weight * buffer[tpColumn + i];
+                fnSum += weight * buffer[fnColumn + i];
+            }
+            double diagnosisSum = 0.0;
+            double diagnosisTpSum = 0.0;
+            double diagnosisFnSum = 0.0;
+            for (int j = 0; j < m; j++) {
+                int i = buffer[diseasesColumn + n + j];
+                double weight = Math.exp(scores[i] - max);
+                diagnosisSum += weight;
+                diagnosisTpSum += weight * buffer[tpColumn + i];
+                diagnosisFnSum += weight * buffer[fnColumn + i];
+            }
+            sums[0] += Math.log(diagnosisSum) - Math.log(sum);
+            sums[1] += diagnosisTpSum / diagnosisSum - tpSum / sum;
+            sums[2] += diagnosisFnSum / diagnosisSum - fnSum / sum;
+        }
+        return sums;
+    }
+
+    /**
+     * Ranking metrics of the diagnoses of a cohort for one setting of alpha and beta.
+     *
+     * @param cases              number of evaluated patients
+     * @param top1               fraction of patients with a diagnosis at rank 1
+     * @param meanReciprocalRank mean of 1 / rank of the best ranked diagnosis
+     * @param meanLogPosterior   mean of the log of the normalized score of the best ranked diagnosis
+     */
+    public record RankingMetrics(double alpha, double beta, int cases, double top1, double top3, double top10,
+                                 double meanReciprocalRank, double meanRank, double meanLogPosterior) {
+    }
+
+    /**
+     * Why {@link #fit(AlgorithmParameters, int)} stopped.
+     */
+    public enum StopReason {
+        /** the gradient or the improvement of the likelihood fell below its tolerance */
+        CONVERGED,
+        /** the line search found no step that improves the likelihood enough */
+        STALLED,
+        /** the maximum number of iterations was reached */
+        MAX_ITERATIONS
+    }
+
+    /**
+     * Alpha and beta fitted by {@link #fit(AlgorithmParameters, int)}.
+     *
+     * @param meanLogLikelihood mean log likelihood of the diagnoses with the fitted parameters
+     * @param stopReason        why the fit stopped
+     */
+    public record FittedParameters(AlgorithmParameters params, double meanLogLikelihood, int iterations,
+                                   StopReason stopReason) {
+        /**
+         * @return {@code true} if the fit stopped at a local maximum, not after the maximum number of iterations or
+         * because the line search stalled
+         */
+        public boolean converged() {
+            return stopReason == StopReason.CONVERGED;
+        }
+    }
+}
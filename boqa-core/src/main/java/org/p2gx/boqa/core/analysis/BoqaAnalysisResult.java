@@ -11,6 +11,8 @@ import java.util.List;
  *   <li>A List of computed {@link org.p2gx.boqa.core.analysis.BoqaResult}, one per disease,
  *   each containing a {@link org.p2gx.boqa.core.algorithm.BoqaCounts} and its associated BOQA score.
  * </ul>
+ * The results computed by {@link BoqaPatientAnalyzer} are {@link ColumnarBoqaResults}, which create the
+ * {@link BoqaResult}s only when the list is read.
  **/
 public record BoqaAnalysisResult(PatientData patientData, List<BoqaResult> boqaResults) {
 }
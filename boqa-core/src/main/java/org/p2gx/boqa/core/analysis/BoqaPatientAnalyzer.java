@@ -1,12 +1,22 @@
 package org.p2gx.boqa.core.analysis;
 
+import org.p2gx.boqa.core.BoundedPreparedQuery;
 import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseDictionary;
 import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.PreparedQuery;
 import org.p2gx.boqa.core.algorithm.AlgorithmParameters;
 import org.p2gx.boqa.core.algorithm.BoqaCounts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * Performs BOQA analysis for a given query set of HPO terms (patient's data).
@@ -17,16 +27,22 @@ import java.util.*;
 public final class BoqaPatientAnalyzer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BoqaPatientAnalyzer.class);
+    // Number of diseases scored in parallel between two checks of the score bound in a bounded top-K search
+    private static final int BOUNDED_CHUNK_SIZE = 256;
+    // Diseases are split into at most MAX_PARTITIONS tasks of at least MIN_PARTITION_SIZE diseases for an Executor
+    private static final int MAX_PARTITIONS = 64;
+    private static final int MIN_PARTITION_SIZE = 32;
+    private static final BooleanSupplier NO_DEADLINE = () -> false;
 
     /**
      * Computes unnormalized BOQA log scores (log(probabilities))
      * for each HPOA-annotated disease, given a query set of HPO terms (patient's data).
      * This function is also intended to be used in the BoqaPrioritiser of Exomiser.
      *
-     * <p>For each HPOA-annotated disease, this method performs the following steps:
+     * <p>The patient's observed HPO terms are expanded only once, see {@link Counter#prepareQuery(PatientData)}.
+     * Then, for each HPOA-annotated disease, this method performs the following steps:
      * <ol>
-     *   <li>Compute {@link BoqaCounts} using the provided
-     *   {@link org.p2gx.boqa.core.algorithm.BoqaSetCounter}</li>
+     *   <li>Compute {@link BoqaCounts} using the {@link PreparedQuery} of the provided {@link Counter}</li>
      *   <li>Calculate un-normalized log probability using
      *   {@link #computeUnnormalizedLogProbability(AlgorithmParameters, BoqaCounts)}</li>
      * </ol>
@@ -34,19 +50,47 @@ public final class BoqaPatientAnalyzer {
      * @param patientData  Query data (symptoms/features observed in a patient)
      * @param counter      The counter object that computes BoqaCounts for each HPOA-annotated disease
      * @return A {@link BoqaAnalysisResult} containing the patient data along with
-     * counts and raw log scores for each HPOA-annotated disease.
+     * counts and raw log scores for each HPOA-annotated disease, as {@link ColumnarBoqaResults} in the order of
+     * {@link Counter#getDiseaseDictionary()}.
      */
     public static BoqaAnalysisResult computeBoqaResultsRawLog(
             PatientData patientData, Counter counter, AlgorithmParameters params) {
+        return computeBoqaResultsRawLog(patientData, counter, params, null);
+    }
 
-        List<BoqaResult> allResults = counter.getDiseaseIds()
-                .parallelStream() // fast: computes counts + scores in parallel
-                .map(dId -> {
-                    BoqaCounts bc = counter.computeBoqaCounts(dId, patientData);
-                    double rawScore = computeUnnormalizedLogProbability(params, bc);
-                    return new BoqaResult(bc, rawScore);
-                })
-                .toList();
+    /**
+     * Computes unnormalized BOQA log scores as {@link #computeBoqaResultsRawLog(PatientData, Counter,
+     * AlgorithmParameters)}, with the diseases split into partitions that are run by {@code executor} instead of
+     * the common {@link java.util.concurrent.ForkJoinPool}. Pass {@code Runnable::run} to score on the calling
+     * thread, e.g. when the caller already runs many patients in parallel.
+     *
+     * @param executor runs the partitions of diseases, or {@code null} to use a parallel stream
+     */
+    public static BoqaAnalysisResult computeBoqaResultsRawLog(
+            PatientData patientData, Counter counter, AlgorithmParameters params, Executor executor) {
+
+        PreparedQuery query = counter.prepareQuery(patientData);
+        DiseaseDictionary dictionary = counter.getDiseaseDictionary();
+        ColumnarBoqaResults allResults = new ColumnarBoqaResults(dictionary, dictionary.size());
+        IntConsumer score = d -> {
+            BoqaCounts bc = query.computeBoqaCounts(dictionary.id(d));
+            double rawScore = computeUnnormalizedLogProbability(params, bc);
+            allResults.set(d, d, bc, rawScore);
+        };
+        if (executor == null) {
+            IntStream.range(0, dictionary.size())
+                    .parallel() // fast: computes counts + scores in parallel
+                    .forEach(score);
+        } else {
+            int partitionSize = partitionSize(dictionary.size());
+            List<CompletableFuture<Void>> partitions = new ArrayList<>();
+            for (int from = 0; from < dictionary.size(); from += partitionSize) {
+                int start = from;
+                int end = Math.min(from + partitionSize, dictionary.size());
+                partitions.add(CompletableFuture.runAsync(() -> IntStream.range(start, end).forEach(score), executor));
+            }
+            partitions.forEach(CompletableFuture::join);
+        }
 
         return new BoqaAnalysisResult(patientData, allResults);
     }
@@ -56,13 +100,17 @@ public final class BoqaPatientAnalyzer {
      * given a query set of HPO terms (patient's data),
      * and sorts the diseases by score.
      *
-     * <p>This method performs the complete BOQA analysis pipeline:
+     * <p>This method performs the complete BOQA analysis pipeline in a single parallel pass over all diseases:
      * <ol>
-     *   <li>Calculate un-normalized probabilities using
+     *   <li>Calculate un-normalized log probabilities as in
      *   {@link #computeBoqaResultsRawLog(PatientData, Counter, AlgorithmParameters)}</li>
-     *   <li>Normalize the probabilities so that they sum up to 1.0 across all diseases</li>
-     *   <li>Sort results by score (descending) and limit to top results</li>
+     *   <li>Keep the {@code resultsLimit} best of them in a bounded min-heap, and accumulate the normalization
+     *   constant with an online log-sum-exp</li>
+     *   <li>Normalize the surviving probabilities so that the probabilities of all diseases sum up to 1.0,
+     *   and sort them by score (descending)</li>
      * </ol>
+     * Only diseases that enter the heap are wrapped into a {@link BoqaResult}, and the survivors are returned as
+     * {@link ColumnarBoqaResults}.
      *
      * @param patientData  Query data (symptoms/features observed in a patient)
      * @param counter      The counter object that computes BoqaCounts for each HPOA-annotated disease
@@ -74,31 +122,357 @@ public final class BoqaPatientAnalyzer {
     public static BoqaAnalysisResult computeBoqaResults(
             PatientData patientData, Counter counter, int resultsLimit, AlgorithmParameters params) {
 
-        // Get BoqaResults with raw log scores
-        List<BoqaResult> rawLogBoqaResults = new ArrayList<>(computeBoqaResultsRawLog(patientData, counter, params).boqaResults());
+        return computeBoqaResults(patientData, counter, resultsLimit, params, Normalization.EXACT, null);
+    }
+
+    /**
+     * Computes the {@code resultsLimit} best normalized BOQA scores (probabilities), sorted by score.
+     *
+     * <p>With {@link Normalization#EXACT}, this is the same as
+     * {@link #computeBoqaResults(PatientData, Counter, int, AlgorithmParameters)}.
+     *
+     * <p>With {@link Normalization#BOUNDED}, the diseases are scored in the order of
+     * {@link BoundedPreparedQuery#diseaseIdsByLayerSize()}, in chunks that are counted in parallel. Before each
+     * chunk, the score upper bound of its first disease (see
+     * {@link #computeUnnormalizedLogProbabilityUpperBound(AlgorithmParameters, int, int, int)}) is compared to the
+     * current {@code resultsLimit}-th best score. Bounds do not increase along this order, so once the bound is
+     * lower, none of the remaining diseases can enter the top results and they are not counted. Their upper
+     * bounds are added to the normalization constant instead of their scores, see {@link Normalization#BOUNDED}.
+     * If the counter does not provide bounds, all diseases are scored.
+     *
+     * @param patientData   Query data (symptoms/features observed in a patient)
+     * @param counter       The counter object that computes BoqaCounts for each HPOA-annotated disease
+     * @param resultsLimit  Maximum number of top-scoring diseases to return
+     * @param normalization Whether the normalization constant is exact or bounded
+     * @return A {@link BoqaAnalysisResult} containing the patient data along with
+     * a list of at most {@code resultsLimit} {@link BoqaResult} sorted by score.
+     */
+    public static BoqaAnalysisResult computeBoqaResults(
+            PatientData patientData, Counter counter, int resultsLimit, AlgorithmParameters params,
+            Normalization normalization) {
+        return computeBoqaResults(patientData, counter, resultsLimit, params, normalization, null);
+    }
+
+    /**
+     * Computes the {@code resultsLimit} best normalized BOQA scores as
+     * {@link #computeBoqaResults(PatientData, Counter, int, AlgorithmParameters, Normalization)}, with the diseases
+     * split into partitions that are run by {@code executor} instead of the common
+     * {@link java.util.concurrent.ForkJoinPool}. Pass {@code Runnable::run} to score on the calling thread.
+     *
+     * @param executor runs the partitions of diseases, or {@code null} to use parallel streams
+     */
+    public static BoqaAnalysisResult computeBoqaResults(
+            PatientData patientData, Counter counter, int resultsLimit, AlgorithmParameters params,
+            Normalization normalization, Executor executor) {
+
+        PreparedQuery prepared = counter.prepareQuery(patientData);
+        if (normalization == Normalization.EXACT || !(prepared instanceof BoundedPreparedQuery query)) {
+            if (normalization != Normalization.EXACT) {
+                LOGGER.debug("{} does not provide score bounds, scoring all diseases", counter.getClass().getSimpleName());
+            }
+            TopResults topResults = scoreTopResults(prepared, counter.getDiseaseIds(), resultsLimit, params, NO_DEADLINE, executor);
+            return new BoqaAnalysisResult(patientData, topResults.normalized(counter.getDiseaseDictionary()));
+        }
+
+        List<String> diseaseIds = query.diseaseIdsByLayerSize();
+        int q = query.queryLayerSize();
+        int f = query.frontierSize();
+        TopResults topResults = new TopResults(resultsLimit);
+        int scored = 0;
+        while (scored < diseaseIds.size()) {
+            double bound = computeUnnormalizedLogProbabilityUpperBound(params, q, f, query.layerSize(diseaseIds.get(scored)));
+            if (topResults.isFull() && bound < topResults.minScore()) {
+                break;
+            }
+            int end = Math.min(scored + Math.max(resultsLimit, BOUNDED_CHUNK_SIZE), diseaseIds.size());
+            topResults.addAll(scoreTopResults(query, diseaseIds.subList(scored, end), resultsLimit, params, NO_DEADLINE, executor));
+            scored = end;
+        }
+        LOGGER.debug("Scored {} of {} diseases for the top {}", scored, diseaseIds.size(), resultsLimit);
+        for (int i = scored; i < diseaseIds.size(); i++) {
+            topResults.addToNormalizer(computeUnnormalizedLogProbabilityUpperBound(params, q, f, query.layerSize(diseaseIds.get(i))));
+        }
+        return new BoqaAnalysisResult(patientData, topResults.normalized(counter.getDiseaseDictionary()));
+    }
+
+    /**
+     * Computes the {@code resultsLimit} best normalized BOQA scores as
+     * {@link #computeBoqaResults(PatientData, Counter, int, AlgorithmParameters, Normalization)}, but stops scoring
+     * when {@code timeout} has elapsed and returns the best results found so far.
+     *
+     * <p>The diseases are scored in chunks, in the order of
+     * {@link #diseaseIdsByUpperBound(BoundedPreparedQuery, AlgorithmParameters)} if the counter provides bounds, so
+     * that the diseases most likely to enter the top results for this query are scored first; otherwise in the order
+     * of their IDs. The deadline is checked before each chunk and, cooperatively, before each disease of a chunk, so
+     * that no counting continues after the deadline and no thread has to be interrupted. If the deadline is hit,
+     * the result is flagged as partial. Diseases that were not scored enter the normalization constant with their
+     * score upper bounds, i.e. the probabilities are lower bounds; without bounds, the probabilities are normalized
+     * over the scored diseases only.
+     *
+     * @param timeout time budget, including the preparation of the query
+     * @return the results, whether they are partial and the fraction of diseases scored
+     */
+    public static DeadlineAnalysisResult computeBoqaResultsWithin(
+            PatientData patientData, Counter counter, int resultsLimit, AlgorithmParameters params,
+            Normalization normalization, Duration timeout) {
+        return computeBoqaResultsWithin(patientData, counter, resultsLimit, params, normalization, timeout, null);
+    }
+
+    /**
+     * Computes the {@code resultsLimit} best normalized BOQA scores within a time budget as
+     * {@link #computeBoqaResultsWithin(PatientData, Counter, int, AlgorithmParameters, Normalization, Duration)},
+     * with the chunks of diseases split into partitions that are run by {@code executor}.
+     *
+     * @param executor runs the partitions of diseases, or {@code null} to use parallel streams
+     */
+    public static DeadlineAnalysisResult computeBoqaResultsWithin(
+            PatientData patientData, Counter counter, int resultsLimit, AlgorithmParameters params,
+            Normalization normalization, Duration timeout, Executor executor) {
+
+        long deadline = System.nanoTime() + timeout.toNanos();
+        BooleanSupplier expired = () -> System.nanoTime() - deadline >= 0;
+        PreparedQuery prepared = counter.prepareQuery(patientData);
+        BoundedPreparedQuery query = prepared instanceof BoundedPreparedQuery bounded ? bounded : null;
+        List<String> diseaseIds = query != null
+                ? diseaseIdsByUpperBound(query, params)
+                : counter.getDiseaseIds().stream().sorted().toList();
+        int q = query != null ? query.queryLayerSize() : 0;
+        int f = query != null ? query.frontierSize() : 0;
+
+        TopResults topResults = new TopResults(resultsLimit);
+        int visited = 0;
+        boolean partial = false;
+        while (visited < diseaseIds.size()) {
+            double bound = query != null
+                    ? computeUnnormalizedLogProbabilityUpperBound(params, q, f, query.layerSize(diseaseIds.get(visited)))
+                    : Double.POSITIVE_INFINITY;
+            if (normalization == Normalization.BOUNDED && topResults.isFull() && bound < topResults.minScore()) {
+                break;
+            }
+            if (expired.getAsBoolean()) {
+                partial = true;
+                break;
+            }
+            int end = Math.min(visited + Math.max(resultsLimit, BOUNDED_CHUNK_SIZE), diseaseIds.size());
+            int scoredBefore = topResults.scored;
+            topResults.addAll(scoreTopResults(prepared, diseaseIds.subList(visited, end),
+                    resultsLimit, params, expired, executor));
+            int skipped = end - visited - (topResults.scored - scoredBefore);
+            if (skipped > 0) {
+                // cancelled within the chunk, the skipped diseases are bounded by the first one of the chunk
+                partial = true;
+                if (query != null) {
+                    topResults.addToNormalizer(bound + Math.log(skipped));
+                }
+            }
+            visited = end;
+        }
+        if (query != null) {
+            for (int i = visited; i < diseaseIds.size(); i++) {
+                topResults.addToNormalizer(computeUnnormalizedLogProbabilityUpperBound(params, q, f, query.layerSize(diseaseIds.get(i))));
+            }
+        }
+        double evaluatedFraction = diseaseIds.isEmpty() ? 1.0 : (double) topResults.scored / diseaseIds.size();
+        if (partial) {
+            LOGGER.debug("Deadline of {} reached for {} after scoring {} of {} diseases",
+                    timeout, patientData.getID(), topResults.scored, diseaseIds.size());
+        }
+        return new DeadlineAnalysisResult(
+                new BoqaAnalysisResult(patientData, topResults.normalized(counter.getDiseaseDictionary())),
+                partial, evaluatedFraction);
+    }
+
+    /**
+     * Sorts the diseases by descending score upper bound for this query (see
+     * {@link #computeUnnormalizedLogProbabilityUpperBound(AlgorithmParameters, int, int, int)}), then by ascending
+     * layer size, then by ID.
+     * <p>
+     * The bound only grows with the layer size until a layer can hold the whole query layer, so for most queries
+     * the bounds of the larger layers tie. Among those, a smaller layer has fewer terms that can be false negatives
+     * and scores higher on average. Bounds do not increase along this order, as required by the bounded search.
+     */
+    static List<String> diseaseIdsByUpperBound(BoundedPreparedQuery query, AlgorithmParameters params) {
+        List<String> diseaseIds = query.diseaseIdsByLayerSize();
+        int q = query.queryLayerSize();
+        int f = query.frontierSize();
+        double[] bounds = new double[diseaseIds.size()];
+        int[] layerSizes = new int[diseaseIds.size()];
+        for (int i = 0; i < bounds.length; i++) {
+            layerSizes[i] = query.layerSize(diseaseIds.get(i));
+            bounds[i] = computeUnnormalizedLogProbabilityUpperBound(params, q, f, layerSizes[i]);
+        }
+        return IntStream.range(0, bounds.length).boxed()
+                .sorted(Comparator.<Integer>comparingDouble(i -> -bounds[i])
+                        .thenComparingInt(i -> layerSizes[i])
+                        .thenComparing(diseaseIds::get))
+                .map(diseaseIds::get)
+                .toList();
+    }
+
+    /**
+     * Computes the rank and normalized score of each known diagnosis of a patient, without keeping or sorting the
+     * results of the other diseases.
+     *
+     * <p>The diagnoses are scored first and counted with their own scores. Then a single parallel pass over the
+     * other diseases counts, per diagnosis, the diseases with a higher or the same score and accumulates the
+     * normalization constant. With
+     * {@link Normalization#BOUNDED}, the diseases are visited in the order of
+     * {@link BoundedPreparedQuery#diseaseIdsByLayerSize()} and the pass stops as soon as the score upper bound falls
+     * below the lowest diagnosis score: none of the remaining diseases can beat or tie a diagnosis, so the ranks
+     * are exact, and the remaining diseases enter the normalization constant with their upper bounds.
+     *
+     * @param patientData   Query data (symptoms/features observed in a patient)
+     * @param counter       The counter object that computes BoqaCounts for each HPOA-annotated disease
+     * @param diagnosisIds  The diagnosed disease IDs; IDs unknown to the counter are ignored
+     * @param normalization Whether the normalization constant is exact or bounded
+     * @return the ranks of the known diagnoses, in iteration order of {@code diagnosisIds}
+     */
+    public static List<DiagnosisRank> computeDiagnosisRanks(
+            PatientData patientData, Counter counter, Collection<String> diagnosisIds, AlgorithmParameters params,
+            Normalization normalization) {
+
+        DiseaseDictionary dictionary = counter.getDiseaseDictionary();
+        List<String> targets = diagnosisIds.stream()
+                .filter(id -> dictionary.indexOf(id) >= 0)
+                .distinct()
+                .toList();
+        if (targets.isEmpty()) {
+            return List.of();
+        }
+        PreparedQuery prepared = counter.prepareQuery(patientData);
+        double[] targetScores = targets.stream()
+                .mapToDouble(id -> computeUnnormalizedLogProbability(params, prepared.computeBoqaCounts(id)))
+                .toArray();
 
-        // Sort by raw log score
-        rawLogBoqaResults.sort(Comparator.comparingDouble(BoqaResult::boqaScore).reversed());
+        // the diagnoses are counted with their own scores, whether or not the pass below reaches them
+        Set<String> targetIds = Set.copyOf(targets);
+        RankCounts rankCounts = new RankCounts(targetScores);
+        for (double targetScore : targetScores) {
+            rankCounts.add(targetScore);
+        }
+        if (normalization == Normalization.BOUNDED && prepared instanceof BoundedPreparedQuery query) {
+            double minTargetScore = Arrays.stream(targetScores).min().orElseThrow();
+            List<String> diseaseIds = query.diseaseIdsByLayerSize().stream()
+                    .filter(id -> !targetIds.contains(id))
+                    .toList();
+            int q = query.queryLayerSize();
+            int f = query.frontierSize();
+            int scored = 0;
+            while (scored < diseaseIds.size()
+                    && computeUnnormalizedLogProbabilityUpperBound(params, q, f, query.layerSize(diseaseIds.get(scored))) >= minTargetScore) {
+                int end = Math.min(scored + BOUNDED_CHUNK_SIZE, diseaseIds.size());
+                rankCounts.addAll(countRanks(prepared, diseaseIds.subList(scored, end), targetScores, params));
+                scored = end;
+            }
+            LOGGER.debug("Scored {} of {} diseases for the ranks of {} diagnoses", scored, diseaseIds.size(), targets.size());
+            for (int i = scored; i < diseaseIds.size(); i++) {
+                rankCounts.normalizer.add(computeUnnormalizedLogProbabilityUpperBound(params, q, f, query.layerSize(diseaseIds.get(i))));
+            }
+        } else {
+            List<String> diseaseIds = counter.getDiseaseIds().stream()
+                    .filter(id -> !targetIds.contains(id))
+                    .toList();
+            rankCounts.addAll(countRanks(prepared, diseaseIds, targetScores, params));
+        }
 
-        // Find max log-prob
-        double maxLogP = rawLogBoqaResults.stream()
-                .mapToDouble(BoqaResult::boqaScore)
-                .max()
-                .orElse(Double.NEGATIVE_INFINITY);
+        double logZ = rankCounts.normalizer.value();
+        List<DiagnosisRank> ranks = new ArrayList<>(targets.size());
+        for (int k = 0; k < targets.size(); k++) {
+            // the diagnosis itself is among the diseases with the same score
+            ranks.add(new DiagnosisRank(targets.get(k), 1 + rankCounts.higher[k], rankCounts.same[k] - 1,
+                    Math.exp(targetScores[k] - logZ)));
+        }
+        return ranks;
+    }
 
-        // Compute sum of exp(logP - maxLogP)
-        double sum = rawLogBoqaResults.stream()
-                .mapToDouble(r -> Math.exp(r.boqaScore() - maxLogP))
-                .sum();
+    /**
+     * Counts the given diseases in parallel against the diagnosis scores, each worker thread filling its own
+     * {@link RankCounts}.
+     */
+    private static RankCounts countRanks(
+            PreparedQuery query, Collection<String> diseaseIds, double[] targetScores, AlgorithmParameters params) {
+        return diseaseIds.parallelStream()
+                .collect(() -> new RankCounts(targetScores),
+                        (rankCounts, dId) -> rankCounts.add(computeUnnormalizedLogProbability(params, query.computeBoqaCounts(dId))),
+                        RankCounts::addAll);
+    }
 
-        // Normalize
-        List<BoqaResult> allResults = new ArrayList<>();
-        rawLogBoqaResults.forEach(r -> {
-            double normProb = Math.exp(r.boqaScore() - maxLogP) / sum;
-            allResults.add(new BoqaResult(r.counts(), normProb));
-        });
+    /**
+     * Mutable accumulator of the number of diseases scoring higher than or the same as each diagnosis, together
+     * with the log-sum-exp of all scores seen.
+     */
+    private static final class RankCounts {
+        private final double[] targetScores;
+        private final int[] higher;
+        private final int[] same;
+        private final LogSumExp normalizer = new LogSumExp();
+
+        RankCounts(double[] targetScores) {
+            this.targetScores = targetScores;
+            this.higher = new int[targetScores.length];
+            this.same = new int[targetScores.length];
+        }
+
+        void add(double rawScore) {
+            normalizer.add(rawScore);
+            for (int k = 0; k < targetScores.length; k++) {
+                if (rawScore > targetScores[k]) {
+                    higher[k]++;
+                } else if (rawScore == targetScores[k]) {
+                    same[k]++;
+                }
+            }
+        }
 
-        return new BoqaAnalysisResult(patientData, allResults.stream().limit(resultsLimit).toList());
+        void addAll(RankCounts other) {
+            normalizer.addAll(other.normalizer);
+            for (int k = 0; k < targetScores.length; k++) {
+                higher[k] += other.higher[k];
+                same[k] += other.same[k];
+            }
+        }
+    }
+
+    /**
+     * Scores the given diseases in parallel, each worker thread (or partition) filling its own {@link TopResults}.
+     * Diseases that are reached once {@code expired} returns {@code true} are skipped.
+     *
+     * @param executor runs partitions of the diseases, or {@code null} to use a parallel stream
+     */
+    private static TopResults scoreTopResults(
+            PreparedQuery query, Collection<String> diseaseIds, int resultsLimit, AlgorithmParameters params,
+            BooleanSupplier expired, Executor executor) {
+        BiConsumer<TopResults, String> score = (topResults, dId) -> {
+            if (!expired.getAsBoolean()) {
+                BoqaCounts bc = query.computeBoqaCounts(dId);
+                topResults.add(bc, computeUnnormalizedLogProbability(params, bc));
+            }
+        };
+        if (executor == null) {
+            return diseaseIds.parallelStream()
+                    .collect(() -> new TopResults(resultsLimit), score, TopResults::addAll);
+        }
+        List<String> ids = List.copyOf(diseaseIds);
+        int partitionSize = partitionSize(ids.size());
+        List<CompletableFuture<TopResults>> partitions = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += partitionSize) {
+            List<String> partition = ids.subList(from, Math.min(from + partitionSize, ids.size()));
+            partitions.add(CompletableFuture.supplyAsync(() -> {
+                TopResults topResults = new TopResults(resultsLimit);
+                partition.forEach(dId -> score.accept(topResults, dId));
+                return topResults;
+            }, executor));
+        }
+        TopResults merged = new TopResults(resultsLimit);
+        partitions.forEach(partition -> merged.addAll(partition.join()));
+        return merged;
+    }
+
+    /**
+     * @return the number of diseases per task when {@code size} diseases are split for an {@link Executor}
+     */
+    private static int partitionSize(int size) {
+        return Math.max(MIN_PARTITION_SIZE, (size + MAX_PARTITIONS - 1) / MAX_PARTITIONS);
     }
 
     /**
@@ -111,10 +485,159 @@ public final class BoqaPatientAnalyzer {
      * @return The un-normalized BOQA log probability score.
      */
     static double computeUnnormalizedLogProbability(AlgorithmParameters params, BoqaCounts counts){
-        return counts.fpBoqaCount() * params.getLogAlpha() +
-                counts.fnBoqaCount() * params.getLogBeta() +
-                counts.tnBoqaCount() * params.getLogOneMinusAlpha() +
-                counts.tpBoqaCount() * params.getLogOneMinusBeta();
+        return computeUnnormalizedLogProbability(params,
+                counts.tpBoqaCount(), counts.fpBoqaCount(), counts.tnBoqaCount(), counts.fnBoqaCount());
+    }
+
+    private static double computeUnnormalizedLogProbability(AlgorithmParameters params, int tp, int fp, int tn, int fn) {
+        return fp * params.getLogAlpha() +
+                fn * params.getLogBeta() +
+                tn * params.getLogOneMinusAlpha() +
+                tp * params.getLogOneMinusBeta();
+    }
+
+    /**
+     * Computes an upper bound of the un-normalized BOQA log probability of any disease with a layer of
+     * {@code layerSize} terms, for a query layer of {@code queryLayerSize} terms with {@code frontierSize} frontier
+     * nodes. With fp = |Q| - tp and tn = |F| - fn, the log probability is
+     * <p>
+     * |Q| × log(α) + |F| × log(1-α) + tp × (log(1-β) - log(α)) + fn × (log(β) - log(1-α)),
+     * </p>
+     * where 0 ≤ tp ≤ min(|Q|, |D|) and 0 ≤ fn ≤ min(|F|, |D|). Each term is maximized separately, so the bound
+     * does not decrease with {@code layerSize}.
+     * <p>
+     * The bound is evaluated with the same expression as the score, for the maximizing counts, so that a disease
+     * reaching these counts scores exactly the bound and is not dropped by rounding.
+     */
+    static double computeUnnormalizedLogProbabilityUpperBound(
+            AlgorithmParameters params, int queryLayerSize, int frontierSize, int layerSize) {
+        double tpWeight = params.getLogOneMinusBeta() - params.getLogAlpha();
+        double fnWeight = params.getLogBeta() - params.getLogOneMinusAlpha();
+        int tp = tpWeight > 0 ? Math.min(queryLayerSize, layerSize) : 0;
+        int fn = fnWeight > 0 ? Math.min(frontierSize, layerSize) : 0;
+        return computeUnnormalizedLogProbability(params, tp, queryLayerSize - tp, frontierSize - fn, fn);
+    }
+
+    /**
+     * Online log-sum-exp: accumulates log(Σ exp(x)) in one pass, rescaling the running sum whenever a larger
+     * maximum is seen.
+     */
+    private static final class LogSumExp {
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum = 0.0; // Σ exp(x - max)
+
+        void add(double x) {
+            if (x == Double.NEGATIVE_INFINITY) {
+                return;
+            }
+            if (x <= max) {
+                sum += Math.exp(x - max);
+            } else {
+                sum = sum * Math.exp(max - x) + 1.0;
+                max = x;
+            }
+        }
+
+        void addAll(LogSumExp other) {
+            if (other.max == Double.NEGATIVE_INFINITY) {
+                return;
+            }
+            if (other.max <= max) {
+                sum += other.sum * Math.exp(other.max - max);
+            } else {
+                sum = sum * Math.exp(max - other.max) + other.sum;
+                max = other.max;
+            }
+        }
+
+        double value() {
+            return max + Math.log(sum);
+        }
+    }
+
+    /**
+     * Mutable accumulator of the {@code limit} best raw log scores, kept in a min-heap, together with the
+     * log-sum-exp of all scores seen. Scores that do not enter the heap only update the normalization constant.
+     * <p>
+     * Diseases with the same score are ranked by ascending disease ID, so that the survivors at the boundary of the
+     * top results do not depend on the order in which the partitions are merged.
+     */
+    private static final class TopResults {
+        // ascending from the worst result: lower score first, then the larger disease ID
+        private static final Comparator<BoqaResult> BY_SCORE = Comparator.comparingDouble(BoqaResult::boqaScore)
+                .thenComparing(r -> r.counts().diseaseId(), Comparator.reverseOrder());
+        private static final Comparator<BoqaResult> BEST_FIRST = Comparator.<BoqaResult>naturalOrder()
+                .thenComparing(r -> r.counts().diseaseId());
+
+        private final int limit;
+        private final PriorityQueue<BoqaResult> heap = new PriorityQueue<>(BY_SCORE);
+        private final LogSumExp normalizer = new LogSumExp();
+        // number of diseases scored
+        private int scored;
+
+        TopResults(int limit) {
+            this.limit = limit;
+        }
+
+        void add(BoqaCounts counts, double rawScore) {
+            scored++;
+            normalizer.add(rawScore);
+            if (heap.size() < limit) {
+                heap.add(new BoqaResult(counts, rawScore));
+            } else if (limit > 0 && beatsWorst(rawScore, counts.diseaseId())) {
+                heap.poll();
+                heap.add(new BoqaResult(counts, rawScore));
+            }
+        }
+
+        void addAll(TopResults other) {
+            scored += other.scored;
+            normalizer.addAll(other.normalizer);
+            for (BoqaResult r : other.heap) {
+                if (heap.size() < limit) {
+                    heap.add(r);
+                } else if (limit > 0 && beatsWorst(r.boqaScore(), r.counts().diseaseId())) {
+                    heap.poll();
+                    heap.add(r);
+                }
+            }
+        }
+
+        /**
+         * @return whether a disease ranks before the worst result in the full heap, see {@link #BY_SCORE}
+         */
+        private boolean beatsWorst(double rawScore, String diseaseId) {
+            BoqaResult worst = heap.peek();
+            return rawScore > worst.boqaScore()
+                    || rawScore == worst.boqaScore() && diseaseId.compareTo(worst.counts().diseaseId()) < 0;
+        }
+
+        void addToNormalizer(double rawScore) {
+            normalizer.add(rawScore);
+        }
+
+        boolean isFull() {
+            return limit > 0 && heap.size() == limit;
+        }
+
+        double minScore() {
+            return heap.isEmpty() ? Double.NEGATIVE_INFINITY : heap.peek().boqaScore();
+        }
+
+        /**
+         * @return the surviving results with normalized scores, sorted by score (descending), then by disease ID
+         */
+        ColumnarBoqaResults normalized(DiseaseDictionary dictionary) {
+            double logZ = normalizer.value();
+            BoqaResult[] sorted = heap.toArray(BoqaResult[]::new);
+            Arrays.sort(sorted, BEST_FIRST);
+            ColumnarBoqaResults results = new ColumnarBoqaResults(dictionary, sorted.length);
+            for (int row = 0; row < sorted.length; row++) {
+                BoqaCounts counts = sorted[row].counts();
+                results.set(row, dictionary.indexOf(counts.diseaseId()), counts, Math.exp(sorted[row].boqaScore() - logZ));
+            }
+            return results;
+        }
     }
 
     /**
@@ -0,0 +1,117 @@
+package org.p2gx.boqa.core.analysis;
+
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.algorithm.BoqaCounts;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * Columnar, primitive representation of the {@link BoqaResult}s of one patient.
+ * <p>
+ * Each row {@code i} holds a disease, referenced by its index in a shared {@link DiseaseDictionary}, the four
+ * counts and the score in parallel arrays. Compared to a list of {@link BoqaResult}s, this takes a handful of
+ * arrays per patient instead of two objects per disease.
+ * <p>
+ * The class is also a read-only {@code List<BoqaResult>}: {@link #get(int)} creates a {@link BoqaResult} view of a
+ * row on demand, so it can be used wherever a list of results is expected, e.g. in {@link BoqaAnalysisResult} and
+ * the JSON output. Use the primitive accessors to avoid these allocations.
+ */
+public final class ColumnarBoqaResults extends AbstractList<BoqaResult> implements RandomAccess {
+
+    private final DiseaseDictionary dictionary;
+    private final int[] diseaseIndices;
+    private final int[] tp;
+    private final int[] fp;
+    private final int[] tn;
+    private final int[] fn;
+    private final double[] scores;
+
+    /**
+     * Creates {@code size} rows, to be filled by {@link #set(int, int, BoqaCounts, double)}.
+     */
+    ColumnarBoqaResults(DiseaseDictionary dictionary, int size) {
+        this.dictionary = dictionary;
+        this.diseaseIndices = new int[size];
+        this.tp = new int[size];
+        this.fp = new int[size];
+        this.tn = new int[size];
+        this.fn = new int[size];
+        this.scores = new double[size];
+    }
+
+    /**
+     * Creates columnar results holding the given results, in iteration order.
+     *
+     * @throws IllegalArgumentException if a disease of {@code results} is not in {@code dictionary}
+     */
+    public static ColumnarBoqaResults of(DiseaseDictionary dictionary, Collection<BoqaResult> results) {
+        ColumnarBoqaResults columnar = new ColumnarBoqaResults(dictionary, results.size());
+        int row = 0;
+        for (BoqaResult result : results) {
+            int d = dictionary.indexOf(result.counts().diseaseId());
+            if (d < 0) {
+                throw new IllegalArgumentException("Disease ID \"" + result.counts().diseaseId() + "\" not found!");
+            }
+            columnar.set(row++, d, result.counts(), result.boqaScore());
+        }
+        return columnar;
+    }
+
+    void set(int row, int diseaseIndex, BoqaCounts counts, double score) {
+        diseaseIndices[row] = diseaseIndex;
+        tp[row] = counts.tpBoqaCount();
+        fp[row] = counts.fpBoqaCount();
+        tn[row] = counts.tnBoqaCount();
+        fn[row] = counts.fnBoqaCount();
+        scores[row] = score;
+    }
+
+    /**
+     * @return a {@link BoqaResult} view of row {@code row}, created on each call
+     */
+    @Override
+    public BoqaResult get(int row) {
+        int d = diseaseIndices[row];
+        BoqaCounts counts = new BoqaCounts(dictionary.id(d), dictionary.label(d), tp[row], fp[row], tn[row], fn[row]);
+        return new BoqaResult(counts, scores[row]);
+    }
+
+    @Override
+    public int size() {
+        return scores.length;
+    }
+
+    public DiseaseDictionary dictionary() {
+        return dictionary;
+    }
+
+    public int diseaseIndex(int row) {
+        return diseaseIndices[row];
+    }
+
+    public String diseaseId(int row) {
+        return dictionary.id(diseaseIndices[row]);
+    }
+
+    public int tpBoqaCount(int row) {
+        return tp[row];
+    }
+
+    public int fpBoqaCount(int row) {
+        return fp[row];
+    }
+
+    public int tnBoqaCount(int row) {
+        return tn[row];
+    }
+
+    public int fnBoqaCount(int row) {
+        return fn[row];
+    }
+
+    public double score(int row) {
+        return scores[row];
+    }
+}
@@ -0,0 +1,14 @@
+package org.p2gx.boqa.core.analysis;
+
+/**
+ * Result of a BOQA analysis with a time budget, see
+ * {@link BoqaPatientAnalyzer#computeBoqaResultsWithin(org.p2gx.boqa.core.PatientData, org.p2gx.boqa.core.Counter, int,
+ * org.p2gx.boqa.core.algorithm.AlgorithmParameters, Normalization, java.time.Duration)}.
+ *
+ * @param analysisResult    the best results found before the deadline
+ * @param partial           {@code true} if the deadline was reached before all diseases that could enter the top
+ *                          results were scored
+ * @param evaluatedFraction the fraction of diseases that were scored, between 0.0 and 1.0
+ */
+public record DeadlineAnalysisResult(BoqaAnalysisResult analysisResult, boolean partial, double evaluatedFraction) {
+}
@@ -0,0 +1,15 @@
+package org.p2gx.boqa.core.analysis;
+
+/**
+ * Rank and normalized score of a known diagnosis of a patient among all diseases, see
+ * {@link BoqaPatientAnalyzer#computeDiagnosisRanks(org.p2gx.boqa.core.PatientData, org.p2gx.boqa.core.Counter,
+ * java.util.Collection, org.p2gx.boqa.core.algorithm.AlgorithmParameters, Normalization)}.
+ *
+ * @param diseaseId the diagnosed disease
+ * @param rank      1 + the number of diseases with a higher score
+ * @param ties      the number of other diseases with the same score
+ * @param boqaScore the normalized BOQA probability score of the diagnosis; a lower bound with
+ *                  {@link Normalization#BOUNDED}
+ */
+public record DiagnosisRank(String diseaseId, int rank, int ties, double boqaScore) {
+}
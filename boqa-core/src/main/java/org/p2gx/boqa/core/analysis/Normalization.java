@@ -0,0 +1,25 @@
+package org.p2gx.boqa.core.analysis;
+
+import org.p2gx.boqa.core.BoundedPreparedQuery;
+
+/**
+ * How the scores of a top-K BOQA analysis are normalized, see
+ * {@link BoqaPatientAnalyzer#computeBoqaResults(org.p2gx.boqa.core.PatientData, org.p2gx.boqa.core.Counter, int,
+ * org.p2gx.boqa.core.algorithm.AlgorithmParameters, Normalization)}.
+ */
+public enum Normalization {
+    /**
+     * Every disease is scored, the probabilities sum up to 1.0 across all diseases.
+     */
+    EXACT,
+    /**
+     * Diseases whose score upper bound cannot reach the current top-K are skipped. The top-K diseases and their
+     * order are the same as with {@link #EXACT}, but each skipped disease enters the normalization constant with its
+     * upper bound instead of its score. The constant is therefore over-estimated and the reported probabilities are
+     * lower bounds of the exact ones.
+     * <p>
+     * Requires a counter whose prepared queries implement {@link BoundedPreparedQuery}; otherwise the analysis falls
+     * back to {@link #EXACT}.
+     */
+    BOUNDED
+}
@@ -0,0 +1,328 @@
+package org.p2gx.boqa.core.diseases;
+
+import org.monarchinitiative.phenol.ontology.data.Ontology;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.algorithm.DiseaseLayers;
+import org.p2gx.boqa.core.internal.TermIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only store of precomputed disease layers in a single file, mapped into memory with
+ * {@link FileChannel#map(FileChannel.MapMode, long, long)}.
+ * <p>
+ * Initializing the layers of all diseases takes a few seconds and, depending on the {@link org.p2gx.boqa.core.Counter},
+ * tens of megabytes of heap. With a layer store, this is done once by {@link #write(DiseaseData, Ontology, Path)}.
+ * Any number of processes can then {@link #open(Path)} the same file: the layers stay off-heap in the page cache,
+ * which the operating system shares between all processes that map the file. Only the term list and the disease
+ * IDs and labels are read onto the heap.
+ * <p>
+ * The layers are indexed by the dense term indices of the HPO release they were built with, so the store lists all
+ * terms in index order. Consumers must check that their ontology assigns the same indices, see
+ * {@link #matches(TermIndex)}.
+ * <p>
+ * File layout (version 1), all numbers little-endian:
+ * <pre>
+ * 8 bytes              magic "BOQALAYR"
+ * int                  format version
+ * int T                number of terms
+ * int P                number of Phenotypic Abnormality terms, which come first
+ * int N                number of diseases
+ * T strings            term CURIEs, in index order
+ * N strings            disease IDs, ascending
+ * N strings            disease labels
+ * padding              to a multiple of 4 bytes
+ * int[N + 1]           layer offsets
+ * int[offsets[N]]      term indices of the layers, ascending within each layer
+ * </pre>
+ * Strings are stored as their UTF-8 length in bytes (an int, {@code -1} for {@code null}), followed by the bytes.
+ * The terms of the layer of disease {@code d} are {@code termAt(k)} for {@code layerStart(d) <= k < layerEnd(d)}.
+ */
+public final class DiseaseLayerStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiseaseLayerStore.class);
+    private static final byte[] MAGIC = "BOQALAYR".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path path;
+    private final long sizeInBytes;
+    private final List<TermId> terms;
+    private final int phenotypicAbnormalityCount;
+    private final DiseaseDictionary diseaseDictionary;
+    // views of the mapped file, only accessed with absolute gets, which are safe to share between threads
+    private final IntBuffer layerOffsets;
+    private final IntBuffer layerTerms;
+
+    private DiseaseLayerStore(Path path, long sizeInBytes, List<TermId> terms, int phenotypicAbnormalityCount,
+                              DiseaseDictionary diseaseDictionary, IntBuffer layerOffsets, IntBuffer layerTerms) {
+        this.path = path;
+        this.sizeInBytes = sizeInBytes;
+        this.terms = terms;
+        this.phenotypicAbnormalityCount = phenotypicAbnormalityCount;
+        this.diseaseDictionary = diseaseDictionary;
+        this.layerOffsets = layerOffsets;
+        this.layerTerms = layerTerms;
+    }
+
+    /**
+     * Initializes the layers of all diseases and writes them to {@code path}. As in
+     * {@link org.p2gx.boqa.core.algorithm.BoqaSetCounter}, only descendants of the "Phenotypic Abnormality" term are
+     * considered for the disease layers.
+     * <p>
+     * The file is written next to {@code path} first and then moved into place atomically, so that processes which
+     * open {@code path} at the same time never see a partially written store.
+     *
+     * @param diseaseData the disease data containing disease IDs, labels, and observed phenotypes
+     * @param hpo         the HPO ontology used to traverse and expand phenotype terms
+     * @param path        the file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(DiseaseData diseaseData, Ontology hpo, Path path) throws IOException {
+        write(DiseaseLayers.of(diseaseData, hpo), path);
+    }
+
+    /**
+     * Writes already initialized disease layers to {@code path}, see {@link #write(DiseaseData, Ontology, Path)}.
+     *
+     * @param diseaseLayers the initialized disease layers
+     * @param path          the file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(DiseaseLayers diseaseLayers, Path path) throws IOException {
+        TermIndex termIndex = diseaseLayers.termIndex();
+        DiseaseDictionary diseaseDictionary = diseaseLayers.diseaseDictionary();
+        LOGGER.info("Writing disease layers for {} diseases to {}", diseaseDictionary.size(), path);
+        int[][] layers = IntStream.range(0, diseaseLayers.size())
+                .mapToObj(diseaseLayers::layer)
+                .toArray(int[][]::new);
+
+        List<byte[]> strings = new ArrayList<>(termIndex.size() + 2 * diseaseDictionary.size());
+        termIndex.terms().forEach(t -> strings.add(utf8(t.getValue())));
+        IntStream.range(0, diseaseDictionary.size()).forEach(d -> strings.add(utf8(diseaseDictionary.id(d))));
+        IntStream.range(0, diseaseDictionary.size()).forEach(d -> strings.add(utf8(diseaseDictionary.label(d))));
+        long stringBytes = strings.stream().mapToLong(s -> Integer.BYTES + (s == null ? 0 : s.length)).sum();
+        long headerBytes = MAGIC.length + 4L * Integer.BYTES + stringBytes;
+        long padding = (Integer.BYTES - headerBytes % Integer.BYTES) % Integer.BYTES;
+        long entries = Arrays.stream(layers).mapToLong(layer -> layer.length).sum();
+        long size = headerBytes + padding + Integer.BYTES * (diseaseDictionary.size() + 1L + entries);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Disease layers too large for a layer store: " + size + " bytes");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putInt(termIndex.size())
+                .putInt(termIndex.phenotypicAbnormalityCount())
+                .putInt(diseaseDictionary.size());
+        for (byte[] s : strings) {
+            if (s == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(s.length).put(s);
+            }
+        }
+        buffer.position((int) (headerBytes + padding));
+        int offset = 0;
+        buffer.putInt(offset);
+        for (int[] layer : layers) {
+            offset += layer.length;
+            buffer.putInt(offset);
+        }
+        for (int[] layer : layers) {
+            for (int t : layer) {
+                buffer.putInt(t);
+            }
+        }
+        buffer.flip();
+
+        Path absolutePath = path.toAbsolutePath();
+        Path tmp = Files.createTempFile(absolutePath.getParent(), absolutePath.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, absolutePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        LOGGER.info("Finished writing {} layer entries ({} bytes) to {}", entries, size, path);
+    }
+
+    /**
+     * Maps a layer store read-only. The mapping stays valid after this method returns and is released once the
+     * store is no longer reachable.
+     *
+     * @param path a file written by {@link #write(DiseaseData, Ontology, Path)}
+     * @return the mapped store
+     * @throws IOException if the file cannot be read or is not a valid layer store
+     */
+    public static DiseaseLayerStore open(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a layer store, file too large: " + path);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buffer = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a layer store: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported layer store version " + version + " in " + path
+                        + ", expected " + FORMAT_VERSION);
+            }
+            int termCount = buffer.getInt();
+            int phenotypicAbnormalityCount = buffer.getInt();
+            int diseaseCount = buffer.getInt();
+            if (termCount < 0 || phenotypicAbnormalityCount < 0 || phenotypicAbnormalityCount > termCount || diseaseCount < 0) {
+                throw new IOException("Corrupt layer store header in " + path);
+            }
+
+            List<TermId> terms = new ArrayList<>(termCount);
+            for (int i = 0; i < termCount; i++) {
+                terms.add(TermId.of(readString(buffer)));
+            }
+            List<String> diseaseIds = new ArrayList<>(diseaseCount);
+            for (int d = 0; d < diseaseCount; d++) {
+                diseaseIds.add(readString(buffer));
+            }
+            Map<String, String> idToLabel = new HashMap<>(diseaseCount * 2);
+            for (int d = 0; d < diseaseCount; d++) {
+                String label = readString(buffer);
+                if (label != null) {
+                    idToLabel.put(diseaseIds.get(d), label);
+                }
+            }
+            DiseaseDictionary diseaseDictionary = DiseaseDictionary.of(diseaseIds, idToLabel);
+            if (!diseaseDictionary.ids().equals(diseaseIds)) {
+                throw new IOException("Disease IDs of layer store are not sorted and unique: " + path);
+            }
+
+            buffer.position((buffer.position() + Integer.BYTES - 1) / Integer.BYTES * Integer.BYTES);
+            IntBuffer layerOffsets = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            if (layerOffsets.limit() < diseaseCount + 1) {
+                throw new IOException("Truncated layer store: " + path);
+            }
+            int entries = layerOffsets.get(diseaseCount);
+            if (layerOffsets.get(0) != 0 || entries != layerOffsets.limit() - diseaseCount - 1) {
+                throw new IOException("Corrupt layer offsets in " + path);
+            }
+            IntBuffer layerTerms = layerOffsets.slice(diseaseCount + 1, entries);
+            layerOffsets = layerOffsets.slice(0, diseaseCount + 1);
+            LOGGER.info("Mapped layer store {} with {} diseases and {} layer entries", path, diseaseCount, entries);
+            return new DiseaseLayerStore(path, mapped.capacity(), List.copyOf(terms), phenotypicAbnormalityCount,
+                    diseaseDictionary, layerOffsets, layerTerms);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt layer store: " + path, e);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return {@code true} if the store was built with the same term indices as {@code termIndex}
+     */
+    public boolean matches(TermIndex termIndex) {
+        return termIndex.phenotypicAbnormalityCount() == phenotypicAbnormalityCount
+                && termIndex.terms().equals(terms);
+    }
+
+    /**
+     * @return the mapped file
+     */
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * @return the size of the mapped file in bytes
+     */
+    public long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * @return all terms the store was built with, in index order
+     */
+    public List<TermId> terms() {
+        return terms;
+    }
+
+    public int phenotypicAbnormalityCount() {
+        return phenotypicAbnormalityCount;
+    }
+
+    /**
+     * @return the diseases of the store; layers are indexed like this dictionary
+     */
+    public DiseaseDictionary diseaseDictionary() {
+        return diseaseDictionary;
+    }
+
+    /**
+     * @return total number of terms in all layers
+     */
+    public int entryCount() {
+        return layerTerms.limit();
+    }
+
+    public int layerStart(int d) {
+        return layerOffsets.get(d);
+    }
+
+    public int layerEnd(int d) {
+        return layerOffsets.get(d + 1);
+    }
+
+    public int layerSize(int d) {
+        return layerOffsets.get(d + 1) - layerOffsets.get(d);
+    }
+
+    /**
+     * @return the term index stored at position {@code k}, see {@link #layerStart(int)}
+     */
+    public int termAt(int k) {
+        return layerTerms.get(k);
+    }
+}
@@ -0,0 +1,315 @@
+package org.p2gx.boqa.core.diseases;
+
+import org.monarchinitiative.phenol.ontology.data.Ontology;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.algorithm.DiseaseLayers;
+import org.p2gx.boqa.core.internal.OntologyTraverser;
+import org.p2gx.boqa.core.internal.TermAdjacency;
+import org.p2gx.boqa.core.internal.TermIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Precompiled knowledge base: everything BOQA derives from the HPO and the disease annotations at startup, in one
+ * versioned binary file.
+ * <p>
+ * Loading the ontology from hp.json and the annotations from phenotype.hpoa, and initializing all disease layers,
+ * dominates the startup of every run. A snapshot written once by {@link #write(Path, DiseaseLayers, Ontology, String, String, Set)}
+ * holds the {@link TermIndex}, the parent adjacency, the ancestor closure, the primary term IDs of alternative term IDs,
+ * and the disease IDs, labels and layers. {@link #load(Path, String, String, Set)} reads it back into
+ * {@link DiseaseLayers}, from which any {@link org.p2gx.boqa.core.Counter} can be constructed, without touching the
+ * ontology or the annotations.
+ * <p>
+ * Every snapshot is stamped with the HPO and HPOA versions and the disease databases it was compiled from.
+ * {@link #load(Path, String, String, Set)} refuses snapshots whose stamp does not match the expected inputs, as
+ * well as snapshots written in another format version.
+ * <p>
+ * File layout (version 1), as written by {@link DataOutputStream}:
+ * <pre>
+ * 8 bytes                magic "BOQASNAP"
+ * int                    format version
+ * UTF                    HPO version, HPOA version, disease databases (comma-separated), creation time
+ * int T, int P           number of terms and of Phenotypic Abnormality terms, which come first
+ * T x UTF                term CURIEs, in index order
+ * int[T + 1], int[]      parent adjacency, as CSR offsets and targets
+ * int[P + 1], int[]      ancestor closure of the Phenotypic Abnormality terms, as CSR offsets and entries
+ * int A, A x (UTF, int)  alternative term IDs and the index of their primary term
+ * int N                  number of diseases
+ * N x (UTF, bool, UTF)   disease ID, whether it has a label, and the label if so
+ * int[N + 1], int[]      disease layers, as CSR offsets and term indices
+ * </pre>
+ */
+public final class KnowledgeBaseSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KnowledgeBaseSnapshot.class);
+    private static final byte[] MAGIC = {'B', 'O', 'Q', 'A', 'S', 'N', 'A', 'P'};
+    private static final int FORMAT_VERSION = 1;
+
+    private final String hpoVersion;
+    private final String hpoaVersion;
+    private final Set<String> diseaseDatabases;
+    private final String created;
+    private final DiseaseLayers diseaseLayers;
+
+    private KnowledgeBaseSnapshot(String hpoVersion, String hpoaVersion, Set<String> diseaseDatabases, String created,
+                                  DiseaseLayers diseaseLayers) {
+        this.hpoVersion = hpoVersion;
+        this.hpoaVersion = hpoaVersion;
+        this.diseaseDatabases = diseaseDatabases;
+        this.created = created;
+        this.diseaseLayers = diseaseLayers;
+    }
+
+    /**
+     * Writes a snapshot. The file is written next to {@code path} first and then moved into place atomically.
+     *
+     * @param path             the file to write, replaced if it exists
+     * @param diseaseLayers    disease layers initialized with a traverser created from {@code hpo}
+     * @param hpo              the HPO ontology, for the primary term IDs of alternative term IDs
+     * @param hpoVersion       the version of the HPO, see {@link org.p2gx.boqa.core.output.JsonResultWriter#readHpVersion(Path)}
+     * @param hpoaVersion      the version of the annotations, see {@link org.p2gx.boqa.core.output.JsonResultWriter#readHpoaVersion(Path)}
+     * @param diseaseDatabases the disease databases the annotations were loaded for
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, DiseaseLayers diseaseLayers, Ontology hpo, String hpoVersion, String hpoaVersion,
+                             Set<String> diseaseDatabases) throws IOException {
+        OntologyTraverser ontologyTraverser = diseaseLayers.ontologyTraverser();
+        TermIndex termIndex = ontologyTraverser.getTermIndex();
+        TermAdjacency parents = ontologyTraverser.getParents();
+        DiseaseDictionary diseaseDictionary = diseaseLayers.diseaseDictionary();
+        Map<TermId, Integer> alternativeTermIds = new LinkedHashMap<>();
+        for (TermId termId : hpo.allTermIds()) {
+            TermId primaryTermId = hpo.getPrimaryTermId(termId);
+            if (primaryTermId != null && !primaryTermId.equals(termId) && termIndex.indexOf(primaryTermId) >= 0) {
+                alternativeTermIds.put(termId, termIndex.indexOf(primaryTermId));
+            }
+        }
+        LOGGER.info("Writing snapshot of {} terms and {} diseases (HPO {}, HPOA {}) to {}",
+                termIndex.size(), diseaseDictionary.size(), hpoVersion, hpoaVersion, path);
+
+        Path absolutePath = path.toAbsolutePath();
+        Path tmp = Files.createTempFile(absolutePath.getParent(), absolutePath.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.write(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(hpoVersion);
+                out.writeUTF(hpoaVersion);
+                out.writeUTF(String.join(",", new TreeSet<>(diseaseDatabases)));
+                out.writeUTF(Instant.now().toString());
+
+                out.writeInt(termIndex.size());
+                out.writeInt(termIndex.phenotypicAbnormalityCount());
+                for (TermId termId : termIndex.terms()) {
+                    out.writeUTF(termId.getValue());
+                }
+                writeInts(out, parents.offsets());
+                writeInts(out, parents.targets());
+                int[][] closure = new int[termIndex.phenotypicAbnormalityCount()][];
+                Arrays.setAll(closure, ontologyTraverser::ancestorClosure);
+                writeRows(out, closure);
+
+                out.writeInt(alternativeTermIds.size());
+                for (Map.Entry<TermId, Integer> entry : alternativeTermIds.entrySet()) {
+                    out.writeUTF(entry.getKey().getValue());
+                    out.writeInt(entry.getValue());
+                }
+
+                out.writeInt(diseaseDictionary.size());
+                for (int d = 0; d < diseaseDictionary.size(); d++) {
+                    out.writeUTF(diseaseDictionary.id(d));
+                    String label = diseaseDictionary.label(d);
+                    out.writeBoolean(label != null);
+                    if (label != null) {
+                        out.writeUTF(label);
+                    }
+                }
+                int[][] layers = new int[diseaseLayers.size()][];
+                Arrays.setAll(layers, diseaseLayers::layer);
+                writeRows(out, layers);
+            }
+            Files.move(tmp, absolutePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        LOGGER.info("Finished writing snapshot ({} bytes)", Files.size(absolutePath));
+    }
+
+    /**
+     * Reads a snapshot and checks that it was compiled from the expected inputs.
+     *
+     * @param path             a file written by {@link #write(Path, DiseaseLayers, Ontology, String, String, Set)}
+     * @param hpoVersion       the expected HPO version
+     * @param hpoaVersion      the expected HPOA version
+     * @param diseaseDatabases the expected disease databases
+     * @return the snapshot
+     * @throws IOException if the file cannot be read, is not a snapshot, or is stale
+     */
+    public static KnowledgeBaseSnapshot load(Path path, String hpoVersion, String hpoaVersion, Set<String> diseaseDatabases) throws IOException {
+        KnowledgeBaseSnapshot snapshot = read(path);
+        if (!snapshot.hpoVersion.equals(hpoVersion) || !snapshot.hpoaVersion.equals(hpoaVersion)
+                || !snapshot.diseaseDatabases.equals(new TreeSet<>(diseaseDatabases))) {
+            throw new IOException(String.format("Stale snapshot %s: compiled from HPO %s, HPOA %s, databases %s, " +
+                            "but HPO %s, HPOA %s, databases %s are in use. Run compile again.", path,
+                    snapshot.hpoVersion, snapshot.hpoaVersion, snapshot.diseaseDatabases,
+                    hpoVersion, hpoaVersion, new TreeSet<>(diseaseDatabases)));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads a snapshot without checking its versions, see {@link #load(Path, String, String, Set)}.
+     *
+     * @param path a file written by {@link #write(Path, DiseaseLayers, Ontology, String, String, Set)}
+     * @return the snapshot
+     * @throws IOException if the file cannot be read or is not a snapshot of the current format version
+     */
+    public static KnowledgeBaseSnapshot read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a BOQA snapshot: " + path);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + path
+                        + ", expected " + FORMAT_VERSION + ". Run compile again.");
+            }
+            String hpoVersion = in.readUTF();
+            String hpoaVersion = in.readUTF();
+            String databases = in.readUTF();
+            Set<String> diseaseDatabases = databases.isEmpty() ? Set.of() : new TreeSet<>(Arrays.asList(databases.split(",")));
+            String created = in.readUTF();
+
+            int termCount = in.readInt();
+            int phenotypicAbnormalityCount = in.readInt();
+            List<TermId> terms = new ArrayList<>(termCount);
+            for (int i = 0; i < termCount; i++) {
+                terms.add(TermId.of(in.readUTF()));
+            }
+            TermIndex termIndex = TermIndex.of(terms, phenotypicAbnormalityCount);
+            int[] parentOffsets = readInts(in, termCount + 1);
+            TermAdjacency parents = TermAdjacency.of(parentOffsets, readInts(in, parentOffsets[termCount]));
+            int[][] closure = readRows(in, phenotypicAbnormalityCount);
+
+            int alternativeCount = in.readInt();
+            Map<TermId, TermId> primaryTermIds = new HashMap<>(alternativeCount * 2);
+            for (int i = 0; i < alternativeCount; i++) {
+                TermId alternative = TermId.of(in.readUTF());
+                primaryTermIds.put(alternative, termIndex.termAt(in.readInt()));
+            }
+            OntologyTraverser ontologyTraverser = new OntologyTraverser(termIndex, parents, closure, primaryTermIds);
+
+            int diseaseCount = in.readInt();
+            List<String> diseaseIds = new ArrayList<>(diseaseCount);
+            Map<String, String> idToLabel = new HashMap<>(diseaseCount * 2);
+            for (int d = 0; d < diseaseCount; d++) {
+                String diseaseId = in.readUTF();
+                diseaseIds.add(diseaseId);
+                if (in.readBoolean()) {
+                    idToLabel.put(diseaseId, in.readUTF());
+                }
+            }
+            DiseaseDictionary diseaseDictionary = DiseaseDictionary.of(diseaseIds, idToLabel);
+            if (!diseaseDictionary.ids().equals(diseaseIds)) {
+                throw new IOException("Disease IDs of snapshot are not sorted and unique: " + path);
+            }
+            DiseaseLayers diseaseLayers = DiseaseLayers.of(ontologyTraverser, diseaseDictionary, readRows(in, diseaseCount));
+            LOGGER.info("Read snapshot {} of {} terms and {} diseases (HPO {}, HPOA {}, created {})",
+                    path, termCount, diseaseCount, hpoVersion, hpoaVersion, created);
+            return new KnowledgeBaseSnapshot(hpoVersion, hpoaVersion, Set.copyOf(diseaseDatabases), created, diseaseLayers);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Corrupt snapshot: " + path, e);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int length) throws IOException {
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    // jagged rows as CSR offsets and entries
+    private static void writeRows(DataOutputStream out, int[][] rows) throws IOException {
+        int offset = 0;
+        out.writeInt(offset);
+        for (int[] row : rows) {
+            offset += row.length;
+            out.writeInt(offset);
+        }
+        for (int[] row : rows) {
+            writeInts(out, row);
+        }
+    }
+
+    private static int[][] readRows(DataInputStream in, int count) throws IOException {
+        int[] offsets = readInts(in, count + 1);
+        int[][] rows = new int[count][];
+        for (int i = 0; i < count; i++) {
+            rows[i] = readInts(in, offsets[i + 1] - offsets[i]);
+        }
+        return rows;
+    }
+
+    public String hpoVersion() {
+        return hpoVersion;
+    }
+
+    public String hpoaVersion() {
+        return hpoaVersion;
+    }
+
+    /**
+     * @return the disease databases the snapshot was compiled for, e.g. {@code [OMIM]}
+     */
+    public Set<String> diseaseDatabases() {
+        return diseaseDatabases;
+    }
+
+    /**
+     * @return the time the snapshot was written, as an ISO-8601 instant
+     */
+    public String created() {
+        return created;
+    }
+
+    /**
+     * @return the disease layers, ready to construct a {@link org.p2gx.boqa.core.Counter}
+     */
+    public DiseaseLayers diseaseLayers() {
+        return diseaseLayers;
+    }
+
+    @Override
+    public String toString() {
+        return "KnowledgeBaseSnapshot{HPO " + hpoVersion + ", HPOA " + hpoaVersion + ", databases " + diseaseDatabases
+                + ", created " + created + ", " + diseaseLayers.size() + " diseases}";
+    }
+}
@@ -0,0 +1,26 @@
+package org.p2gx.boqa.core.internal;
+
+/**
+ * INTERNAL USE ONLY.
+ * Not part of the public API. May change or be removed at any time.
+ * <p>
+ * Counting kernels over plain {@code long[]} bitsets, see {@link Bitsets}. Bits beyond the length of an array are
+ * treated as zero. Obtain the implementation selected for this JVM with {@link BitsetKernels#preferred()}.
+ */
+public interface BitsetKernel {
+
+    /**
+     * @return {@code |a ∩ b|}
+     */
+    int andCount(long[] a, long[] b);
+
+    /**
+     * @return {@code |a \ b|}
+     */
+    int andNotCount(long[] a, long[] b);
+
+    /**
+     * @return short name of the implementation, e.g. for logging
+     */
+    String name();
+}
@@ -0,0 +1,92 @@
+package org.p2gx.boqa.core.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+
+/**
+ * INTERNAL USE ONLY.
+ * Not part of the public API. May change or be removed at any time.
+ * <p>
+ * Selects the {@link BitsetKernel} once per JVM. The SIMD kernel based on the incubating JDK Vector API is used if
+ * the JVM was started with {@code --add-modules jdk.incubator.vector}, unless it is disabled with
+ * {@code -Dboqa.simd=false}. Otherwise, the scalar kernel of {@link Bitsets} is used.
+ */
+public final class BitsetKernels {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BitsetKernels.class);
+
+    /**
+     * System property to disable the SIMD kernel: {@code -Dboqa.simd=false}.
+     */
+    public static final String SIMD_PROPERTY = "boqa.simd";
+
+    private static final BitsetKernel SCALAR = new ScalarBitsetKernel();
+    private static final Optional<BitsetKernel> VECTOR = loadVectorKernel();
+    private static final BitsetKernel PREFERRED = selectPreferred();
+
+    private BitsetKernels() {
+    }
+
+    /**
+     * @return the kernel selected at startup
+     */
+    public static BitsetKernel preferred() {
+        return PREFERRED;
+    }
+
+    /**
+     * @return the scalar kernel, available on every JVM
+     */
+    public static BitsetKernel scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return the SIMD kernel, if the Vector API module is present
+     */
+    public static Optional<BitsetKernel> vector() {
+        return VECTOR;
+    }
+
+    private static Optional<BitsetKernel> loadVectorKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            // loaded reflectively, so that this class does not link against the incubator module
+            return Optional.of((BitsetKernel) Class.forName(BitsetKernels.class.getPackageName() + ".VectorBitsetKernel")
+                    .getDeclaredConstructor()
+                    .newInstance());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOGGER.warn("Could not load the Vector API bitset kernel: {}", e.toString());
+            return Optional.empty();
+        }
+    }
+
+    private static BitsetKernel selectPreferred() {
+        BitsetKernel kernel = SCALAR;
+        if (!"false".equalsIgnoreCase(System.getProperty(SIMD_PROPERTY)) && VECTOR.isPresent()) {
+            kernel = VECTOR.get();
+        }
+        LOGGER.info("Using {} bitset kernel", kernel.name());
+        return kernel;
+    }
+
+    private static final class ScalarBitsetKernel implements BitsetKernel {
+        @Override
+        public int andCount(long[] a, long[] b) {
+            return Bitsets.andCount(a, b);
+        }
+
+        @Override
+        public int andNotCount(long[] a, long[] b) {
+            return Bitsets.andNotCount(a, b);
+        }
+
+        @Override
+        public String name() {
+            return "scalar";
+        }
+    }
+}
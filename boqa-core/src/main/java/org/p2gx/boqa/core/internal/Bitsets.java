@@ -0,0 +1,99 @@
+package org.p2gx.boqa.core.internal;
+
+/**
+ * INTERNAL USE ONLY.
+ * Not part of the public API. May change or be removed at any time.
+ * <p>
+ * Static helpers for plain {@code long[]} bitsets, indexed by {@link TermIndex}.
+ * <p>
+ * Unlike {@link java.util.BitSet}, the arrays are never resized or copied, which keeps the counting loops free of
+ * allocations and bounds the work by the shorter of two operands. Bits beyond the length of an array are
+ * treated as zero.
+ */
+public final class Bitsets {
+
+    private Bitsets() {
+    }
+
+    /**
+     * @return the number of longs needed to hold {@code bits} bits
+     */
+    public static int words(int bits) {
+        return (bits + Long.SIZE - 1) >>> 6;
+    }
+
+    public static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    public static void clear(long[] bits, int index) {
+        bits[index >>> 6] &= ~(1L << index);
+    }
+
+    public static boolean get(long[] bits, int index) {
+        int word = index >>> 6;
+        return word < bits.length && (bits[word] & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns the index of the first set bit at or after {@code from}, or {@code -1} if there is none.
+     * Iterate over all set bits with:
+     * <pre>{@code
+     * for (int i = Bitsets.nextSetBit(bits, 0); i >= 0; i = Bitsets.nextSetBit(bits, i + 1)) { ... }
+     * }</pre>
+     */
+    public static int nextSetBit(long[] bits, int from) {
+        int word = from >>> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long remaining = bits[word] & (-1L << from);
+        while (true) {
+            if (remaining != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(remaining);
+            }
+            if (++word == bits.length) {
+                return -1;
+            }
+            remaining = bits[word];
+        }
+    }
+
+    /**
+     * @return the number of set bits
+     */
+    public static int cardinality(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return {@code |a ∩ b|}
+     */
+    public static int andCount(long[] a, long[] b) {
+        int words = Math.min(a.length, b.length);
+        int count = 0;
+        for (int i = 0; i < words; i++) {
+            count += Long.bitCount(a[i] & b[i]);
+        }
+        return count;
+    }
+
+    /**
+     * @return {@code |a \ b|}
+     */
+    public static int andNotCount(long[] a, long[] b) {
+        int words = Math.min(a.length, b.length);
+        int count = 0;
+        for (int i = 0; i < words; i++) {
+            count += Long.bitCount(a[i] & ~b[i]);
+        }
+        for (int i = words; i < a.length; i++) {
+            count += Long.bitCount(a[i]);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,198 @@
+package org.p2gx.boqa.core.internal;
+
+import java.util.Arrays;
+
+/**
+ * INTERNAL USE ONLY.
+ * Not part of the public API. May change or be removed at any time.
+ * <p>
+ * Immutable, compressed set of {@link TermIndex} indices in the style of Roaring bitmaps: the indices are split into
+ * chunks of {@value #CHUNK_SIZE} by their high 16 bits, and each non-empty chunk is stored in the smaller of two
+ * containers:
+ * <ul>
+ *     <li>an <i>array</i> container, the sorted low 16 bits as a {@code char[]} (2 bytes per term), or</li>
+ *     <li>a <i>bitmap</i> container, a {@code long[]} spanning the chunk up to the highest index it contains.</li>
+ * </ul>
+ * Disease layers are sparse, typically a few dozen to a few hundred terms out of tens of thousands, so nearly all of
+ * them end up in a single array container. Intersections are counted against plain bitsets of the query, see
+ * {@link Bitsets}.
+ */
+public final class CompressedLayer {
+
+    static final int CHUNK_SIZE = 1 << 16;
+
+    private static final CompressedLayer EMPTY = new CompressedLayer(new int[0], new Object[0], 0);
+
+    // chunkBases[c]: first index covered by container c, ascending
+    private final int[] chunkBases;
+    // containers[c]: char[] (array container) or long[] (bitmap container)
+    private final Object[] containers;
+    private final int cardinality;
+
+    private CompressedLayer(int[] chunkBases, Object[] containers, int cardinality) {
+        this.chunkBases = chunkBases;
+        this.containers = containers;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * Compresses a set of non-negative indices.
+     *
+     * @param indices term indices in any order, duplicates are ignored
+     */
+    public static CompressedLayer of(int[] indices) {
+        int[] sorted = Arrays.stream(indices).sorted().distinct().toArray();
+        if (sorted.length == 0) {
+            return EMPTY;
+        }
+        if (sorted[0] < 0) {
+            throw new IllegalArgumentException("Negative term index " + sorted[0]);
+        }
+        int chunks = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] >>> 16 != sorted[i - 1] >>> 16) {
+                chunks++;
+            }
+        }
+        int[] chunkBases = new int[chunks];
+        Object[] containers = new Object[chunks];
+        int start = 0;
+        for (int c = 0; c < chunks; c++) {
+            int high = sorted[start] >>> 16;
+            int end = start;
+            while (end < sorted.length && sorted[end] >>> 16 == high) {
+                end++;
+            }
+            chunkBases[c] = high << 16;
+            containers[c] = container(sorted, start, end, chunkBases[c]);
+            start = end;
+        }
+        return new CompressedLayer(chunkBases, containers, sorted.length);
+    }
+
+    private static Object container(int[] sorted, int start, int end, int base) {
+        int count = end - start;
+        int bitmapWords = Bitsets.words(sorted[end - 1] - base + 1);
+        if ((long) count * Character.BYTES <= (long) bitmapWords * Long.BYTES) {
+            char[] values = new char[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = (char) (sorted[start + i] - base);
+            }
+            return values;
+        }
+        long[] bitmap = new long[bitmapWords];
+        for (int i = start; i < end; i++) {
+            Bitsets.set(bitmap, sorted[i] - base);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return number of indices in this layer
+     */
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean contains(int index) {
+        int c = Arrays.binarySearch(chunkBases, index & ~(CHUNK_SIZE - 1));
+        if (c < 0) {
+            return false;
+        }
+        int low = index & (CHUNK_SIZE - 1);
+        return switch (containers[c]) {
+            case char[] values -> Arrays.binarySearch(values, (char) low) >= 0;
+            case long[] bitmap -> Bitsets.get(bitmap, low);
+            default -> throw new IllegalStateException();
+        };
+    }
+
+    /**
+     * @return {@code |this ∩ bits|}
+     */
+    public int andCount(long[] bits) {
+        int count = 0;
+        for (int c = 0; c < containers.length; c++) {
+            int base = chunkBases[c];
+            switch (containers[c]) {
+                case char[] values -> {
+                    for (char value : values) {
+                        if (Bitsets.get(bits, base + value)) {
+                            count++;
+                        }
+                    }
+                }
+                case long[] bitmap -> {
+                    int offset = base >>> 6;
+                    int words = Math.min(bitmap.length, bits.length - offset);
+                    for (int i = 0; i < words; i++) {
+                        count += Long.bitCount(bitmap[i] & bits[offset + i]);
+                    }
+                }
+                default -> throw new IllegalStateException();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the indices of this layer, ascending
+     */
+    public int[] toArray() {
+        int[] indices = new int[cardinality];
+        int i = 0;
+        for (int c = 0; c < containers.length; c++) {
+            int base = chunkBases[c];
+            switch (containers[c]) {
+                case char[] values -> {
+                    for (char value : values) {
+                        indices[i++] = base + value;
+                    }
+                }
+                case long[] bitmap -> {
+                    for (int b = Bitsets.nextSetBit(bitmap, 0); b >= 0; b = Bitsets.nextSetBit(bitmap, b + 1)) {
+                        indices[i++] = base + b;
+                    }
+                }
+                default -> throw new IllegalStateException();
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * @return number of array containers
+     */
+    public int arrayContainerCount() {
+        return (int) Arrays.stream(containers).filter(char[].class::isInstance).count();
+    }
+
+    /**
+     * @return number of bitmap containers
+     */
+    public int bitmapContainerCount() {
+        return containers.length - arrayContainerCount();
+    }
+
+    /**
+     * @return estimated heap size of this layer in bytes, assuming compressed oops
+     */
+    public long sizeInBytes() {
+        long bytes = 24L // object header, two references, cardinality
+                + arrayBytes(chunkBases.length, Integer.BYTES)
+                + arrayBytes(containers.length, 4);
+        for (Object container : containers) {
+            bytes += switch (container) {
+                case char[] values -> arrayBytes(values.length, Character.BYTES);
+                case long[] bitmap -> arrayBytes(bitmap.length, Long.BYTES);
+                default -> throw new IllegalStateException();
+            };
+        }
+        return this == EMPTY ? 0 : bytes;
+    }
+
+    // 16 byte array header, padded to 8 bytes
+    private static long arrayBytes(int length, int elementBytes) {
+        return (16L + (long) length * elementBytes + 7) & ~7L;
+    }
+}
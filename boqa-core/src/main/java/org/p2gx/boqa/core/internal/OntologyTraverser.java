@@ -1,7 +1,5 @@
 package org.p2gx.boqa.core.internal;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
 import org.monarchinitiative.phenol.graph.NodeNotPresentInGraphException;
 import org.monarchinitiative.phenol.graph.OntologyGraph;
 import org.monarchinitiative.phenol.ontology.data.Ontology;
@@ -9,11 +7,14 @@ import org.monarchinitiative.phenol.ontology.data.TermId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * INTERNAL USE ONLY.
@@ -27,19 +28,32 @@ import java.util.stream.Collectors;
  *   with their ancestors ({@link #initLayer(Set)}).</li>
  *   <li>Check whether all parents of a given term are active
  *   ({@link #allParentsActive(TermId, Set)}).</li>
+ *   <li>Compute the frontier of a layer, i.e. the inactive terms whose parents are all active
+ *   ({@link #frontier(Set)}).</li>
  * </ul>
  *
  * <h3>Key behaviors</h3>
  * <ul>
+ *   <li>The ancestor closure of every Phenotypic Abnormality term is precomputed once at construction, in one
+ *   topological sweep over the parent edges, and kept as immutable per-term {@code int} arrays over a
+ *   {@link TermIndex}. {@link #initLayer(Set)} reads from it without locking or eviction; only terms outside
+ *   Phenotypic Abnormality fall back to a graph traversal.
+ *   See {@link #closureMemoryReport()} for the cost of the closure.</li>
+ *   <li>Parent and child edges are held in compressed-sparse-row form ({@link TermAdjacency}), so that
+ *   {@link #allParentsActive(TermId, Set)} and {@link #frontier(Set)} do not allocate per lookup.</li>
  *   <li>If an outdated {@link TermId} is encountered (raising
- *   {@link NodeNotPresentInGraphException}), the primary replacement is resolved
+ *   {@link NodeNotPresentInGraphException}), the primary replacement is resolved by {@link #getPrimaryTermId(TermId)}
  *   via {@link Ontology#getPrimaryTermId(TermId)} and logged (once only, through {@code LOGGED_REPLACEMENTS}).</li>
+ *   <li>A traverser can also be recreated from its precomputed parts, e.g. as read back from a snapshot, with
+ *   {@link #OntologyTraverser(TermIndex, TermAdjacency, int[][], Map)}. It then has no {@link OntologyGraph}:
+ *   terms that are not part of the {@link TermIndex} are ignored, and outdated terms are resolved through the
+ *   given map of alternative to primary term IDs.</li>
  * </ul>
  *
  * <h3>Thread safety</h3>
  * <p>
  * This class is effectively thread-safe for read operations, since the underlying
- * {@link Ontology} and {@link OntologyGraph} are immutable, and replacement logging
+ * {@link Ontology} and {@link OntologyGraph} as well as the precomputed closure are immutable, and replacement logging
  * is guarded by a concurrent set.
  *
  * <h3>Usage example</h3>
@@ -60,9 +74,34 @@ public class OntologyTraverser {
     private static final Set<TermId> LOGGED_REPLACEMENTS = ConcurrentHashMap.newKeySet();
     private static final TermId PHENOTYPIC_ABNORMALITY = TermId.of("HP:0000118");
 
-    private static Ontology hpo = null;
+    // null if recreated from parts
+    private final Ontology hpo;
+    // alternative and obsolete term IDs of a traverser recreated from parts
+    private final Map<TermId, TermId> primaryTermIds;
+    // null if recreated from parts
     private final OntologyGraph<TermId> hpoGraph;
-    private final Cache<TermId, Collection<TermId>> hpoAncestorsCache = Caffeine.newBuilder().maximumSize(500).build();
+    private final TermIndex termIndex;
+    private final int rootIndex;
+    private final TermAdjacency parents;
+    private final TermAdjacency children;
+    // ancestorClosure[i]: sorted indices of the term with index i and all its ancestors except the root,
+    // for all Phenotypic Abnormality terms i < termIndex.phenotypicAbnormalityCount()
+    private final int[][] ancestorClosure;
+
+    /**
+     * Memory used by the precomputed ancestor closure.
+     *
+     * @param terms   number of terms with a precomputed closure
+     * @param entries total number of (term, ancestor) pairs
+     * @param bytes   estimated heap size of the closure arrays, assuming compressed oops
+     */
+    public record ClosureMemoryReport(int terms, long entries, long bytes) {
+        @Override
+        public String toString() {
+            return String.format("%d terms, %d ancestor entries (%.1f per term), ~%.1f MiB",
+                    terms, entries, terms == 0 ? 0. : (double) entries / terms, bytes / (1024. * 1024.));
+        }
+    }
 
     /**
      *
@@ -71,10 +110,168 @@ public class OntologyTraverser {
      * @todo .extractSubgraph(PHENOTYPIC_ABNORMALITY) or .subOntology(PHENOTYPIC_ABNORMALITY) in phenol don't seem to work.
      */
     public OntologyTraverser(Ontology hpo) {
-        OntologyTraverser.hpo = hpo;
-        hpoGraph = OntologyTraverser.hpo.graph();
+        this.hpo = hpo;
+        hpoGraph = hpo.graph();
+        primaryTermIds = Map.of();
+        termIndex = TermIndex.of(hpoGraph);
+        rootIndex = termIndex.indexOf(hpoGraph.root());
+        parents = TermAdjacency.parentsOf(hpoGraph, termIndex);
+        children = parents.transpose();
+        ancestorClosure = computeAncestorClosure();
+        LOGGER.info("Precomputed ancestor closure: {}", closureMemoryReport());
+    }
+
+    /**
+     * Recreates a traverser from the parts of a traverser over the same HPO release, without loading the ontology.
+     * The root is the only term without parents.
+     *
+     * @param termIndex       the term index, see {@link #getTermIndex()}
+     * @param parents         the parent adjacency, see {@link #getParents()}
+     * @param ancestorClosure the ancestor closure of every Phenotypic Abnormality term, see {@link #ancestorClosure(int)};
+     *                        the arrays are not copied
+     * @param primaryTermIds  primary term IDs of alternative and obsolete term IDs, used by
+     *                        {@link #getPrimaryTermId(TermId)}
+     * @throws IllegalArgumentException if the parts do not fit together
+     */
+    public OntologyTraverser(TermIndex termIndex, TermAdjacency parents, int[][] ancestorClosure, Map<TermId, TermId> primaryTermIds) {
+        if (parents.size() != termIndex.size() || ancestorClosure.length != termIndex.phenotypicAbnormalityCount()) {
+            throw new IllegalArgumentException("Adjacency of " + parents.size() + " terms and closure of "
+                    + ancestorClosure.length + " terms do not match index of " + termIndex.size() + " terms");
+        }
+        int[] roots = IntStream.range(0, parents.size()).filter(i -> parents.degree(i) == 0).toArray();
+        if (roots.length != 1) {
+            throw new IllegalArgumentException("Expected exactly one term without parents, found " + roots.length);
+        }
+        this.hpo = null;
+        this.primaryTermIds = Map.copyOf(primaryTermIds);
+        this.hpoGraph = null;
+        this.termIndex = termIndex;
+        this.rootIndex = roots[0];
+        this.parents = parents;
+        this.children = parents.transpose();
+        this.ancestorClosure = ancestorClosure;
+    }
+
+    private int[][] computeAncestorClosure() {
+        return computeAncestorClosure(parents, children, rootIndex, termIndex.phenotypicAbnormalityCount());
     }
 
+    /**
+     * Computes the ancestor closure in one topological sweep over the parent adjacency instead of one graph traversal
+     * per term: the closure of a term is the term itself together with the closures of its parents. Terms are swept
+     * level by level, where every term comes one level after the last of its parents, so that the terms of a level
+     * only depend on closures of earlier levels and are merged in parallel.
+     *
+     * @return the closures of the first {@code count} terms, see {@link #ancestorClosure(int)}
+     * @throws IllegalArgumentException if the parent adjacency is not acyclic
+     */
+    static int[][] computeAncestorClosure(TermAdjacency parents, TermAdjacency children, int rootIndex, int count) {
+        int[][] closure = new int[parents.size()][];
+        int[] pendingParents = new int[parents.size()];
+        // every term enters exactly one level, so two buffers of the term count are swapped between the levels
+        int[] level = new int[parents.size()];
+        int[] nextLevel = new int[parents.size()];
+        int levelSize = 0;
+        for (int i = 0; i < parents.size(); i++) {
+            pendingParents[i] = parents.degree(i);
+            if (pendingParents[i] == 0) {
+                level[levelSize++] = i;
+            }
+        }
+        int swept = 0;
+        while (levelSize > 0) {
+            int[] terms = level;
+            IntStream.range(0, levelSize).parallel()
+                    .forEach(k -> closure[terms[k]] = mergeParentClosures(terms[k], parents, closure, rootIndex));
+            swept += levelSize;
+            int nextSize = 0;
+            for (int j = 0; j < levelSize; j++) {
+                int term = level[j];
+                for (int k = children.start(term); k < children.end(term); k++) {
+                    int child = children.target(k);
+                    if (--pendingParents[child] == 0) {
+                        nextLevel[nextSize++] = child;
+                    }
+                }
+            }
+            level = nextLevel;
+            nextLevel = terms;
+            levelSize = nextSize;
+        }
+        if (swept != parents.size()) {
+            throw new IllegalArgumentException("Parent adjacency has a cycle, swept " + swept + " of " + parents.size() + " terms");
+        }
+        return Arrays.copyOf(closure, count);
+    }
+
+    private static int[] mergeParentClosures(int index, TermAdjacency parents, int[][] closure, int rootIndex) {
+        if (index == rootIndex) {
+            return new int[0];
+        }
+        int length = 1;
+        for (int k = parents.start(index); k < parents.end(index); k++) {
+            length += closure[parents.target(k)].length;
+        }
+        int[] merged = new int[length];
+        int size = 0;
+        merged[size++] = index;
+        for (int k = parents.start(index); k < parents.end(index); k++) {
+            int[] parentClosure = closure[parents.target(k)];
+            System.arraycopy(parentClosure, 0, merged, size, parentClosure.length);
+            size += parentClosure.length;
+        }
+        Arrays.sort(merged);
+        int distinct = 0;
+        for (int k = 0; k < merged.length; k++) {
+            if (k == 0 || merged[k] != merged[k - 1]) {
+                merged[distinct++] = merged[k];
+            }
+        }
+        return distinct == merged.length ? merged : Arrays.copyOf(merged, distinct);
+    }
+
+    /**
+     * @return the dense index of all terms of the graph
+     */
+    public TermIndex getTermIndex() {
+        return termIndex;
+    }
+
+    /**
+     * @return the parent adjacency over the indices of {@link #getTermIndex()}
+     */
+    public TermAdjacency getParents() {
+        return parents;
+    }
+
+    /**
+     * @return the child adjacency over the indices of {@link #getTermIndex()}
+     */
+    public TermAdjacency getChildren() {
+        return children;
+    }
+
+    /**
+     * Reports the size of the precomputed ancestor closure.
+     */
+    public ClosureMemoryReport closureMemoryReport() {
+        long entries = 0;
+        long bytes = arrayBytes(ancestorClosure.length, 4); // outer array of references
+        for (int[] ancestors : ancestorClosure) {
+            entries += ancestors.length;
+            bytes += arrayBytes(ancestors.length, Integer.BYTES);
+        }
+        return new ClosureMemoryReport(ancestorClosure.length, entries, bytes);
+    }
+
+    // 16 byte array header, padded to 8 bytes
+    private static long arrayBytes(int length, int elementBytes) {
+        return (16L + (long) length * elementBytes + 7) & ~7L;
+    }
+
+    /**
+     * @return the HPO graph, or {@code null} if this traverser was recreated from parts
+     */
     public OntologyGraph<TermId> getHpoGraph() {
         return hpoGraph;
     }
@@ -84,8 +281,7 @@ public class OntologyTraverser {
      * In BOQA language, the layer (query layer for patients and hidden layer for diseases) is
      * <i>initialized</i>.
      * <p>
-     * If an outdated HPO TermId is encountered through {@link NodeNotPresentInGraphException}, the method of
-     * the HPO ontology {@link Ontology#getPrimaryTermId(TermId)} is used to retrieve the new one.
+     * If an outdated HPO TermId is encountered, {@link #getPrimaryTermId(TermId)} is used to retrieve the new one.
      * <pre>
      *      Set&lt;TermId&gt; someLayerInitialized = graphTraverser.initLayer(observedHpos);
      * </pre>
@@ -96,33 +292,139 @@ public class OntologyTraverser {
      */
     public Set<TermId> initLayer(Set<TermId> hpoTerms) {
         Set<TermId> initializedLayer = new HashSet<>();
-        hpoTerms.forEach(t -> {
-            // this can be expensive, so use a light cache
-            Collection<TermId> ancestorTermIds = hpoAncestorsCache.get(t,
-                    termId -> hpoGraph.extendWithAncestors(t, true));
-            initializedLayer.addAll(ancestorTermIds);
-        });
-        initializedLayer.remove(hpoGraph.root());
+        for (TermId t : hpoTerms) {
+            int index = indexOf(t);
+            if (index >= 0 && index < ancestorClosure.length) {
+                for (int ancestor : ancestorClosure[index]) {
+                    initializedLayer.add(termIndex.termAt(ancestor));
+                }
+            } else if (index >= 0) {
+                // not a Phenotypic Abnormality, rare enough to walk the parents
+                for (int ancestor : ancestorsOf(index)) {
+                    initializedLayer.add(termIndex.termAt(ancestor));
+                }
+            } else if (hpoGraph != null) {
+                initializedLayer.addAll(hpoGraph.extendWithAncestors(t, true));
+            }
+        }
+        initializedLayer.remove(termIndex.termAt(rootIndex));
         return initializedLayer;
     }
 
     /**
-     * Resolves the given HPO term to its primary term.
+     * Same as {@link #initLayer(Set)}, but sets the bits of the initialized layer in {@code layer} instead of
+     * collecting them into a new set. For Phenotypic Abnormality terms, this only reads the precomputed ancestor
+     * closure and does not allocate.
+     *
+     * @param hpoTerms the set of observed HPO terms to initialize from
+     * @param layer    a cleared bitset spanning all indexed terms, receives the initialized layer
+     * @return the number of terms in the initialized layer
+     */
+    public int initLayer(Set<TermId> hpoTerms, long[] layer) {
+        for (TermId t : hpoTerms) {
+            int index = indexOf(t);
+            if (index >= 0 && index < ancestorClosure.length) {
+                for (int ancestor : ancestorClosure[index]) {
+                    Bitsets.set(layer, ancestor);
+                }
+            } else if (index >= 0) {
+                for (int ancestor : ancestorsOf(index)) {
+                    Bitsets.set(layer, ancestor);
+                }
+            } else if (hpoGraph != null) {
+                for (TermId ancestor : hpoGraph.extendWithAncestors(t, true)) {
+                    int ancestorIndex = termIndex.indexOf(ancestor);
+                    if (ancestorIndex >= 0) {
+                        Bitsets.set(layer, ancestorIndex);
+                    }
+                }
+            }
+        }
+        Bitsets.clear(layer, rootIndex);
+        return Bitsets.cardinality(layer);
+    }
+
+    /**
+     * Walks the parent adjacency from a term outside Phenotypic Abnormality, whose closure is not precomputed.
+     *
+     * @return indices of the term and all its ancestors, including the root
+     */
+    private int[] ancestorsOf(int index) {
+        BitSet visited = new BitSet(termIndex.size());
+        int[] stack = new int[termIndex.size()];
+        int size = 0;
+        visited.set(index);
+        stack[size++] = index;
+        while (size > 0) {
+            int term = stack[--size];
+            for (int k = parents.start(term); k < parents.end(term); k++) {
+                int parent = parents.target(k);
+                if (!visited.get(parent)) {
+                    visited.set(parent);
+                    stack[size++] = parent;
+                }
+            }
+        }
+        return visited.stream().toArray();
+    }
+
+    /**
+     * Returns the precomputed ancestor closure of a Phenotypic Abnormality term.
+     *
+     * @param index the {@link TermIndex} index of a term, {@code < termIndex.phenotypicAbnormalityCount()}
+     * @return sorted indices of the term and all its ancestors except the root; the array must not be modified
+     */
+    public int[] ancestorClosure(int index) {
+        return ancestorClosure[index];
+    }
+
+    /**
+     * Returns the indices of a term and all its ancestors except the root, as added to a layer by
+     * {@link #initLayer(Set, long[])}. For Phenotypic Abnormality terms, this is the precomputed
+     * {@link #ancestorClosure(int)}; for other terms, the parents are walked.
+     *
+     * @param index the {@link TermIndex} index of any term
+     * @return sorted indices of the term and all its ancestors except the root; the array must not be modified
+     */
+    public int[] ancestors(int index) {
+        if (index < ancestorClosure.length) {
+            return ancestorClosure[index];
+        }
+        return Arrays.stream(ancestorsOf(index)).filter(a -> a != rootIndex).toArray();
+    }
+
+    /**
+     * @return the index of {@code t}, or of its primary term if {@code t} is outdated, or {@code -1}
+     */
+    private int indexOf(TermId t) {
+        int index = termIndex.indexOf(t);
+        if (index < 0) {
+            TermId primaryTermId = getPrimaryTermId(t);
+            index = primaryTermId == null ? -1 : termIndex.indexOf(primaryTermId);
+        }
+        return index;
+    }
+
+    /**
+     * Resolves the given HPO term to its primary term in the ontology of this traverser.
      * <p>
      * If the input term is not primary, the replacement is logged once.
      *
      * <p><b>Usage example:</b>
      * <pre>{@code
-     * TermId primary = getPrimaryTermId(term);
+     * TermId primary = traverser.getPrimaryTermId(term);
      * }</pre>
      *
+     * If the traverser was recreated from parts, the term is looked up in the map of primary term IDs it was given,
+     * and returned unchanged if it is not an alternative or obsolete term ID.
+     *
      * @param t the HPO term to resolve
      * @return the primary TermId corresponding to the input term
      */
-    public static TermId getPrimaryTermId(TermId t){
-        TermId primaryTermId = hpo.getPrimaryTermId(t);
+    public TermId getPrimaryTermId(TermId t){
+        TermId primaryTermId = hpo == null ? primaryTermIds.getOrDefault(t, t) : hpo.getPrimaryTermId(t);
         if (primaryTermId == null) {
-            LOGGER.warn("Invalid HPO term {}! Skipping...", primaryTermId);
+            LOGGER.warn("Invalid HPO term {}! Skipping...", t);
         } else {
             if (!t.equals(primaryTermId) && LOGGED_REPLACEMENTS.add(t)) {
                 LOGGER.info("Replacing {} with primary term {}", t, primaryTermId);
@@ -140,12 +442,103 @@ public class OntologyTraverser {
      * @return true if all parents are active, false otherwise.
      */
     public boolean allParentsActive(TermId node, Set<TermId> activeNodes) {
-        Set<TermId> parents = new HashSet<>(hpoGraph.extendWithParents(node, false));
-        if (parents.isEmpty()) {
-            return true; // should only happen for root term
+        int index = termIndex.indexOf(node);
+        if (index < 0) {
+            if (hpoGraph == null) {
+                return false; // parents unknown
+            }
+            Set<TermId> parents = new HashSet<>(hpoGraph.extendWithParents(node, false));
+            parents.removeAll(activeNodes);
+            return parents.isEmpty();
         }
-        parents.removeAll(activeNodes);
-        return parents.isEmpty();
+        // no parents should only happen for root term
+        for (int k = parents.start(index); k < parents.end(index); k++) {
+            if (!activeNodes.contains(termIndex.termAt(parents.target(k)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #allParentsActive(TermId, Set)}, for a term index and a bitset of active term indices.
+     */
+    public boolean allParentsActive(int index, long[] activeNodes) {
+        for (int k = parents.start(index); k < parents.end(index); k++) {
+            if (!Bitsets.get(activeNodes, parents.target(k))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the frontier of an initialized layer: all nodes that are not in {@code layer}, but whose parents are
+     * all in {@code layer}. Every such node is necessarily a child of an active node.
+     * <p>
+     * For a query layer, the frontier depends only on the patient. BOQA's false negatives of a disease are the
+     * frontier nodes that are in the disease layer, its true negatives are the remaining frontier nodes.
+     *
+     * @param layer an initialized layer, see {@link #initLayer(Set)}
+     * @return the frontier of {@code layer}
+     */
+    public Set<TermId> frontier(Set<TermId> layer) {
+        Set<TermId> frontier = new HashSet<>();
+        for (TermId active : layer) {
+            int index = termIndex.indexOf(active);
+            if (index < 0) {
+                if (hpoGraph == null) {
+                    continue;
+                }
+                for (TermId child : hpoGraph.extendWithChildren(active, false)) {
+                    if (!layer.contains(child) && !frontier.contains(child) && allParentsActive(child, layer)) {
+                        frontier.add(child);
+                    }
+                }
+                continue;
+            }
+            for (int k = children.start(index); k < children.end(index); k++) {
+                TermId child = termIndex.termAt(children.target(k));
+                if (!layer.contains(child) && !frontier.contains(child) && allParentsActive(child, layer)) {
+                    frontier.add(child);
+                }
+            }
+        }
+        return frontier;
+    }
+
+    /**
+     * Same as {@link #frontier(Set)}, for a layer given as a bitset over {@link #getTermIndex()}.
+     *
+     * @param layer an initialized layer spanning all indexed terms
+     * @return a new bitset of the same length holding the frontier of {@code layer}
+     */
+    public long[] frontier(long[] layer) {
+        long[] frontier = new long[layer.length];
+        frontier(layer, frontier);
+        return frontier;
+    }
+
+    /**
+     * Same as {@link #frontier(long[])}, writing the frontier into {@code frontier}, e.g. a reused scratch buffer.
+     *
+     * @param layer    an initialized layer spanning all indexed terms
+     * @param frontier a bitset of at least the length of {@code layer}; it is cleared first
+     * @return the number of frontier nodes
+     */
+    public int frontier(long[] layer, long[] frontier) {
+        Arrays.fill(frontier, 0L);
+        int count = 0;
+        for (int active = Bitsets.nextSetBit(layer, 0); active >= 0; active = Bitsets.nextSetBit(layer, active + 1)) {
+            for (int k = children.start(active); k < children.end(active); k++) {
+                int child = children.target(k);
+                if (!Bitsets.get(layer, child) && !Bitsets.get(frontier, child) && allParentsActive(child, layer)) {
+                    Bitsets.set(frontier, child);
+                    count++;
+                }
+            }
+        }
+        return count;
     }
 
     /**
@@ -155,6 +548,15 @@ public class OntologyTraverser {
      * @return
      */
     public Set<TermId> filterPhenotypicAbnormalities(Set<TermId> observedTerms) {
+        if (hpoGraph == null) {
+            int phenotypicAbnormality = termIndex.indexOf(PHENOTYPIC_ABNORMALITY);
+            return observedTerms.stream()
+                    .filter(t -> {
+                        int index = termIndex.indexOf(t);
+                        return index >= 0 && index < termIndex.phenotypicAbnormalityCount() && index != phenotypicAbnormality;
+                    })
+                    .collect(Collectors.toSet());
+        }
         Set<TermId> phenotypicAbnormalities = Set.copyOf(hpoGraph.getDescendantSet(PHENOTYPIC_ABNORMALITY));
         return observedTerms.stream()
                 .filter(phenotypicAbnormalities::contains)
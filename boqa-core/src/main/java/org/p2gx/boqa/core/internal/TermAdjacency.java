@@ -0,0 +1,139 @@
+package org.p2gx.boqa.core.internal;
+
+import org.monarchinitiative.phenol.graph.OntologyGraph;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.util.Arrays;
+
+/**
+ * INTERNAL USE ONLY.
+ * Not part of the public API. May change or be removed at any time.
+ * <p>
+ * Compressed-sparse-row (CSR) adjacency over the indices of a {@link TermIndex}: the neighbours of term {@code i}
+ * are {@code target(k)} for {@code start(i) <= k < end(i)}, sorted ascending. Two flat {@code int} arrays hold all
+ * edges, so lookups neither allocate nor chase pointers:
+ * <pre>{@code
+ * for (int k = parents.start(i); k < parents.end(i); k++) {
+ *     int parent = parents.target(k);
+ *     ...
+ * }
+ * }</pre>
+ */
+public final class TermAdjacency {
+
+    private final int[] offsets;
+    private final int[] targets;
+
+    private TermAdjacency(int[] offsets, int[] targets) {
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Builds the parent (is-a) adjacency of all indexed terms.
+     */
+    public static TermAdjacency parentsOf(OntologyGraph<TermId> hpoGraph, TermIndex termIndex) {
+        int[][] parents = new int[termIndex.size()][];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = hpoGraph.extendWithParents(termIndex.termAt(i), false).stream()
+                    .mapToInt(termIndex::indexOf)
+                    .filter(p -> p >= 0)
+                    .distinct()
+                    .toArray();
+        }
+        return of(parents);
+    }
+
+    /**
+     * Builds an adjacency from per-term neighbour arrays.
+     */
+    public static TermAdjacency of(int[][] neighbours) {
+        int[] offsets = new int[neighbours.length + 1];
+        for (int i = 0; i < neighbours.length; i++) {
+            offsets[i + 1] = offsets[i] + neighbours[i].length;
+        }
+        int[] targets = new int[offsets[neighbours.length]];
+        for (int i = 0; i < neighbours.length; i++) {
+            int[] sorted = neighbours[i].clone();
+            Arrays.sort(sorted);
+            System.arraycopy(sorted, 0, targets, offsets[i], sorted.length);
+        }
+        return new TermAdjacency(offsets, targets);
+    }
+
+    /**
+     * Wraps existing CSR arrays, e.g. as read back from a file. The arrays are not copied.
+     */
+    public static TermAdjacency of(int[] offsets, int[] targets) {
+        if (offsets.length == 0 || offsets[offsets.length - 1] != targets.length) {
+            throw new IllegalArgumentException("Offsets do not match " + targets.length + " targets");
+        }
+        return new TermAdjacency(offsets, targets);
+    }
+
+    /**
+     * @return the adjacency with all edges reversed, e.g. children from parents
+     */
+    public TermAdjacency transpose() {
+        int[] counts = new int[size() + 1];
+        for (int target : targets) {
+            counts[target + 1]++;
+        }
+        for (int i = 0; i < size(); i++) {
+            counts[i + 1] += counts[i];
+        }
+        int[] reversedOffsets = counts.clone();
+        int[] reversedTargets = new int[targets.length];
+        int[] next = Arrays.copyOf(counts, size());
+        for (int source = 0; source < size(); source++) {
+            for (int k = start(source); k < end(source); k++) {
+                reversedTargets[next[targets[k]]++] = source; // sources are visited in ascending order
+            }
+        }
+        return new TermAdjacency(reversedOffsets, reversedTargets);
+    }
+
+    /**
+     * @return number of terms
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return total number of edges
+     */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    public int start(int index) {
+        return offsets[index];
+    }
+
+    public int end(int index) {
+        return offsets[index + 1];
+    }
+
+    public int degree(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    public int target(int k) {
+        return targets[k];
+    }
+
+    /**
+     * @return the underlying offsets array; must not be modified
+     */
+    public int[] offsets() {
+        return offsets;
+    }
+
+    /**
+     * @return the underlying targets array; must not be modified
+     */
+    public int[] targets() {
+        return targets;
+    }
+}
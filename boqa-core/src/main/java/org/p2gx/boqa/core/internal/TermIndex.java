@@ -0,0 +1,142 @@
+package org.p2gx.boqa.core.internal;
+
+import org.monarchinitiative.phenol.graph.OntologyGraph;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * INTERNAL USE ONLY.
+ * Not part of the public API. May change or be removed at any time.
+ * <p>
+ * Dense integer dictionary for the terms of an HPO {@link OntologyGraph}.
+ * <p>
+ * Every term reachable from the root is assigned an index in {@code [0, size())}. Descendants of
+ * <i>Phenotypic Abnormality</i> ({@code HP:0000118}, included) come first, followed by the remaining terms (other
+ * sub-ontologies and the root). Diseases are only annotated with terms of the first block, but their layers and
+ * query layers may still reach into the second one: a few Phenotypic Abnormality terms also have parents in other
+ * sub-ontologies, e.g. HP:0100610 is a child of <i>Pregnancy history</i> (HP:0002686). Bitsets of layers therefore
+ * span all {@link #size()} terms. Within each block the terms are sorted by their CURIE, so that the index is
+ * reproducible for a given HPO release.
+ *
+ * @see Bitsets
+ */
+public final class TermIndex {
+
+    private static final TermId PHENOTYPIC_ABNORMALITY = TermId.of("HP:0000118");
+
+    private final TermId[] terms;
+    private final Map<TermId, Integer> indices;
+    private final int phenotypicAbnormalityCount;
+
+    private TermIndex(List<TermId> terms, int phenotypicAbnormalityCount) {
+        this.terms = terms.toArray(TermId[]::new);
+        this.indices = new HashMap<>(terms.size() * 2);
+        for (int i = 0; i < this.terms.length; i++) {
+            indices.put(this.terms[i], i);
+        }
+        this.phenotypicAbnormalityCount = phenotypicAbnormalityCount;
+    }
+
+    /**
+     * Builds the index for all terms of {@code hpoGraph}.
+     *
+     * @param hpoGraph the HPO graph
+     * @return a new index, Phenotypic Abnormality terms first
+     */
+    public static TermIndex of(OntologyGraph<TermId> hpoGraph) {
+        Set<TermId> phenotypicAbnormalities = new HashSet<>(hpoGraph.getDescendantSet(PHENOTYPIC_ABNORMALITY));
+        phenotypicAbnormalities.add(PHENOTYPIC_ABNORMALITY);
+        Set<TermId> others = new HashSet<>(hpoGraph.getDescendantSet(hpoGraph.root()));
+        others.add(hpoGraph.root());
+        others.removeAll(phenotypicAbnormalities);
+
+        List<TermId> ordered = new ArrayList<>(phenotypicAbnormalities.size() + others.size());
+        ordered.addAll(sorted(phenotypicAbnormalities));
+        ordered.addAll(sorted(others));
+        return new TermIndex(ordered, phenotypicAbnormalities.size());
+    }
+
+    /**
+     * Recreates an index from terms listed in index order, e.g. as read back from a file.
+     *
+     * @param terms                      all terms, in index order
+     * @param phenotypicAbnormalityCount number of leading terms that belong to Phenotypic Abnormality
+     */
+    public static TermIndex of(List<TermId> terms, int phenotypicAbnormalityCount) {
+        if (phenotypicAbnormalityCount < 0 || phenotypicAbnormalityCount > terms.size()) {
+            throw new IllegalArgumentException("Invalid number of Phenotypic Abnormality terms: " + phenotypicAbnormalityCount);
+        }
+        return new TermIndex(terms, phenotypicAbnormalityCount);
+    }
+
+    private static List<TermId> sorted(Collection<TermId> terms) {
+        return terms.stream()
+                .sorted(Comparator.comparing(TermId::getValue))
+                .toList();
+    }
+
+    /**
+     * @return number of indexed terms
+     */
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * @return number of Phenotypic Abnormality terms, which occupy indices {@code [0, phenotypicAbnormalityCount())}
+     */
+    public int phenotypicAbnormalityCount() {
+        return phenotypicAbnormalityCount;
+    }
+
+    /**
+     * @return the index of {@code termId}, or {@code -1} if the term is not part of the graph
+     */
+    public int indexOf(TermId termId) {
+        Integer index = indices.get(termId);
+        return index == null ? -1 : index;
+    }
+
+    public TermId termAt(int index) {
+        return terms[index];
+    }
+
+    /**
+     * @return all terms in index order
+     */
+    public List<TermId> terms() {
+        return List.of(terms);
+    }
+
+    /**
+     * Encodes a set of terms as a bitset spanning {@code words} longs.
+     * Terms that are not indexed are ignored.
+     *
+     * @param termIds the terms to encode
+     * @param words   the length of the returned array
+     * @return a new bitset
+     * @throws IllegalArgumentException if the index of a term does not fit into {@code words}
+     */
+    public long[] toBits(Collection<TermId> termIds, int words) {
+        long[] bits = new long[words];
+        for (TermId termId : termIds) {
+            int index = indexOf(termId);
+            if (index >= words * Long.SIZE) {
+                throw new IllegalArgumentException("Index " + index + " of " + termId.getValue()
+                        + " does not fit into " + words + " words");
+            }
+            if (index >= 0) {
+                Bitsets.set(bits, index);
+            }
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,63 @@
+package org.p2gx.boqa.core.internal;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * INTERNAL USE ONLY.
+ * Not part of the public API. May change or be removed at any time.
+ * <p>
+ * {@link BitsetKernel} on the incubating JDK Vector API: AND/ANDNOT and popcount are computed on as many longs at
+ * once as the preferred vector shape of the CPU holds, e.g. 8 with AVX-512. Per-lane counts are accumulated in a
+ * vector and only reduced once per call. Requires {@code --add-modules jdk.incubator.vector}; instantiated by
+ * {@link BitsetKernels} only if the module is present.
+ */
+final class VectorBitsetKernel implements BitsetKernel {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    @Override
+    public int andCount(long[] a, long[] b) {
+        int words = Math.min(a.length, b.length);
+        int upperBound = SPECIES.loopBound(words);
+        LongVector counts = LongVector.zero(SPECIES);
+        int i = 0;
+        for (; i < upperBound; i += SPECIES.length()) {
+            LongVector va = LongVector.fromArray(SPECIES, a, i);
+            LongVector vb = LongVector.fromArray(SPECIES, b, i);
+            counts = counts.add(va.and(vb).lanewise(VectorOperators.BIT_COUNT));
+        }
+        int count = (int) counts.reduceLanes(VectorOperators.ADD);
+        for (; i < words; i++) {
+            count += Long.bitCount(a[i] & b[i]);
+        }
+        return count;
+    }
+
+    @Override
+    public int andNotCount(long[] a, long[] b) {
+        int words = Math.min(a.length, b.length);
+        int upperBound = SPECIES.loopBound(words);
+        LongVector counts = LongVector.zero(SPECIES);
+        int i = 0;
+        for (; i < upperBound; i += SPECIES.length()) {
+            LongVector va = LongVector.fromArray(SPECIES, a, i);
+            LongVector vb = LongVector.fromArray(SPECIES, b, i);
+            counts = counts.add(va.lanewise(VectorOperators.AND_NOT, vb).lanewise(VectorOperators.BIT_COUNT));
+        }
+        int count = (int) counts.reduceLanes(VectorOperators.ADD);
+        for (; i < words; i++) {
+            count += Long.bitCount(a[i] & ~b[i]);
+        }
+        for (; i < a.length; i++) {
+            count += Long.bitCount(a[i]);
+        }
+        return count;
+    }
+
+    @Override
+    public String name() {
+        return "vector (" + SPECIES.vectorBitSize() + " bit)";
+    }
+}
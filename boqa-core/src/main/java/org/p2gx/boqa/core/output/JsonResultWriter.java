@@ -1,6 +1,9 @@
 package org.p2gx.boqa.core.output;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import org.p2gx.boqa.core.Writer;
@@ -28,8 +31,8 @@ import java.util.regex.Pattern;
  *   <li>The BOQA analysis results.</li>
  * </ul>
  * <p>
- * Version extraction for HPO and HPOA files is handled via {@link #extractHpVersion(String)}
- * and {@link #readHpoaVersion(Path)} (or the InputStream overload for testing).
+ * Version extraction for HPO and HPOA files is handled via {@link #readHpVersion(Path)}, {@link #extractHpVersion(String)}
+ * and {@link #readHpoaVersion(Path)} (or the InputStream overloads for testing).
  *
  * @author
  *   <a href="mailto:leonardo.chimirri@bih-charite.de">Leonardo Chimirri</a>
@@ -49,19 +52,7 @@ public class JsonResultWriter implements Writer {
                              Path outPath) throws IOException {
 
         ObjectMapper mapper = new ObjectMapper();
-        JsonNode root;
-        try (InputStream in = Files.newInputStream(hpoPath)) {
-            root = mapper.readTree(in);
-        }
-
-        String versionUrl = root
-                .path("graphs")
-                .get(0)
-                .path("meta")
-                .path("version")
-                .asText();
-
-        String hpoVersion = extractHpVersion(versionUrl);
+        String hpoVersion = readHpVersion(hpoPath);
         String hpoaVersion = readHpoaVersion(hpoaPath);
         String boqaVersion = JsonResultWriter.class
                 .getPackage()
@@ -97,6 +88,42 @@ public class JsonResultWriter implements Writer {
                 .orElse("unknown");
     }
 
+    /**
+     * Reads the HPO version from the {@code graphs[0].meta.version} IRI of an hp.json file. The file is streamed
+     * rather than parsed into a tree, and reading stops as soon as the version is found, which precedes the nodes
+     * and edges of the graph.
+     *
+     * @return the release date of the HPO, or {@code "unknown"}
+     */
+    public static String readHpVersion(Path hpoPath) throws IOException {
+        try (InputStream in = Files.newInputStream(hpoPath)) {
+            return readHpVersion(in);
+        }
+    }
+
+    // Overload for testing purposes.
+    public static String readHpVersion(InputStream inputStream) throws IOException {
+        try (JsonParser parser = new JsonFactory().createParser(inputStream)) {
+            for (JsonToken token = parser.nextToken(); token != null; token = parser.nextToken()) {
+                if (token == JsonToken.FIELD_NAME && "version".equals(parser.getCurrentName()) && isGraphMeta(parser.getParsingContext())) {
+                    return parser.nextToken() == JsonToken.VALUE_STRING ? extractHpVersion(parser.getText()) : "unknown";
+                }
+            }
+        }
+        return "unknown";
+    }
+
+    // context of the fields of graphs[i].meta
+    private static boolean isGraphMeta(JsonStreamContext context) {
+        JsonStreamContext graph = context.getParent();
+        if (graph == null || !"meta".equals(graph.getCurrentName())) {
+            return false;
+        }
+        JsonStreamContext graphs = graph.getParent();
+        return graphs != null && graphs.inArray()
+                && graphs.getParent() != null && "graphs".equals(graphs.getParent().getCurrentName());
+    }
+
     public static String readHpoaVersion(Path hpoaPath) throws IOException {
         try (BufferedReader reader = Files.newBufferedReader(hpoaPath, StandardCharsets.UTF_8)) {
             return readVersionFromReader(reader);
@@ -3,7 +3,6 @@ package org.p2gx.boqa.core.patient;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.p2gx.boqa.core.PatientData;
 import org.monarchinitiative.phenol.ontology.data.TermId;
-import org.p2gx.boqa.core.internal.OntologyTraverser;
 import org.phenopackets.schema.v2.Phenopacket;
 import org.phenopackets.schema.v2.core.OntologyClass;
 import org.phenopackets.schema.v2.core.PhenotypicFeature;
@@ -12,8 +11,10 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 /**
@@ -22,7 +23,10 @@ import java.util.stream.Collectors;
  * <p>
  * Observed and Excluded phenotypic features,
  * as well as the Phenopacket ID can be queried through {@link #getObservedTerms() getObservedTerms},
- * {@link #getExcludedTerms() getExcludedTerms}, and {@link #getID() getID}.
+ * {@link #getExcludedTerms() getExcludedTerms}, and {@link #getID() getID}. Alternative and obsolete term IDs
+ * are resolved to their primary IDs with the given resolver, usually
+ * {@link org.p2gx.boqa.core.Counter#getPrimaryTermId(TermId) getPrimaryTermId} of the counter the patient is scored
+ * with, and terms it does not know are skipped. Without a resolver the terms are kept as in the phenopacket.
  * <p>
  * {@link #getDiseases()} returns a list of {@link DiseaseDTO} records containing OMIM ID and label.
  * This list can contain no diseases (unknown, unclear), one disease (standard Mendelian disease)
@@ -38,17 +42,21 @@ public class PhenopacketData implements PatientData {
     private final Set<TermId> excludedTerms;
     private final List<DiseaseDTO> diseases;
 
-    record DiseaseDTO(String id, String label) {}
+    /**
+     * A diagnosed disease of the phenopacket, e.g. {@code OMIM:154700} and its label.
+     */
+    public record DiseaseDTO(String id, String label) {}
 
     // Primary constructor
-    public PhenopacketData(Phenopacket phenopacket) {
+    public PhenopacketData(Phenopacket phenopacket, UnaryOperator<TermId> primaryTermIds) {
         this.ppktId = phenopacket.getId();
         this.observedTerms =  phenopacket.getPhenotypicFeaturesList().stream()
                 .filter(Predicate.not(PhenotypicFeature::getExcluded))
                 .map(PhenotypicFeature::getType)
                 .map(OntologyClass::getId)
                 .map(TermId::of)
-                .map(OntologyTraverser::getPrimaryTermId)
+                .map(primaryTermIds)
+                .filter(Objects::nonNull)
                 .collect(Collectors.toSet());
         if (this.observedTerms.isEmpty()) {
             LOGGER.warn("Phenopacket {} has no observed phenotypic features!", phenopacket.getId());
@@ -57,19 +65,29 @@ public class PhenopacketData implements PatientData {
                 .map(PhenotypicFeature::getType)
                 .map(OntologyClass::getId)
                 .map(TermId::of)
-                .map(OntologyTraverser::getPrimaryTermId)
+                .map(primaryTermIds)
+                .filter(Objects::nonNull)
                 .collect(Collectors.toSet());
         this.diseases = phenopacket.getDiseasesList().stream().map(d ->
                 new DiseaseDTO(d.getTerm().getId(), d.getTerm().getLabel())).toList();
     }
 
-    // Convenience constructor (allow from file)
+    // Keeps the terms as in the phenopacket
+    public PhenopacketData(Phenopacket phenopacket) {
+        this(phenopacket, UnaryOperator.identity());
+    }
+
+    // Convenience constructors (allow from file)
+    public PhenopacketData(Path phenopacketFile, UnaryOperator<TermId> primaryTermIds) {
+        this(PhenopacketReader.readPhenopacket(phenopacketFile), primaryTermIds);
+    }
+
     public PhenopacketData(Path phenopacketFile) {
-        this(PhenopacketReader.readPhenopacket(phenopacketFile));
+        this(phenopacketFile, UnaryOperator.identity());
     }
 
     @JsonProperty("diagnosis")
-    List<DiseaseDTO> getDiseases() {
+    public List<DiseaseDTO> getDiseases() {
         return List.copyOf(diseases);
     }
 
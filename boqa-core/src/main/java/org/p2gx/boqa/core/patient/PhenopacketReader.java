@@ -11,6 +11,7 @@ import java.nio.file.*;
 import org.phenopackets.schema.v2.Phenopacket;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.util.JsonFormat;
 import org.json.simple.parser.ParseException;
 
@@ -43,4 +44,22 @@ public class PhenopacketReader {
             throw new PhenolRuntimeException("Phenopacket parsing failure at " + phenopacketFile, e);
         }
     }
+
+    /**
+     * Parses a Phenopacket from a JSON string, e.g. the body of a request.
+     *
+     * @param phenopacketJson the JSON representation of a phenopacket
+     * @return a {@link Phenopacket} object representing the patient data
+     * @throws PhenolRuntimeException if the JSON cannot be parsed as a phenopacket
+     */
+    public static Phenopacket parsePhenopacket(String phenopacketJson) {
+        try {
+            Phenopacket.Builder phenoPacketBuilder = Phenopacket.newBuilder();
+            JsonFormat.parser().merge(phenopacketJson, phenoPacketBuilder);
+            return phenoPacketBuilder.build();
+        } catch (InvalidProtocolBufferException e) {
+            // malformed input of a request, not logged here: the caller reports it to the client
+            throw new PhenolRuntimeException("Phenopacket parsing failure: " + e.getMessage(), e);
+        }
+    }
 }
@@ -4,10 +4,12 @@ import org.monarchinitiative.phenol.ontology.data.TermId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.*;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 /**
- * Class that implements the QueryData interface by parsing comma-separated strings of HPO terms.
+ * Class that implements the QueryData interface by parsing comma-separated strings of HPO terms. Alternative and
+ * obsolete term IDs are resolved with the given resolver, as in {@link PhenopacketData}.
  * <p>
  * @author <a href="mailto:peter.hansen@bih-charite.de">Peter Hansen</a>
  */
@@ -17,17 +19,26 @@ public class QueryDataFromString implements PatientData {
     Set<TermId> observedTerms;
     Set<TermId> excludedTerms;
 
-    public QueryDataFromString(String observedTermListString, String excludedTermListString) {
+    public QueryDataFromString(String observedTermListString, String excludedTermListString,
+                               UnaryOperator<TermId> primaryTermIds) {
         this.observedTerms = Arrays.asList(observedTermListString.split(",")).stream()
                 .filter(t -> t.matches("HP:\\d{7}"))
                 .map(TermId::of)
+                .map(primaryTermIds)
+                .filter(Objects::nonNull)
                 .collect(Collectors.toSet());
         this.excludedTerms = Arrays.asList(excludedTermListString.split(",")).stream()
                 .filter(t -> t.matches("HP:\\d{7}"))
                 .map(TermId::of)
+                .map(primaryTermIds)
+                .filter(Objects::nonNull)
                 .collect(Collectors.toSet());
     }
 
+    public QueryDataFromString(String observedTermListString, String excludedTermListString) {
+        this(observedTermListString, excludedTermListString, UnaryOperator.identity());
+    }
+
     @Override
     public String getID() {
         return "";
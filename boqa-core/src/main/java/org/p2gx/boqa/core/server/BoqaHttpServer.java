@@ -0,0 +1,189 @@
+package org.p2gx.boqa.core.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.monarchinitiative.phenol.base.PhenolRuntimeException;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.algorithm.AlgorithmParameters;
+import org.p2gx.boqa.core.analysis.BoqaAnalysisResult;
+import org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer;
+import org.p2gx.boqa.core.analysis.Normalization;
+import org.p2gx.boqa.core.patient.PhenopacketData;
+import org.p2gx.boqa.core.patient.PhenopacketReader;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Local HTTP/JSON service that scores queries against a {@link Counter} which is built once and shared by all
+ * requests.
+ * <p>
+ * Endpoints:
+ * <ul>
+ *   <li>{@code GET /score?observed=HP:0000478,HP:0000598&excluded=...&limit=10} scores a comma-separated list of
+ *   HPO terms, parsed as {@link QueryDataFromString}.</li>
+ *   <li>{@code POST /score?limit=10} scores the phenopacket in the JSON body, parsed as {@link PhenopacketData}.</li>
+ *   <li>{@code GET /health} reports the number of diseases.</li>
+ * </ul>
+ * Scores are returned as a {@link BoqaAnalysisResult} in JSON, with the same fields as the results written by
+ * {@link org.p2gx.boqa.core.output.JsonResultWriter}. Invalid queries are answered with status 400 and an
+ * {@code error} message.
+ * <p>
+ * Each request is handled on its own virtual thread, which waits for the diseases to be scored on a
+ * {@link ForkJoinPool} of a fixed number of threads. Concurrent requests therefore share the CPUs instead of each
+ * claiming all of them.
+ */
+public final class BoqaHttpServer implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoqaHttpServer.class);
+
+    private final Counter counter;
+    private final AlgorithmParameters params;
+    private final Normalization normalization;
+    private final int defaultLimit;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ForkJoinPool scoringPool;
+    private final ExecutorService requestExecutor;
+    private final HttpServer server;
+
+    private BoqaHttpServer(InetSocketAddress address, Counter counter, AlgorithmParameters params,
+                           Normalization normalization, int defaultLimit, int scoringThreads) throws IOException {
+        this.counter = counter;
+        this.params = params;
+        this.normalization = normalization;
+        this.defaultLimit = defaultLimit;
+        this.scoringPool = new ForkJoinPool(scoringThreads);
+        this.requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(requestExecutor);
+        server.createContext("/score", this::handleScore);
+        server.createContext("/health", this::handleHealth);
+    }
+
+    /**
+     * Starts serving the diseases of {@code counter}.
+     *
+     * @param address        address to bind, port 0 for any free port
+     * @param counter        the counter shared by all requests
+     * @param params         alpha, beta, log(alpha), log(beta) etc.
+     * @param normalization  normalization of the top results
+     * @param defaultLimit   number of results of requests without a {@code limit}
+     * @param scoringThreads number of threads that score diseases
+     * @return the running server, to be closed to stop it
+     * @throws IOException if the address cannot be bound
+     */
+    public static BoqaHttpServer start(InetSocketAddress address, Counter counter, AlgorithmParameters params,
+                                       Normalization normalization, int defaultLimit, int scoringThreads) throws IOException {
+        if (defaultLimit < 0 || scoringThreads < 1) {
+            throw new IllegalArgumentException("Invalid limit " + defaultLimit + " or number of threads " + scoringThreads);
+        }
+        BoqaHttpServer boqaServer = new BoqaHttpServer(address, counter, params, normalization, defaultLimit, scoringThreads);
+        boqaServer.server.start();
+        LOGGER.info("Serving {} diseases on http://{}:{} with {} scoring threads", counter.getDiseaseIds().size(),
+                boqaServer.address().getHostString(), boqaServer.address().getPort(), scoringThreads);
+        return boqaServer;
+    }
+
+    /**
+     * @return the bound address, with the actual port if the server was started on port 0
+     */
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests and shuts down the threads of the server.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        requestExecutor.shutdown();
+        scoringPool.shutdown();
+    }
+
+    private void handleScore(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            int limit = query.containsKey("limit") ? parseLimit(query.get("limit")) : defaultLimit;
+            PatientData patientData;
+            switch (exchange.getRequestMethod()) {
+                case "GET" -> patientData = new QueryDataFromString(
+                        query.getOrDefault("observed", ""), query.getOrDefault("excluded", ""),
+                        counter::getPrimaryTermId);
+                case "POST" -> patientData = new PhenopacketData(PhenopacketReader.parsePhenopacket(
+                        new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)),
+                        counter::getPrimaryTermId);
+                default -> {
+                    exchange.getResponseHeaders().set("Allow", "GET, POST");
+                    sendJson(exchange, 405, Map.of("error", "Method " + exchange.getRequestMethod() + " not allowed"));
+                    return;
+                }
+            }
+            BoqaAnalysisResult result = BoqaPatientAnalyzer.computeBoqaResults(
+                    patientData, counter, limit, params, normalization, scoringPool);
+            sendJson(exchange, 200, result);
+        } catch (IllegalArgumentException | PhenolRuntimeException e) {
+            LOGGER.debug("Invalid query {}: {}", exchange.getRequestURI(), e.getMessage());
+            sendJson(exchange, 400, Map.of("error", String.valueOf(e.getMessage())));
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not score query {}", exchange.getRequestURI(), e);
+            sendJson(exchange, 500, Map.of("error", "Internal error"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try {
+            sendJson(exchange, 200, Map.of("status", "ok", "diseases", counter.getDiseaseIds().size()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static int parseLimit(String value) {
+        int limit = Integer.parseInt(value);
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        }
+        return limit;
+    }
+
+    /**
+     * Decodes the parameters of a query string; of repeated parameters, the last one is kept.
+     */
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,196 @@
+package org.p2gx.boqa.core.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.monarchinitiative.phenol.base.PhenolRuntimeException;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.algorithm.AlgorithmParameters;
+import org.p2gx.boqa.core.analysis.BoqaAnalysisResult;
+import org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer;
+import org.p2gx.boqa.core.analysis.Normalization;
+import org.p2gx.boqa.core.patient.PhenopacketData;
+import org.p2gx.boqa.core.patient.PhenopacketReader;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.UnaryOperator;
+
+/**
+ * Scores a stream of patients, one per line, and writes one JSON result line per patient (NDJSON).
+ * <p>
+ * An input line is either a phenopacket in JSON, if it starts with an opening brace, or a comma-separated list of
+ * observed HPO terms, optionally followed by a tab and a comma-separated list of excluded terms. Blank lines are
+ * skipped.
+ * Each output line holds the 1-based {@code line} number of the input line and either the {@code result}, in the
+ * JSON format of {@link org.p2gx.boqa.core.output.JsonResultWriter}, or an {@code error} message if the line could
+ * not be parsed.
+ * <p>
+ * Each line is scored on its own virtual thread, with the diseases scored on the given {@link Executor}. At most
+ * {@code maxInFlight} lines are read ahead of the output: a line holds its permit until its result is written, so
+ * that with ordered output the results waiting for an earlier line are bounded as well. Results are written in the
+ * order of the input, or as soon as they are ready if the output is unordered.
+ */
+public final class BoqaStreamScorer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoqaStreamScorer.class);
+
+    private final Counter counter;
+    private final AlgorithmParameters params;
+    private final Normalization normalization;
+    private final int resultsLimit;
+    private final Executor scoringExecutor;
+    private final int maxInFlight;
+    private final boolean ordered;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * @param counter         the counter shared by all lines
+     * @param params          alpha, beta, log(alpha), log(beta) etc.
+     * @param normalization   normalization of the top results
+     * @param resultsLimit    maximum number of top-scoring diseases to return per line
+     * @param scoringExecutor runs the partitions of diseases, see
+     *                        {@link BoqaPatientAnalyzer#computeBoqaResults(PatientData, Counter, int, AlgorithmParameters, Normalization, Executor)}
+     * @param maxInFlight     maximum number of lines read but not written yet
+     * @param ordered         whether results are written in the order of the input lines
+     */
+    public BoqaStreamScorer(Counter counter, AlgorithmParameters params, Normalization normalization, int resultsLimit,
+                            Executor scoringExecutor, int maxInFlight, boolean ordered) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.counter = counter;
+        this.params = params;
+        this.normalization = normalization;
+        this.resultsLimit = resultsLimit;
+        this.scoringExecutor = scoringExecutor;
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Scores the lines of {@code in} until its end and writes the result lines to {@code out}, flushing after every
+     * line. Returns once all results are written.
+     *
+     * @return the number of scored lines
+     * @throws IOException if a line cannot be read or written
+     */
+    public long score(BufferedReader in, Writer out) throws IOException, InterruptedException {
+        Output output = new Output(out);
+        long count = 0;
+        try (ExecutorService lines = Executors.newVirtualThreadPerTaskExecutor()) {
+            int lineNumber = 0;
+            for (String line = in.readLine(); line != null && output.error == null; line = in.readLine()) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                output.inFlight.acquire();
+                long sequence = count++;
+                int number = lineNumber;
+                String patientLine = line;
+                lines.execute(() -> output.write(sequence, scoreLine(number, patientLine)));
+            }
+        }
+        if (output.error != null) {
+            throw output.error;
+        }
+        LOGGER.debug("Scored {} lines", count);
+        return count;
+    }
+
+    /**
+     * @return the JSON result line of an input line
+     */
+    private String scoreLine(int lineNumber, String line) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("line", lineNumber);
+        try {
+            PatientData patientData = parsePatient(line, counter::getPrimaryTermId);
+            BoqaAnalysisResult result = BoqaPatientAnalyzer.computeBoqaResults(
+                    patientData, counter, resultsLimit, params, normalization, scoringExecutor);
+            json.put("result", result);
+        } catch (IllegalArgumentException | PhenolRuntimeException e) {
+            LOGGER.debug("Invalid line {}: {}", lineNumber, e.getMessage());
+            json.put("error", String.valueOf(e.getMessage()));
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not score line {}", lineNumber, e);
+            json.put("error", "Internal error");
+        }
+        try {
+            return mapper.writeValueAsString(json);
+        } catch (IOException e) {
+            LOGGER.error("Could not serialize the result of line {}", lineNumber, e);
+            return "{\"line\":" + lineNumber + ",\"error\":\"Internal error\"}";
+        }
+    }
+
+    /**
+     * Parses a phenopacket in JSON, or observed and excluded HPO terms separated by a tab, and resolves the terms to
+     * their primary IDs.
+     */
+    static PatientData parsePatient(String line, UnaryOperator<TermId> primaryTermIds) {
+        if (line.strip().startsWith("{")) {
+            return new PhenopacketData(PhenopacketReader.parsePhenopacket(line), primaryTermIds);
+        }
+        String terms = line.stripTrailing();
+        int tab = terms.indexOf('\t');
+        return tab < 0
+                ? new QueryDataFromString(terms.strip(), "", primaryTermIds)
+                : new QueryDataFromString(terms.substring(0, tab).strip(), terms.substring(tab + 1).strip(),
+                        primaryTermIds);
+    }
+
+    /**
+     * Writes the result lines, in sequence if the output is ordered, and releases a permit per written line.
+     */
+    private final class Output {
+        private final Writer out;
+        private final Semaphore inFlight = new Semaphore(maxInFlight);
+        // results of lines that are ready before an earlier line, by sequence number
+        private final Map<Long, String> pending = new HashMap<>();
+        private long next;
+        private volatile IOException error;
+
+        Output(Writer out) {
+            this.out = out;
+        }
+
+        synchronized void write(long sequence, String json) {
+            if (!ordered) {
+                writeLine(json);
+                return;
+            }
+            pending.put(sequence, json);
+            for (String ready = pending.remove(next); ready != null; ready = pending.remove(next)) {
+                next++;
+                writeLine(ready);
+            }
+        }
+
+        private void writeLine(String json) {
+            try {
+                if (error == null) {
+                    out.write(json);
+                    out.write('\n');
+                    out.flush();
+                }
+            } catch (IOException e) {
+                LOGGER.error("Could not write result line: {}", e.getMessage());
+                error = e;
+            } finally {
+                inFlight.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoqaBitsetCounterTest extends TestBase {
+
+    private static Counter setCounter;
+    private static Counter bitsetCounter;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        setCounter = new BoqaSetCounter(diseaseData, hpo());
+        bitsetCounter = new BoqaBitsetCounter(diseaseData, hpo());
+    }
+
+    /**
+     * Phenylketonuria is annotated with HP:0100610, a Phenotypic Abnormality term whose parent Pregnancy history
+     * (HP:0002686) belongs to another sub-ontology, so its layer reaches past the Phenotypic Abnormality terms.
+     */
+    @Test
+    void testLayerTermsOutsidePhenotypicAbnormality() {
+        PatientData patientData = new QueryDataFromString("HP:0002686", "");
+        BoqaCounts expected = setCounter.computeBoqaCounts("OMIM:261600", patientData);
+        assertTrue(expected.tpBoqaCount() > 0);
+        assertEquals(expected, bitsetCounter.computeBoqaCounts("OMIM:261600", patientData));
+    }
+
+    @Test
+    void testBatchCountsMatchPerDiseaseCounts() {
+        PatientData patientData = new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598", "");
+        List<String> diseaseIds = setCounter.getDiseaseIds().stream().sorted().limit(500).toList();
+        for (Counter counter : List.of(setCounter, bitsetCounter)) {
+            List<BoqaCounts> batch = counter.computeBoqaCounts(patientData, diseaseIds);
+            assertEquals(diseaseIds.size(), batch.size());
+            for (int i = 0; i < diseaseIds.size(); i++) {
+                assertEquals(counter.computeBoqaCounts(diseaseIds.get(i), patientData), batch.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.analysis.BoqaAnalysisResult;
+import org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer;
+import org.p2gx.boqa.core.analysis.BoqaResult;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoqaCohortAnalyzerTest extends TestBase {
+
+    private static final List<String> QUERIES = List.of(
+            "HP:0000478,HP:0000598",
+            "HP:0001166",
+            // Mode of inheritance is not part of any disease layer
+            "HP:0001166,HP:0000006",
+            "HP:0000478,HP:0001166,HP:0000598,HP:0012718",
+            // all diseases tie, in more layers than fit into the top 25
+            "");
+
+    private static BoqaInvertedIndexCounter counter;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        counter = new BoqaInvertedIndexCounter(diseaseData, hpo());
+    }
+
+    @Test
+    void testSameResultsAsAnalyzerPerPatient() {
+        AlgorithmParameters params = AlgorithmParameters.create(0.01, 0.9);
+        // more patients than fit in one tile
+        List<PatientData> patients = IntStream.range(0, 80)
+                .<PatientData>mapToObj(i -> new QueryDataFromString(QUERIES.get(i % QUERIES.size()), ""))
+                .toList();
+        List<BoqaAnalysisResult> results = new BoqaCohortAnalyzer(counter).computeBoqaResults(patients, 25, params);
+        assertEquals(patients.size(), results.size());
+        for (int p = 0; p < patients.size(); p++) {
+            assertSame(patients.get(p), results.get(p).patientData());
+            List<BoqaResult> expected = BoqaPatientAnalyzer.computeBoqaResults(patients.get(p), counter, 25, params).boqaResults();
+            List<BoqaResult> actual = results.get(p).boqaResults();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).counts().diseaseId(), actual.get(i).counts().diseaseId());
+                assertEquals(expected.get(i).boqaScore(), actual.get(i).boqaScore(), 1e-12);
+                assertEquals(counter.computeBoqaCounts(actual.get(i).counts().diseaseId(), patients.get(p)), actual.get(i).counts());
+            }
+        }
+    }
+
+    @Test
+    void testEmptyCohort() {
+        assertTrue(new BoqaCohortAnalyzer(counter).computeBoqaResults(List.of(), 20, AlgorithmParameters.create(0.01, 0.9)).isEmpty());
+    }
+}
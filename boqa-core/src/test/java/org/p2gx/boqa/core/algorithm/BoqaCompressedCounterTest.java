@@ -0,0 +1,35 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoqaCompressedCounterTest extends TestBase {
+
+    private static BoqaCompressedCounter compressedCounter;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        compressedCounter = new BoqaCompressedCounter(diseaseData, hpo());
+    }
+
+    @Test
+    void testMemoryReport() {
+        BoqaCompressedCounter.LayerMemoryReport report = compressedCounter.memoryReport();
+        assertEquals(compressedCounter.getDiseaseIds().size(), report.diseases());
+        assertTrue(report.distinctLayers() <= report.diseases());
+        // diseases with identical layers share them
+        assertTrue(report.bytes() <= compressedCounter.getDiseaseIds().stream()
+                .mapToLong(compressedCounter::bytesUsed)
+                .sum());
+        // array containers take 2 bytes per term, plus headers
+        assertTrue(report.bytes() < 2 * report.terms() + 128L * report.distinctLayers());
+    }
+}
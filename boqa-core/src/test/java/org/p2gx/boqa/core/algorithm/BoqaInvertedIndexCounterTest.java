@@ -0,0 +1,41 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.PreparedQuery;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoqaInvertedIndexCounterTest extends TestBase {
+
+    private static BoqaInvertedIndexCounter invertedIndexCounter;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        invertedIndexCounter = new BoqaInvertedIndexCounter(diseaseData, hpo());
+    }
+
+    @Test
+    void testCountsWithinLayerSize() {
+        PatientData patientData = new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598,HP:0002686", "");
+        PreparedQuery query = invertedIndexCounter.prepareQuery(patientData);
+        for (String diseaseId : invertedIndexCounter.getDiseaseIds()) {
+            BoqaCounts counts = query.computeBoqaCounts(diseaseId);
+            assertTrue(counts.tpBoqaCount() + counts.fnBoqaCount() <= invertedIndexCounter.layerSize(diseaseId));
+        }
+    }
+
+    @Test
+    void testUnknownDiseaseThrows() {
+        PreparedQuery query = invertedIndexCounter.prepareQuery(new QueryDataFromString("HP:0001166", ""));
+        assertThrows(IllegalArgumentException.class, () -> query.computeBoqaCounts("OMIM:0000000"));
+    }
+}
@@ -0,0 +1,47 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+import org.p2gx.boqa.core.diseases.DiseaseLayerStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoqaMappedCounterTest extends TestBase {
+
+    @TempDir
+    static Path tempDir;
+
+    private static DiseaseData diseaseData;
+    private static BoqaMappedCounter mappedCounter;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        Path layers = tempDir.resolve("layers.bin");
+        DiseaseLayerStore.write(diseaseData, hpo(), layers);
+        mappedCounter = new BoqaMappedCounter(DiseaseLayerStore.open(layers), hpo());
+    }
+
+    @Test
+    void testStoreKeepsDiseaseLabels() {
+        for (String diseaseId : diseaseData.getDiseaseIds()) {
+            int d = mappedCounter.getDiseaseDictionary().indexOf(diseaseId);
+            assertEquals(diseaseData.getIdToLabel().get(diseaseId), mappedCounter.getDiseaseDictionary().label(d));
+        }
+    }
+
+    @Test
+    void testRejectsFileThatIsNotALayerStore() throws IOException {
+        Path file = tempDir.resolve("not-a-layer-store.bin");
+        Files.writeString(file, "HP:0000118");
+        assertThrows(IOException.class, () -> DiseaseLayerStore.open(file));
+    }
+}
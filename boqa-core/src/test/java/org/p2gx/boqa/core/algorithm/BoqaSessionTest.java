@@ -0,0 +1,93 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.BoundedPreparedQuery;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer;
+import org.p2gx.boqa.core.analysis.BoqaResult;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoqaSessionTest extends TestBase {
+
+    // includes a Mode of inheritance term, which is not part of any disease layer
+    private static final List<String> TERMS = List.of("HP:0000478", "HP:0001166", "HP:0000598", "HP:0000006", "HP:0012718");
+
+    private static BoqaInvertedIndexCounter counter;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        counter = new BoqaInvertedIndexCounter(diseaseData, hpo());
+    }
+
+    @Test
+    void testSameCountsAsPreparedQueryAfterEachEdit() {
+        BoqaSession session = counter.openSession();
+        for (int i = 0; i < TERMS.size(); i++) {
+            assertTrue(session.addTerm(TermId.of(TERMS.get(i))));
+            assertSameCounts(TERMS.subList(0, i + 1), session);
+        }
+        assertFalse(session.addTerm(TermId.of(TERMS.get(0))));
+        for (int i = 0; i < TERMS.size(); i++) {
+            assertTrue(session.removeTerm(TermId.of(TERMS.get(i))));
+            assertSameCounts(TERMS.subList(i + 1, TERMS.size()), session);
+        }
+        assertFalse(session.removeTerm(TermId.of(TERMS.get(0))));
+        assertEquals(0, session.queryLayerSize());
+        assertEquals(0, session.frontierSize());
+    }
+
+    @Test
+    void testResolvesAlternativeTermIds() {
+        BoqaSession session = counter.openSession();
+        // HP:0001388 is an alternative ID of Joint hypermobility (HP:0001382)
+        assertTrue(session.addTerm(TermId.of("HP:0001388")));
+        assertFalse(session.addTerm(TermId.of("HP:0001382")));
+        assertTrue(session.removeTerm(TermId.of("HP:0001382")));
+        assertTrue(session.observedTerms().isEmpty());
+    }
+
+    /**
+     * The session must rank the same diseases as the analyzer, including the diseases chosen by ID among those tied
+     * at the cut-off in different layers: no disease layer contains a mode of inheritance, so for HP:0000006 all
+     * diseases tie, and the tied layers hold more diseases than the 25 that fit.
+     */
+    @ParameterizedTest(name = "[{index}] {0}")
+    @ValueSource(strings = {"HP:0000478,HP:0001166,HP:0000598,HP:0000006,HP:0012718", "HP:0000478,HP:0000598", "HP:0000006", ""})
+    void testSameRankingAsAnalyzer(String observed) {
+        AlgorithmParameters params = AlgorithmParameters.create(0.01, 0.9);
+        PatientData patientData = new QueryDataFromString(observed, "");
+        BoqaSession session = counter.openSession(patientData);
+        List<BoqaResult> expected = BoqaPatientAnalyzer.computeBoqaResults(patientData, counter, 25, params).boqaResults();
+        List<BoqaResult> actual = session.computeBoqaResults(25, params).boqaResults();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).counts().diseaseId(), actual.get(i).counts().diseaseId());
+            assertEquals(expected.get(i).boqaScore(), actual.get(i).boqaScore(), 1e-12);
+            assertEquals(session.computeBoqaCounts(actual.get(i).counts().diseaseId()), actual.get(i).counts());
+        }
+    }
+
+    private static void assertSameCounts(List<String> terms, BoqaSession session) {
+        BoundedPreparedQuery query = counter.prepareQuery(new QueryDataFromString(String.join(",", terms), ""));
+        assertEquals(terms.stream().map(TermId::of).collect(Collectors.toSet()), session.observedTerms());
+        assertEquals(query.queryLayerSize(), session.queryLayerSize());
+        assertEquals(query.frontierSize(), session.frontierSize());
+        for (String diseaseId : counter.getDiseaseIds()) {
+            assertEquals(query.computeBoqaCounts(diseaseId), session.computeBoqaCounts(diseaseId));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.PreparedQuery;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Guards that counting a prepared query allocates nothing per disease except the returned {@link BoqaCounts}.
+ */
+class CounterAllocationTest extends TestBase {
+
+    // a BoqaCounts record takes 40 bytes with compressed oops, leave some room for other layouts
+    private static final double MAX_BYTES_PER_DISEASE = 64;
+    // enough rounds for C2 to compile the counting loops, which also keeps Vector API kernels off the heap
+    private static final int WARMUP_ROUNDS = 50;
+
+    private static DiseaseLayers diseaseLayers;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        diseaseLayers = DiseaseLayers.of(diseaseData, hpo());
+    }
+
+    private static Stream<Arguments> counters() {
+        return Stream.of(
+                Arguments.of("BoqaBitsetCounter", new BoqaBitsetCounter(diseaseLayers)),
+                Arguments.of("BoqaInvertedIndexCounter", new BoqaInvertedIndexCounter(diseaseLayers))
+        );
+    }
+
+    @ParameterizedTest(name = "[{index}] {0}")
+    @MethodSource("counters")
+    void testSteadyStateCountingOnlyAllocatesResults(String name, Counter counter) {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        // Pregnancy history (HP:0002686) lies outside Phenotypic Abnormality, but in some disease layers
+        PreparedQuery query = counter.prepareQuery(new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598,HP:0002686", ""));
+        List<String> diseaseIds = List.copyOf(counter.getDiseaseIds());
+        long checksum = 0;
+        for (int warmup = 0; warmup < WARMUP_ROUNDS; warmup++) {
+            checksum += countAll(query, diseaseIds);
+        }
+
+        long threadId = Thread.currentThread().threadId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        checksum += countAll(query, diseaseIds);
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(checksum > 0);
+        double bytesPerDisease = (double) allocated / diseaseIds.size();
+        assertTrue(bytesPerDisease <= MAX_BYTES_PER_DISEASE,
+                name + " allocated " + bytesPerDisease + " bytes per disease");
+    }
+
+    private static long countAll(PreparedQuery query, List<String> diseaseIds) {
+        long sum = 0;
+        for (String diseaseId : diseaseIds) {
+            sum += query.computeBoqaCounts(diseaseId).tpBoqaCount();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,100 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvFileSource;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.PreparedQuery;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+import org.p2gx.boqa.core.diseases.DiseaseLayerStore;
+import org.p2gx.boqa.core.patient.PhenopacketData;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that every {@link Counter} produces the same {@link BoqaCounts} as {@link BoqaSetCounter} built from the
+ * ontology, both through {@link Counter#computeBoqaCounts(String, PatientData)} and through a prepared query.
+ * The counters under test are built from one shared {@link DiseaseLayers}, the mapped one through a
+ * {@link DiseaseLayerStore}.
+ */
+class CounterEquivalenceTest extends TestBase {
+
+    @TempDir
+    static Path tempDir;
+
+    private static Counter setCounter;
+    private static final Map<String, Counter> counters = new LinkedHashMap<>();
+
+    @BeforeAll
+    static void setup() throws IOException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        setCounter = new BoqaSetCounter(diseaseData, hpo());
+        DiseaseLayers diseaseLayers = DiseaseLayers.of(diseaseData, hpo());
+        counters.put("BoqaSetCounter", new BoqaSetCounter(diseaseLayers));
+        counters.put("BoqaBitsetCounter", new BoqaBitsetCounter(diseaseLayers));
+        counters.put("BoqaInvertedIndexCounter", new BoqaInvertedIndexCounter(diseaseLayers));
+        counters.put("BoqaCompressedCounter", new BoqaCompressedCounter(diseaseLayers));
+        Path layerStore = tempDir.resolve("layers.bin");
+        DiseaseLayerStore.write(diseaseLayers, layerStore);
+        counters.put("BoqaMappedCounter",
+                new BoqaMappedCounter(DiseaseLayerStore.open(layerStore), diseaseLayers.ontologyTraverser()));
+    }
+
+    @ParameterizedTest(name = "[{index}] {0}")
+    @CsvFileSource(resources = "few_examples_boqa_counts_for_top_ranked_diseases.csv", numLinesToSkip = 2)
+    void testSameCountsForPhenopackets(String jsonFile) throws URISyntaxException, IOException {
+        URL resourceUrl = CounterEquivalenceTest.class
+                .getResource("/org/p2gx/boqa/core/phenopackets/" + jsonFile);
+        if (resourceUrl == null) {
+            throw new IOException("Resource not found: " + jsonFile);
+        }
+        assertSameCounts(new PhenopacketData(Path.of(resourceUrl.toURI())));
+    }
+
+    @ParameterizedTest(name = "[{index}] {0}")
+    @CsvSource(delimiter = ';', value = {
+            "HP:0000478,HP:0000598",
+            "HP:0001166",
+            // Mode of inheritance is not a Phenotypic Abnormality, but still counts as a false positive
+            "HP:0001166,HP:0000006",
+            // Phenotypic Abnormality terms with a parent in another sub-ontology, and those parents:
+            // HP:0100610 -> Pregnancy history (HP:0002686), annotated to Phenylketonuria (OMIM:261600)
+            "HP:0100610",
+            "HP:0002686",
+            // HP:6000777 -> Triggered by (HP:0025204)
+            "HP:6000777,HP:0001166",
+            "HP:0025204",
+            // HP:0041090 -> HP:4000052
+            "HP:0041090",
+            "HP:4000052,HP:0000478"
+    })
+    void testSameCountsForQueryStrings(String observed) {
+        assertSameCounts(new QueryDataFromString(observed, ""));
+    }
+
+    private static void assertSameCounts(PatientData patientData) {
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            assertEquals(setCounter.getDiseaseIds(), counter.getDiseaseIds(), entry.getKey());
+            PreparedQuery query = counter.prepareQuery(patientData);
+            for (String diseaseId : setCounter.getDiseaseIds()) {
+                BoqaCounts expected = setCounter.computeBoqaCounts(diseaseId, patientData);
+                assertEquals(expected, query.computeBoqaCounts(diseaseId), entry.getKey());
+                assertEquals(expected, counter.computeBoqaCounts(diseaseId, patientData), entry.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiseaseLayersTest extends TestBase {
+
+    private static DiseaseLayers diseaseLayers;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        diseaseLayers = DiseaseLayers.of(diseaseData, hpo());
+    }
+
+    @Test
+    void testDiseasesWithIdenticalLayersShareGroup() {
+        Map<List<Integer>, Integer> groups = new HashMap<>();
+        for (int d = 0; d < diseaseLayers.size(); d++) {
+            int[] layer = diseaseLayers.layer(d);
+            assertArrayEquals(diseaseLayers.distinctLayer(diseaseLayers.layerGroup(d)), layer);
+            Integer group = groups.putIfAbsent(Arrays.stream(layer).boxed().toList(), diseaseLayers.layerGroup(d));
+            if (group != null) {
+                assertEquals(group.intValue(), diseaseLayers.layerGroup(d));
+            }
+        }
+        assertEquals(groups.size(), diseaseLayers.distinctLayerCount());
+    }
+
+    @Test
+    void testDedupReport() {
+        DiseaseLayers.LayerDedupReport report = diseaseLayers.dedupReport();
+        assertEquals(diseaseLayers.size(), report.diseases());
+        assertEquals(diseaseLayers.distinctLayerCount(), report.distinctLayers());
+        assertTrue(report.ratio() >= 1.);
+    }
+
+    @Test
+    void testGroupsIdenticalPrecomputedLayers() {
+        int other = IntStream.range(1, diseaseLayers.size())
+                .filter(d -> diseaseLayers.layerGroup(d) != diseaseLayers.layerGroup(0))
+                .findFirst()
+                .orElseThrow();
+        int[][] layers = {diseaseLayers.layer(0).clone(), diseaseLayers.layer(other), diseaseLayers.layer(0).clone()};
+        DiseaseLayers grouped = DiseaseLayers.of(diseaseLayers.ontologyTraverser(),
+                DiseaseDictionary.of(List.of("OMIM:1", "OMIM:2", "OMIM:3"), Map.of()), layers);
+        assertEquals(grouped.layerGroup(0), grouped.layerGroup(2));
+        assertNotEquals(grouped.layerGroup(0), grouped.layerGroup(1));
+        assertSame(grouped.layer(0), grouped.layer(2));
+        assertEquals(new DiseaseLayers.LayerDedupReport(3, 2), grouped.dedupReport());
+    }
+}
@@ -0,0 +1,120 @@
+package org.p2gx.boqa.core.algorithm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer;
+import org.p2gx.boqa.core.analysis.BoqaResult;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParameterSweepTest extends TestBase {
+
+    private static final List<String> QUERIES = List.of(
+            "HP:0000478,HP:0000598",
+            "HP:0001166,HP:0000006",
+            "HP:0000478,HP:0001166,HP:0000598,HP:0012718");
+
+    private static BoqaInvertedIndexCounter counter;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        counter = new BoqaInvertedIndexCounter(diseaseData, hpo());
+    }
+
+    @Test
+    void testSameRanksAsAnalyzer() {
+        AlgorithmParameters params = AlgorithmParameters.create(0.01, 0.9);
+        List<PatientData> patients = QUERIES.stream().<PatientData>map(q -> new QueryDataFromString(q, "")).toList();
+        // diagnose each patient with its last ranked disease, diseases with the same score share their mean rank
+        Map<PatientData, List<String>> diagnoses = new IdentityHashMap<>();
+        double expectedRanks = 0.0;
+        double expectedLogPosteriors = 0.0;
+        for (PatientData patient : patients) {
+            List<BoqaResult> results = BoqaPatientAnalyzer.computeBoqaResults(patient, counter, Integer.MAX_VALUE, params).boqaResults();
+            BoqaResult last = results.get(results.size() - 1);
+            diagnoses.put(patient, List.of(last.counts().diseaseId()));
+            long tied = results.stream()
+                    .filter(r -> r.counts().tpBoqaCount() == last.counts().tpBoqaCount()
+                            && r.counts().fnBoqaCount() == last.counts().fnBoqaCount())
+                    .count();
+            expectedRanks += results.size() - tied + 1 + (tied - 1) / 2.0;
+            expectedLogPosteriors += Math.log(last.boqaScore());
+        }
+        ParameterSweep sweep = ParameterSweep.of(counter, patients, diagnoses::get);
+        ParameterSweep.RankingMetrics metrics = sweep.evaluate(params);
+        assertEquals(patients.size(), metrics.cases());
+        assertEquals(expectedRanks / patients.size(), metrics.meanRank(), 1e-9);
+        assertEquals(expectedLogPosteriors / patients.size(), metrics.meanLogPosterior(), 1e-6);
+        assertEquals(0.0, metrics.top10());
+    }
+
+    @Test
+    void testEvaluatesGridInOrder() {
+        List<PatientData> patients = QUERIES.stream().<PatientData>map(q -> new QueryDataFromString(q, "")).toList();
+        String diseaseId = counter.getDiseaseIds().iterator().next();
+        ParameterSweep sweep = ParameterSweep.of(counter, patients, patient -> List.of(diseaseId));
+        List<AlgorithmParameters> grid = List.of(AlgorithmParameters.create(0.001, 0.5), AlgorithmParameters.create(0.01, 0.9));
+        List<ParameterSweep.RankingMetrics> metrics = sweep.evaluate(grid);
+        for (int i = 0; i < grid.size(); i++) {
+            assertEquals(sweep.evaluate(grid.get(i)), metrics.get(i));
+            assertEquals(grid.get(i).getAlpha(), metrics.get(i).alpha());
+        }
+    }
+
+    @Test
+    void testGradientMatchesFiniteDifferences() {
+        ParameterSweep sweep = topRankedSweep();
+        double logAlpha = Math.log(0.01);
+        double logBeta = Math.log(0.5);
+        double h = 1e-6;
+        double[] gradient = sweep.logLikelihood(logAlpha, logBeta);
+        double dx = (sweep.logLikelihood(logAlpha + h, logBeta)[0] - sweep.logLikelihood(logAlpha - h, logBeta)[0]) / (2 * h);
+        double dy = (sweep.logLikelihood(logAlpha, logBeta + h)[0] - sweep.logLikelihood(logAlpha, logBeta - h)[0]) / (2 * h);
+        assertEquals(dx, gradient[1], 1e-5);
+        assertEquals(dy, gradient[2], 1e-5);
+    }
+
+    @Test
+    void testFitIsLocalMaximum() {
+        ParameterSweep sweep = topRankedSweep();
+        AlgorithmParameters start = AlgorithmParameters.create(5.241914347119568E-05, 0.9);
+        ParameterSweep.FittedParameters fit = sweep.fit(start, 500);
+        assertTrue(fit.converged());
+        double logAlpha = fit.params().getLogAlpha();
+        double logBeta = fit.params().getLogBeta();
+        assertEquals(sweep.logLikelihood(logAlpha, logBeta)[0], fit.meanLogLikelihood(), 1e-9);
+        assertTrue(fit.meanLogLikelihood() >= sweep.logLikelihood(start.getLogAlpha(), start.getLogBeta())[0]);
+        for (double[] d : new double[][]{{0.1, 0}, {-0.1, 0}, {0, -0.1}}) {
+            assertTrue(fit.meanLogLikelihood() >= sweep.logLikelihood(logAlpha + d[0], logBeta + d[1])[0] - 1e-6);
+        }
+    }
+
+    // each patient is diagnosed with its top ranked disease
+    private static ParameterSweep topRankedSweep() {
+        AlgorithmParameters params = AlgorithmParameters.create(0.01, 0.9);
+        List<PatientData> patients = QUERIES.stream().<PatientData>map(q -> new QueryDataFromString(q, "")).toList();
+        return ParameterSweep.of(counter, patients, patient -> List.of(BoqaPatientAnalyzer
+                .computeBoqaResults(patient, counter, 1, params).boqaResults().get(0).counts().diseaseId()));
+    }
+
+    @Test
+    void testSkipsPatientsWithoutKnownDiagnosis() {
+        List<PatientData> patients = QUERIES.stream().<PatientData>map(q -> new QueryDataFromString(q, "")).toList();
+        String diseaseId = counter.getDiseaseIds().iterator().next();
+        ParameterSweep sweep = ParameterSweep.of(counter, patients,
+                patient -> patient == patients.get(0) ? List.of("OMIM:000000") : List.of(diseaseId, "OMIM:000000"));
+        assertEquals(1, sweep.skippedPatients());
+        assertEquals(2, sweep.caseCount());
+    }
+}
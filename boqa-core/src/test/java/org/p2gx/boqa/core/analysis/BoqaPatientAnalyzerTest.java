@@ -2,6 +2,7 @@ package org.p2gx.boqa.core.analysis;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.p2gx.boqa.core.BoundedPreparedQuery;
 import org.p2gx.boqa.core.Counter;
 import org.p2gx.boqa.core.DiseaseData;
 import org.p2gx.boqa.core.PatientData;
@@ -10,22 +11,28 @@ import org.p2gx.boqa.core.algorithm.AlgorithmParameters;
 import org.p2gx.boqa.core.algorithm.BoqaCounts;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvFileSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.p2gx.boqa.core.algorithm.BoqaSetCounter;
 import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
 import org.p2gx.boqa.core.patient.QueryDataFromString;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer.*;
 
 class BoqaPatientAnalyzerTest extends TestBase {
 
+    private static DiseaseData diseaseData;
     private static Counter counter;
 
     @BeforeAll
     static void setup() throws IOException {
-        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
         counter = new BoqaSetCounter(diseaseData, hpo());
     }
 
@@ -118,4 +125,234 @@ class BoqaPatientAnalyzerTest extends TestBase {
             assertEquals(expectedNormProb, actualNormProb, 1e-9);
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Test for {@link BoqaPatientAnalyzer#computeBoqaResults(PatientData, Counter, int, AlgorithmParameters, Normalization)}.
+     * <p>
+     * The bounded top-K search must return diseases with the same raw scores as the exact analysis, rank by rank,
+     * and its normalized probabilities must not exceed the exact ones.
+     * </p>
+     */
+    @ParameterizedTest(name = "[{index}] limit={0}")
+    @ValueSource(ints = {1, 10, 100})
+    void testBoundedTopKMatchesExactRanking(int limit) {
+        PatientData patientData = new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598", "");
+        AlgorithmParameters params = AlgorithmParameters.create(null, null);
+
+        List<BoqaResult> exact = computeBoqaResults(patientData, counter, limit, params, Normalization.EXACT).boqaResults();
+        List<BoqaResult> bounded = computeBoqaResults(patientData, counter, limit, params, Normalization.BOUNDED).boqaResults();
+
+        assertEquals(exact.size(), bounded.size());
+        for (int i = 0; i < exact.size(); i++) {
+            assertEquals(computeUnnormalizedLogProbability(params, exact.get(i).counts()),
+                    computeUnnormalizedLogProbability(params, bounded.get(i).counts()), 1e-9);
+            assertTrue(bounded.get(i).boqaScore() <= exact.get(i).boqaScore() * (1 + 1e-9));
+        }
+    }
+
+    /**
+     * A query made of the annotations of a disease matches its layer perfectly, so the disease scores exactly its
+     * upper bound. The bounded search must not drop it, nor other diseases with the same layer, by rounding.
+     */
+    @ParameterizedTest(name = "[{index}] {0}")
+    @ValueSource(strings = {"OMIM:100070", "OMIM:100200", "OMIM:261600", "OMIM:300000"})
+    void testBoundedTopKKeepsPerfectMatch(String diseaseId) {
+        PatientData patientData = perfectMatch(diseaseId);
+        AlgorithmParameters params = AlgorithmParameters.create(0.01, 0.9);
+        BoundedPreparedQuery query = (BoundedPreparedQuery) counter.prepareQuery(patientData);
+        assertEquals(query.queryLayerSize(), query.computeBoqaCounts(diseaseId).tpBoqaCount());
+        assertTrue(computeUnnormalizedLogProbability(params, query.computeBoqaCounts(diseaseId)) <=
+                computeUnnormalizedLogProbabilityUpperBound(
+                        params, query.queryLayerSize(), query.frontierSize(), query.layerSize(diseaseId)));
+        for (int limit : new int[]{1, 5}) {
+            BoqaAnalysisResult exact = computeBoqaResults(patientData, counter, limit, params, Normalization.EXACT);
+            BoqaAnalysisResult bounded = computeBoqaResults(patientData, counter, limit, params, Normalization.BOUNDED);
+            assertEquals(diseaseIds(exact), diseaseIds(bounded));
+            assertTrue(diseaseIds(bounded).contains(diseaseId) || limit == 1);
+        }
+    }
+
+    private static PatientData perfectMatch(String diseaseId) {
+        return new QueryDataFromString(String.join(",", diseaseData.getObservedDiseaseFeatures(diseaseId)), "");
+    }
+
+    /**
+     * Scoring the diseases in partitions on an {@link Executor}, or all on the calling thread, must give the same
+     * results as the default parallel stream, rank by rank.
+     */
+    @ParameterizedTest(name = "[{index}] limit={0}")
+    @ValueSource(ints = {1, 10, Integer.MAX_VALUE})
+    void testExecutorGivesSameResults(int limit) {
+        PatientData patientData = new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598", "");
+        AlgorithmParameters params = AlgorithmParameters.create(null, null);
+        List<BoqaResult> expected = computeBoqaResults(patientData, counter, limit, params).boqaResults();
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (Executor executor : List.<Executor>of(pool, Runnable::run)) {
+                List<BoqaResult> actual = computeBoqaResults(
+                        patientData, counter, limit, params, Normalization.EXACT, executor).boqaResults();
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).counts().diseaseId(), actual.get(i).counts().diseaseId());
+                    assertEquals(expected.get(i).boqaScore(), actual.get(i).boqaScore(), 1e-12);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * No disease layer contains a mode of inheritance, so all diseases have the same score and the top results are
+     * the diseases with the smallest IDs, however the diseases are partitioned.
+     */
+    @Test
+    void testTiesAreBrokenByDiseaseId() {
+        PatientData patientData = new QueryDataFromString("HP:0000006", "");
+        AlgorithmParameters params = AlgorithmParameters.create(null, null);
+        List<String> expected = counter.getDiseaseIds().stream().sorted().limit(5).toList();
+
+        assertEquals(expected, diseaseIds(computeBoqaResults(patientData, counter, 5, params)));
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertEquals(expected, diseaseIds(computeBoqaResults(patientData, counter, 5, params, Normalization.EXACT, pool)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static List<String> diseaseIds(BoqaAnalysisResult result) {
+        return result.boqaResults().stream().map(r -> r.counts().diseaseId()).toList();
+    }
+
+    @Test
+    void testUpperBoundIsNotExceeded() {
+        PatientData patientData = new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598", "");
+        AlgorithmParameters params = AlgorithmParameters.create(0.01, 0.1);
+        BoundedPreparedQuery query = (BoundedPreparedQuery) counter.prepareQuery(patientData);
+        for (String diseaseId : counter.getDiseaseIds()) {
+            double bound = computeUnnormalizedLogProbabilityUpperBound(
+                    params, query.queryLayerSize(), query.frontierSize(), query.layerSize(diseaseId));
+            assertTrue(computeUnnormalizedLogProbability(params, query.computeBoqaCounts(diseaseId)) <= bound);
+        }
+    }
+
+    /**
+     * The deadline order must visit every disease once, by non-increasing bound and, among equal bounds, by
+     * non-decreasing layer size.
+     */
+    @Test
+    void testDiseaseIdsByUpperBound() {
+        AlgorithmParameters params = AlgorithmParameters.create(null, null);
+        BoundedPreparedQuery query = (BoundedPreparedQuery) counter.prepareQuery(
+                new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598", ""));
+        List<String> diseaseIds = diseaseIdsByUpperBound(query, params);
+        assertEquals(counter.getDiseaseIds(), Set.copyOf(diseaseIds));
+        assertEquals(counter.getDiseaseIds().size(), diseaseIds.size());
+        for (int i = 1; i < diseaseIds.size(); i++) {
+            int previousSize = query.layerSize(diseaseIds.get(i - 1));
+            int size = query.layerSize(diseaseIds.get(i));
+            double previousBound = computeUnnormalizedLogProbabilityUpperBound(
+                    params, query.queryLayerSize(), query.frontierSize(), previousSize);
+            double bound = computeUnnormalizedLogProbabilityUpperBound(
+                    params, query.queryLayerSize(), query.frontierSize(), size);
+            assertTrue(bound <= previousBound);
+            assertTrue(bound < previousBound || size >= previousSize);
+        }
+    }
+
+    /**
+     * The top {@code limit} results must be the first {@code limit} of all results, with the same normalized
+     * scores, and the normalized scores of all diseases must sum up to 1.0.
+     */
+    @ParameterizedTest(name = "[{index}] limit={0}")
+    @ValueSource(ints = {0, 1, 25})
+    void testTopResultsArePrefixOfAllResults(int limit) {
+        PatientData patientData = new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598", "");
+        AlgorithmParameters params = AlgorithmParameters.create(null, null);
+
+        List<BoqaResult> all = computeBoqaResults(patientData, counter, Integer.MAX_VALUE, params).boqaResults();
+        List<BoqaResult> top = computeBoqaResults(patientData, counter, limit, params).boqaResults();
+
+        assertEquals(counter.getDiseaseIds().size(), all.size());
+        assertEquals(1.0, all.stream().mapToDouble(BoqaResult::boqaScore).sum(), 1e-9);
+        assertEquals(limit, top.size());
+        for (int i = 0; i < limit; i++) {
+            assertEquals(all.get(i).boqaScore(), top.get(i).boqaScore(), 1e-12);
+        }
+    }
+
+    /**
+     * Test for {@link BoqaPatientAnalyzer#computeDiagnosisRanks(PatientData, Counter, java.util.Collection,
+     * AlgorithmParameters, Normalization)}: the ranks must match the positions in the full results, with exact and
+     * bounded normalization, and unknown diagnoses are ignored.
+     */
+    @ParameterizedTest(name = "[{index}] position={0}")
+    @ValueSource(ints = {0, 7, 500})
+    void testDiagnosisRanksMatchFullResults(int position) {
+        PatientData patientData = new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598", "");
+        AlgorithmParameters params = AlgorithmParameters.create(null, null);
+        List<BoqaResult> all = computeBoqaResults(patientData, counter, Integer.MAX_VALUE, params).boqaResults();
+        BoqaResult diagnosis = all.get(position);
+        long higher = all.stream().filter(r -> r.boqaScore() > diagnosis.boqaScore()).count();
+        long same = all.stream().filter(r -> r.boqaScore() == diagnosis.boqaScore()).count();
+
+        List<String> diagnosisIds = List.of("OMIM:000000", diagnosis.counts().diseaseId());
+        for (Normalization normalization : Normalization.values()) {
+            List<DiagnosisRank> ranks = computeDiagnosisRanks(patientData, counter, diagnosisIds, params, normalization);
+            assertEquals(1, ranks.size());
+            DiagnosisRank rank = ranks.get(0);
+            assertEquals(diagnosis.counts().diseaseId(), rank.diseaseId());
+            assertEquals(1 + higher, rank.rank());
+            assertEquals(same - 1, rank.ties());
+            assertTrue(rank.boqaScore() <= diagnosis.boqaScore() * (1 + 1e-9));
+        }
+        assertEquals(diagnosis.boqaScore(),
+                computeDiagnosisRanks(patientData, counter, diagnosisIds, params, Normalization.EXACT).get(0).boqaScore(), 1e-12);
+    }
+
+    /**
+     * A perfect-match diagnosis scores exactly the upper bound of the first disease of the bounded pass. It must
+     * still count as one of the diseases with its score, and other perfect matches as ties.
+     */
+    @ParameterizedTest(name = "[{index}] {0}")
+    @ValueSource(strings = {"OMIM:100070", "OMIM:106500", "OMIM:261600"})
+    void testDiagnosisRanksOfPerfectMatch(String diseaseId) {
+        PatientData patientData = perfectMatch(diseaseId);
+        AlgorithmParameters params = AlgorithmParameters.create(0.01, 0.9);
+        DiagnosisRank exact = computeDiagnosisRanks(patientData, counter, List.of(diseaseId), params, Normalization.EXACT).get(0);
+        DiagnosisRank bounded = computeDiagnosisRanks(patientData, counter, List.of(diseaseId), params, Normalization.BOUNDED).get(0);
+        assertTrue(bounded.ties() >= 0);
+        assertEquals(exact.rank(), bounded.rank());
+        assertEquals(exact.ties(), bounded.ties());
+        assertTrue(bounded.boqaScore() <= exact.boqaScore() * (1 + 1e-9));
+    }
+
+    @Test
+    void testDeadlineNotReachedGivesExactResults() {
+        PatientData patientData = new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598", "");
+        AlgorithmParameters params = AlgorithmParameters.create(null, null);
+        List<BoqaResult> exact = computeBoqaResults(patientData, counter, 10, params).boqaResults();
+
+        DeadlineAnalysisResult result = computeBoqaResultsWithin(patientData, counter, 10, params, Normalization.EXACT, Duration.ofMinutes(5));
+        assertFalse(result.partial());
+        assertEquals(1.0, result.evaluatedFraction());
+        List<BoqaResult> actual = result.analysisResult().boqaResults();
+        assertEquals(exact.size(), actual.size());
+        for (int i = 0; i < exact.size(); i++) {
+            assertEquals(exact.get(i).boqaScore(), actual.get(i).boqaScore(), 1e-12);
+        }
+    }
+
+    @Test
+    void testExpiredDeadlineGivesPartialResults() {
+        PatientData patientData = new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598", "");
+        AlgorithmParameters params = AlgorithmParameters.create(null, null);
+
+        DeadlineAnalysisResult result = computeBoqaResultsWithin(patientData, counter, 10, params, Normalization.EXACT, Duration.ZERO);
+        assertTrue(result.partial());
+        assertEquals(0.0, result.evaluatedFraction());
+        assertTrue(result.analysisResult().boqaResults().isEmpty());
+    }
+}
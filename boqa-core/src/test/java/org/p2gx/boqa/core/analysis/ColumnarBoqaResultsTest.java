@@ -0,0 +1,52 @@
+package org.p2gx.boqa.core.analysis;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.p2gx.boqa.core.DiseaseDictionary;
+import org.p2gx.boqa.core.algorithm.BoqaCounts;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarBoqaResultsTest {
+    private static DiseaseDictionary dictionary;
+
+    @BeforeAll
+    static void initAll() {
+        dictionary = DiseaseDictionary.of(
+                List.of("OMIM:200000", "OMIM:100000", "OMIM:300000"),
+                Map.of("OMIM:100000", "first", "OMIM:200000", "second", "OMIM:300000", "third"));
+    }
+
+    @Test
+    void testDictionaryIsSortedById() {
+        assertEquals(List.of("OMIM:100000", "OMIM:200000", "OMIM:300000"), dictionary.ids());
+        assertEquals(1, dictionary.indexOf("OMIM:200000"));
+        assertEquals("second", dictionary.label(1));
+        assertEquals(-1, dictionary.indexOf("OMIM:999999"));
+    }
+
+    @Test
+    void testViewsEqualOriginalResults() {
+        List<BoqaResult> results = List.of(
+                new BoqaResult(new BoqaCounts("OMIM:300000", "third", 1, 2, 3, 4), 0.7),
+                new BoqaResult(new BoqaCounts("OMIM:100000", "first", 5, 6, 7, 8), 0.3));
+
+        ColumnarBoqaResults columnar = ColumnarBoqaResults.of(dictionary, results);
+
+        assertEquals(results, columnar);
+        assertEquals(2, columnar.diseaseIndex(0));
+        assertEquals("OMIM:100000", columnar.diseaseId(1));
+        assertEquals(5, columnar.tpBoqaCount(1));
+        assertEquals(8, columnar.fnBoqaCount(1));
+        assertEquals(0.7, columnar.score(0));
+    }
+
+    @Test
+    void testUnknownDiseaseThrows() {
+        List<BoqaResult> results = List.of(new BoqaResult(new BoqaCounts("ORPHA:1", "unknown", 0, 0, 0, 0), 1.0));
+        assertThrows(IllegalArgumentException.class, () -> ColumnarBoqaResults.of(dictionary, results));
+    }
+}
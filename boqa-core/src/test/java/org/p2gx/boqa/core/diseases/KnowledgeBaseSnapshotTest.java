@@ -0,0 +1,110 @@
+package org.p2gx.boqa.core.diseases;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.algorithm.BoqaBitsetCounter;
+import org.p2gx.boqa.core.algorithm.BoqaSetCounter;
+import org.p2gx.boqa.core.algorithm.DiseaseLayers;
+import org.p2gx.boqa.core.internal.OntologyTraverser;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KnowledgeBaseSnapshotTest extends TestBase {
+
+    private static final String HPO_VERSION = "2025-05-06";
+    private static final String HPOA_VERSION = "2025-05-06";
+
+    @TempDir
+    static Path tempDir;
+
+    private static Path snapshotFile;
+    private static DiseaseLayers diseaseLayers;
+    private static KnowledgeBaseSnapshot snapshot;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        diseaseLayers = DiseaseLayers.of(diseaseData, hpo());
+        snapshotFile = tempDir.resolve("boqa.snapshot");
+        KnowledgeBaseSnapshot.write(snapshotFile, diseaseLayers, hpo(), HPO_VERSION, HPOA_VERSION, Set.of("OMIM"));
+        snapshot = KnowledgeBaseSnapshot.load(snapshotFile, HPO_VERSION, HPOA_VERSION, Set.of("OMIM"));
+    }
+
+    @Test
+    void testRoundTrip() {
+        assertEquals(HPO_VERSION, snapshot.hpoVersion());
+        assertEquals(HPOA_VERSION, snapshot.hpoaVersion());
+        assertEquals(Set.of("OMIM"), snapshot.diseaseDatabases());
+        DiseaseLayers loaded = snapshot.diseaseLayers();
+        assertEquals(diseaseLayers.termIndex().terms(), loaded.termIndex().terms());
+        assertEquals(diseaseLayers.diseaseDictionary().ids(), loaded.diseaseDictionary().ids());
+        assertEquals(diseaseLayers.diseaseIdsByLayerSize(), loaded.diseaseIdsByLayerSize());
+        for (int d = 0; d < loaded.size(); d++) {
+            assertEquals(diseaseLayers.diseaseDictionary().label(d), loaded.diseaseDictionary().label(d));
+            assertArrayEquals(diseaseLayers.layer(d), loaded.layer(d));
+        }
+        OntologyTraverser original = diseaseLayers.ontologyTraverser();
+        for (int i = 0; i < original.getTermIndex().phenotypicAbnormalityCount(); i++) {
+            assertArrayEquals(original.ancestorClosure(i), loaded.ontologyTraverser().ancestorClosure(i));
+        }
+    }
+
+    @ParameterizedTest(name = "[{index}] {0}")
+    @CsvSource(delimiter = ';', value = {
+            "HP:0000478,HP:0000598",
+            "HP:0001166",
+            // Mode of inheritance is not a Phenotypic Abnormality, its ancestors are found through the parents
+            "HP:0001166,HP:0000006",
+            // Pregnancy history is not a Phenotypic Abnormality, but in the layer of Phenylketonuria (OMIM:261600)
+            "HP:0002686",
+            // HP:0001388 is an alternative ID of Joint hypermobility (HP:0001382)
+            "HP:0001388"
+    })
+    void testSameCountsAsFromOntology(String observed) {
+        PatientData patientData = new QueryDataFromString(observed, "");
+        Counter expected = new BoqaSetCounter(diseaseLayers);
+        for (Counter counter : new Counter[]{new BoqaSetCounter(snapshot.diseaseLayers()), new BoqaBitsetCounter(snapshot.diseaseLayers())}) {
+            for (String diseaseId : expected.getDiseaseIds()) {
+                assertEquals(expected.computeBoqaCounts(diseaseId, patientData), counter.computeBoqaCounts(diseaseId, patientData));
+            }
+        }
+    }
+
+    @Test
+    void testResolvesAlternativeTermIdsWithoutOntology() throws IOException {
+        OntologyTraverser loaded = KnowledgeBaseSnapshot.read(snapshotFile).diseaseLayers().ontologyTraverser();
+        // HP:0001388 is an alternative ID of Joint hypermobility (HP:0001382)
+        assertEquals(TermId.of("HP:0001382"), loaded.getPrimaryTermId(TermId.of("HP:0001388")));
+        assertEquals(TermId.of("HP:0001166"), loaded.getPrimaryTermId(TermId.of("HP:0001166")));
+        // reading a snapshot leaves traversers over the ontology alone
+        assertEquals(TermId.of("HP:0001382"), diseaseLayers.ontologyTraverser().getPrimaryTermId(TermId.of("HP:0001388")));
+    }
+
+    @Test
+    void testRefusesStaleSnapshot() {
+        assertThrows(IOException.class, () -> KnowledgeBaseSnapshot.load(snapshotFile, "2025-03-03", HPOA_VERSION, Set.of("OMIM")));
+        assertThrows(IOException.class, () -> KnowledgeBaseSnapshot.load(snapshotFile, HPO_VERSION, "2025-03-03", Set.of("OMIM")));
+        assertThrows(IOException.class, () -> KnowledgeBaseSnapshot.load(snapshotFile, HPO_VERSION, HPOA_VERSION, Set.of("ORPHA")));
+    }
+
+    @Test
+    void testRejectsFileThatIsNotASnapshot() throws IOException {
+        Path file = tempDir.resolve("not-a-snapshot.bin");
+        Files.writeString(file, "HP:0000118");
+        assertThrows(IOException.class, () -> KnowledgeBaseSnapshot.read(file));
+    }
+}
@@ -0,0 +1,47 @@
+package org.p2gx.boqa.core.internal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class BitsetKernelsTest {
+
+    @Test
+    void testPreferredKernelIsAvailable() {
+        assertNotNull(BitsetKernels.preferred());
+        assertEquals("scalar", BitsetKernels.scalar().name());
+    }
+
+    /**
+     * The SIMD kernel must count exactly like the scalar one, including the tails that do not fill a vector and
+     * operands of different lengths.
+     */
+    @ParameterizedTest(name = "[{index}] a={0} words, b={1} words")
+    @CsvSource({
+            "0, 0",
+            "1, 1",
+            "7, 7",
+            "8, 8",
+            "300, 300",
+            "301, 297",
+            "13, 64"
+    })
+    void testVectorKernelMatchesScalarKernel(int aWords, int bWords) {
+        assumeTrue(BitsetKernels.vector().isPresent(), "Vector API module not present");
+        BitsetKernel scalar = BitsetKernels.scalar();
+        BitsetKernel vector = BitsetKernels.vector().get();
+        Random random = new Random(aWords * 31L + bWords);
+        for (int round = 0; round < 20; round++) {
+            long[] a = random.longs(aWords).toArray();
+            long[] b = random.longs(bWords).toArray();
+            assertEquals(scalar.andCount(a, b), vector.andCount(a, b));
+            assertEquals(scalar.andNotCount(a, b), vector.andNotCount(a, b));
+            assertEquals(scalar.andNotCount(b, a), vector.andNotCount(b, a));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.p2gx.boqa.core.internal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedLayerTest {
+
+    @Test
+    void testSparseLayerUsesArrayContainer() {
+        CompressedLayer layer = CompressedLayer.of(new int[]{17, 3, 1000, 3});
+        assertEquals(3, layer.cardinality());
+        assertArrayEquals(new int[]{3, 17, 1000}, layer.toArray());
+        assertEquals(1, layer.arrayContainerCount());
+        assertEquals(0, layer.bitmapContainerCount());
+        assertTrue(layer.contains(17));
+        assertFalse(layer.contains(18));
+    }
+
+    @Test
+    void testDenseLayerUsesBitmapContainer() {
+        int[] indices = new int[200];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = 2 * i;
+        }
+        CompressedLayer layer = CompressedLayer.of(indices);
+        assertEquals(0, layer.arrayContainerCount());
+        assertEquals(1, layer.bitmapContainerCount());
+        assertArrayEquals(indices, layer.toArray());
+    }
+
+    @Test
+    void testEmptyLayer() {
+        CompressedLayer layer = CompressedLayer.of(new int[0]);
+        assertEquals(0, layer.cardinality());
+        assertEquals(0, layer.andCount(new long[]{-1L}));
+        assertEquals(0, layer.sizeInBytes());
+    }
+
+    /**
+     * Intersections with plain bitsets must match {@link Bitsets#andCount(long[], long[])}, across several chunks
+     * and for query bitsets shorter than the layer.
+     */
+    @ParameterizedTest(name = "[{index}] universe={0}, cardinality={1}")
+    @CsvSource({
+            "20000, 100",
+            "20000, 5000",
+            "200000, 300",
+            "200000, 60000"
+    })
+    void testAndCountMatchesBitsets(int universe, int cardinality) {
+        Random random = new Random(universe + cardinality);
+        int[] indices = random.ints(cardinality, 0, universe).toArray();
+        CompressedLayer layer = CompressedLayer.of(indices);
+        long[] bits = new long[Bitsets.words(universe)];
+        for (int index : indices) {
+            Bitsets.set(bits, index);
+        }
+        assertEquals(Bitsets.cardinality(bits), layer.cardinality());
+        for (int round = 0; round < 10; round++) {
+            long[] query = random.longs(Bitsets.words(random.nextInt(universe + 1))).toArray();
+            assertEquals(Bitsets.andCount(bits, query), layer.andCount(query));
+        }
+    }
+}
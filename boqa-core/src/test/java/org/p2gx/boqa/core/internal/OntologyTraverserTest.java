@@ -1,19 +1,24 @@
 package org.p2gx.boqa.core.internal;
 
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.monarchinitiative.phenol.io.OntologyLoader;
 import org.monarchinitiative.phenol.ontology.data.Ontology;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
@@ -69,10 +74,10 @@ public class OntologyTraverserTest {
     void testgetPrimaryTermId(String testName, Set<String> expectedNodes, Set<TermId> observedNodes ) {
         Set<TermId> expectedNodesTermIds = expectedNodes.stream()
                 .map(TermId::of)
-                .map(OntologyTraverser::getPrimaryTermId)
+                .map(ontologyTraverser::getPrimaryTermId)
                 .collect(Collectors.toSet());
         Set<TermId> observedNodesTermIds = observedNodes.stream()
-                .map(OntologyTraverser::getPrimaryTermId)
+                .map(ontologyTraverser::getPrimaryTermId)
                 .collect(Collectors.toSet());
         assertEquals(expectedNodesTermIds, ontologyTraverser.initLayer(observedNodesTermIds));
     }
@@ -115,4 +120,97 @@ public class OntologyTraverserTest {
                         false)
         );
     }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("frontierCases")
+    void testFrontier(String testName, Set<TermId> observedNodes, TermId node, boolean expectation) {
+        Set<TermId> layer = ontologyTraverser.initLayer(observedNodes);
+        Set<TermId> frontier = ontologyTraverser.frontier(layer);
+        assertEquals(expectation, frontier.contains(node));
+        frontier.forEach(t -> {
+            assertFalse(layer.contains(t));
+            assertTrue(ontologyTraverser.allParentsActive(t, layer));
+        });
+    }
+
+    private static Stream<Arguments> frontierCases(){
+        return Stream.of(
+                Arguments.of("Both parents ON",
+                        Set.of(TermId.of("HP:0011024"), TermId.of("HP:0025033")),
+                        TermId.of("HP:0012718"),
+                        true),
+                Arguments.of("One parent ON",
+                        Set.of(TermId.of("HP:0011024")),
+                        TermId.of("HP:0012718"),
+                        false),
+                Arguments.of("Node itself ON",
+                        Set.of(TermId.of("HP:0012718")),
+                        TermId.of("HP:0012718"),
+                        false)
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"HP:0001166", "HP:0012718", "HP:0000118"})
+    void testAncestorClosureMatchesGraph(String term) {
+        TermId termId = TermId.of(term);
+        TermIndex termIndex = ontologyTraverser.getTermIndex();
+        Set<TermId> expected = new HashSet<>(ontologyTraverser.getHpoGraph().extendWithAncestors(termId, true));
+        expected.remove(ontologyTraverser.getHpoGraph().root());
+        Set<TermId> actual = Arrays.stream(ontologyTraverser.ancestorClosure(termIndex.indexOf(termId)))
+                .mapToObj(termIndex::termAt)
+                .collect(Collectors.toSet());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testAncestorClosureMatchesGraphForAllTerms() {
+        TermIndex termIndex = ontologyTraverser.getTermIndex();
+        for (int i = 0; i < termIndex.phenotypicAbnormalityCount(); i++) {
+            Set<TermId> expected = new HashSet<>(ontologyTraverser.getHpoGraph().extendWithAncestors(termIndex.termAt(i), true));
+            expected.remove(ontologyTraverser.getHpoGraph().root());
+            int[] closure = ontologyTraverser.ancestorClosure(i);
+            assertEquals(expected, Arrays.stream(closure).mapToObj(termIndex::termAt).collect(Collectors.toSet()));
+            assertArrayEquals(Arrays.stream(closure).sorted().toArray(), closure);
+        }
+    }
+
+    @Test
+    void testComputeAncestorClosureBySweep() {
+        // 0 is the root, 3 has the parents 1 and 2, which share the parent 0, and 4 is a child of 3 and 1
+        TermAdjacency parents = TermAdjacency.of(new int[][]{{}, {0}, {0}, {1, 2}, {3, 1}});
+        int[][] closure = OntologyTraverser.computeAncestorClosure(parents, parents.transpose(), 0, 5);
+        assertArrayEquals(new int[][]{{}, {1}, {2}, {1, 2, 3}, {1, 2, 3, 4}}, closure);
+
+        TermAdjacency cyclic = TermAdjacency.of(new int[][]{{}, {0, 2}, {1}});
+        assertThrows(IllegalArgumentException.class,
+                () -> OntologyTraverser.computeAncestorClosure(cyclic, cyclic.transpose(), 0, 3));
+    }
+
+    @Test
+    void testClosureMemoryReport() {
+        OntologyTraverser.ClosureMemoryReport report = ontologyTraverser.closureMemoryReport();
+        assertEquals(ontologyTraverser.getTermIndex().phenotypicAbnormalityCount(), report.terms());
+        assertTrue(report.entries() > report.terms());
+        assertTrue(report.bytes() > 4 * report.entries());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"HP:0012718", "HP:0001166", "HP:0000118"})
+    void testAdjacencyMatchesGraph(String term) {
+        TermId termId = TermId.of(term);
+        TermIndex termIndex = ontologyTraverser.getTermIndex();
+        int index = termIndex.indexOf(termId);
+        assertEquals(Set.copyOf(ontologyTraverser.getHpoGraph().extendWithParents(termId, false)),
+                neighbours(ontologyTraverser.getParents(), index));
+        assertEquals(Set.copyOf(ontologyTraverser.getHpoGraph().extendWithChildren(termId, false)),
+                neighbours(ontologyTraverser.getChildren(), index));
+    }
+
+    private Set<TermId> neighbours(TermAdjacency adjacency, int index) {
+        return IntStream.range(adjacency.start(index), adjacency.end(index))
+                .map(adjacency::target)
+                .mapToObj(ontologyTraverser.getTermIndex()::termAt)
+                .collect(Collectors.toSet());
+    }
 }
\ No newline at end of file
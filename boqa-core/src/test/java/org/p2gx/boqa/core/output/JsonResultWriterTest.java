@@ -33,6 +33,17 @@ class JsonResultWriterTest {
                 "http://purl.obolion"));
     }
 
+    @Test
+    void testReadHpVersion() throws IOException {
+        try (InputStream ontologyStream = new GZIPInputStream(JsonResultWriterTest.class
+                .getResourceAsStream("/org/p2gx/boqa/core/hp.v2025-05-06.json.gz"))) {
+            assertEquals("2025-05-06", JsonResultWriter.readHpVersion(ontologyStream));
+        }
+        // JSON without graphs, such as this phenopacket.
+        assertEquals("unknown", JsonResultWriter.readHpVersion(JsonResultWriterTest.class
+                .getResourceAsStream("/org/p2gx/boqa/core/phenopackets/PMID_10077612_FamilyB.json")));
+    }
+
     @Test
     void testReadHpoaVersion() throws IOException {
         // HPOA from resources
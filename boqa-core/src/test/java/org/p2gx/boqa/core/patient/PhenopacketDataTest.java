@@ -9,6 +9,9 @@ import org.monarchinitiative.phenol.ontology.data.Ontology;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 import org.p2gx.boqa.core.internal.OntologyTraverser;
 import org.p2gx.boqa.core.internal.OntologyTraverserTest;
+import org.phenopackets.schema.v2.Phenopacket;
+import org.phenopackets.schema.v2.core.OntologyClass;
+import org.phenopackets.schema.v2.core.PhenotypicFeature;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -98,6 +101,43 @@ class PhenopacketDataTest {
         assertTrue(examplePpkts.get(2).getExcludedTerms().isEmpty());
     }
 
+    @Test
+    void testParsePhenopacketFromString() throws IOException, URISyntaxException {
+        Path ppkt = Path.of(PhenopacketDataTest.class
+                .getResource("/org/p2gx/boqa/core/phenopackets/PMID_30569521_proband.json").toURI());
+        PhenopacketData parsed = new PhenopacketData(PhenopacketReader.parsePhenopacket(Files.readString(ppkt)));
+        assertEquals(examplePpkts.get(0).getID(), parsed.getID());
+        assertEquals(examplePpkts.get(0).getObservedTerms(), parsed.getObservedTerms());
+        assertEquals(examplePpkts.get(0).getExcludedTerms(), parsed.getExcludedTerms());
+        assertEquals(examplePpkts.get(0).getDiseases(), parsed.getDiseases());
+    }
+
+    @Test
+    void testResolvePrimaryTermIds() {
+        Phenopacket phenopacket = Phenopacket.newBuilder()
+                .setId("alternative_ids")
+                // alternative ID of HP:0001382
+                .addPhenotypicFeatures(feature("HP:0001388", false))
+                // not in the ontology
+                .addPhenotypicFeatures(feature("HP:9999999", false))
+                .addPhenotypicFeatures(feature("HP:0000598", true))
+                .build();
+        PhenopacketData resolved = new PhenopacketData(phenopacket, ontologyTraverser::getPrimaryTermId);
+        assertEquals(Set.of(TermId.of("HP:0001382")), resolved.getObservedTerms());
+        assertEquals(Set.of(TermId.of("HP:0000598")), resolved.getExcludedTerms());
+
+        // Without a resolver the terms are kept as given
+        PhenopacketData unresolved = new PhenopacketData(phenopacket);
+        assertEquals(Set.of(TermId.of("HP:0001388"), TermId.of("HP:9999999")), unresolved.getObservedTerms());
+    }
+
+    private static PhenotypicFeature feature(String termId, boolean excluded) {
+        return PhenotypicFeature.newBuilder()
+                .setType(OntologyClass.newBuilder().setId(termId))
+                .setExcluded(excluded)
+                .build();
+    }
+
     @Test
     void getID() {
         // Standard
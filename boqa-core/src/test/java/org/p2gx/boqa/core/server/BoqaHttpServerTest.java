@@ -0,0 +1,128 @@
+package org.p2gx.boqa.core.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.algorithm.AlgorithmParameters;
+import org.p2gx.boqa.core.algorithm.BoqaInvertedIndexCounter;
+import org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer;
+import org.p2gx.boqa.core.analysis.BoqaResult;
+import org.p2gx.boqa.core.analysis.Normalization;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+import org.p2gx.boqa.core.patient.PhenopacketData;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Starts a {@link BoqaHttpServer} on a free port of the loopback address and queries it with an {@link HttpClient}.
+ */
+class BoqaHttpServerTest extends TestBase {
+
+    private static final AlgorithmParameters PARAMS = AlgorithmParameters.create(null, null);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static Counter counter;
+    private static BoqaHttpServer server;
+    private static HttpClient client;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        counter = new BoqaInvertedIndexCounter(diseaseData, hpo());
+        server = BoqaHttpServer.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                counter, PARAMS, Normalization.EXACT, 10, 2);
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void testScoreTermList() throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/score?observed=HP:0001166,HP:0000478,HP:0000598&limit=5")).GET());
+
+        assertEquals(200, response.statusCode());
+        PatientData patientData = new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598", "");
+        assertSameScores(BoqaPatientAnalyzer.computeBoqaResults(patientData, counter, 5, PARAMS).boqaResults(),
+                MAPPER.readTree(response.body()).path("boqaResults"));
+    }
+
+    @Test
+    void testScorePhenopacket() throws IOException, InterruptedException, URISyntaxException {
+        Path phenopacketFile = Path.of(Objects.requireNonNull(BoqaHttpServerTest.class
+                .getResource("/org/p2gx/boqa/core/phenopackets/PMID_30569521_proband.json")).toURI());
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/score"))
+                .POST(HttpRequest.BodyPublishers.ofString(Files.readString(phenopacketFile))));
+
+        assertEquals(200, response.statusCode());
+        JsonNode result = MAPPER.readTree(response.body());
+        assertEquals("PMID_30569521_proband", result.path("patientData").path("id").asText());
+        PatientData patientData = new PhenopacketData(phenopacketFile);
+        assertSameScores(BoqaPatientAnalyzer.computeBoqaResults(patientData, counter, 10, PARAMS).boqaResults(),
+                result.path("boqaResults"));
+    }
+
+    @Test
+    void testInvalidRequests() throws IOException, InterruptedException {
+        assertEquals(400, send(HttpRequest.newBuilder(uri("/score"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"id\": [1, 2]"))).statusCode());
+        assertEquals(400, send(HttpRequest.newBuilder(uri("/score?observed=HP:0001166&limit=-1")).GET()).statusCode());
+        assertEquals(405, send(HttpRequest.newBuilder(uri("/score"))
+                .PUT(HttpRequest.BodyPublishers.noBody())).statusCode());
+    }
+
+    @Test
+    void testHealth() throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/health")).GET());
+
+        assertEquals(200, response.statusCode());
+        assertEquals(counter.getDiseaseIds().size(), MAPPER.readTree(response.body()).path("diseases").asInt());
+    }
+
+    @Test
+    void testParseQuery() {
+        assertEquals(Map.of("observed", "HP:0001166,HP:0000478", "limit", "3"),
+                BoqaHttpServer.parseQuery("observed=HP%3A0001166%2CHP:0000478&limit=3"));
+        assertTrue(BoqaHttpServer.parseQuery(null).isEmpty());
+    }
+
+    private static URI uri(String pathAndQuery) {
+        InetSocketAddress address = server.address();
+        return URI.create("http://" + address.getHostString() + ":" + address.getPort() + pathAndQuery);
+    }
+
+    private static HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    // the scores are compared rank by rank
+    private static void assertSameScores(List<BoqaResult> expected, JsonNode actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).boqaScore(), actual.get(i).path("boqaScore").asDouble(), 1e-12);
+        }
+    }
+}
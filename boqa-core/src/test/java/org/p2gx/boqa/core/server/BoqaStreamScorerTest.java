@@ -0,0 +1,127 @@
+package org.p2gx.boqa.core.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.p2gx.boqa.core.Counter;
+import org.p2gx.boqa.core.DiseaseData;
+import org.p2gx.boqa.core.PatientData;
+import org.p2gx.boqa.core.TestBase;
+import org.p2gx.boqa.core.algorithm.AlgorithmParameters;
+import org.p2gx.boqa.core.algorithm.BoqaInvertedIndexCounter;
+import org.p2gx.boqa.core.analysis.BoqaPatientAnalyzer;
+import org.p2gx.boqa.core.analysis.BoqaResult;
+import org.p2gx.boqa.core.analysis.Normalization;
+import org.p2gx.boqa.core.diseases.DiseaseDataPhenolIngest;
+import org.p2gx.boqa.core.patient.PhenopacketData;
+import org.p2gx.boqa.core.patient.QueryDataFromString;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoqaStreamScorerTest extends TestBase {
+
+    private static final AlgorithmParameters PARAMS = AlgorithmParameters.create(null, null);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int LIMIT = 5;
+
+    private static Counter counter;
+    private static ForkJoinPool pool;
+    private static Path phenopacketFile;
+
+    @BeforeAll
+    static void setup() throws IOException, URISyntaxException {
+        DiseaseData diseaseData = DiseaseDataPhenolIngest.of(hpo(), hpoDiseases());
+        counter = new BoqaInvertedIndexCounter(diseaseData, hpo());
+        pool = new ForkJoinPool(2);
+        phenopacketFile = Path.of(Objects.requireNonNull(BoqaStreamScorerTest.class
+                .getResource("/org/p2gx/boqa/core/phenopackets/PMID_30569521_proband.json")).toURI());
+    }
+
+    @AfterAll
+    static void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Every non-blank input line gets one output line with its line number, and the same scores as a direct
+     * analysis; ordered output follows the input.
+     */
+    @ParameterizedTest(name = "[{index}] ordered={0}")
+    @ValueSource(booleans = {true, false})
+    void testOneResultLinePerInputLine(boolean ordered) throws IOException, InterruptedException {
+        // a phenopacket on one line: JSON allows line breaks between its tokens only
+        String phenopacketLine = Files.readString(phenopacketFile).replace('\n', ' ').replace('\r', ' ');
+        String input = String.join("\n",
+                "HP:0001166,HP:0000478,HP:0000598",
+                "",
+                phenopacketLine,
+                "{\"id\": [1, 2]",
+                "HP:0000478\tHP:0000598");
+        Map<Integer, PatientData> expected = Map.of(
+                1, new QueryDataFromString("HP:0001166,HP:0000478,HP:0000598", ""),
+                3, new PhenopacketData(phenopacketFile),
+                5, new QueryDataFromString("HP:0000478", "HP:0000598"));
+
+        StringWriter out = new StringWriter();
+        BoqaStreamScorer scorer = new BoqaStreamScorer(counter, PARAMS, Normalization.EXACT, LIMIT, pool, 2, ordered);
+        assertEquals(4, scorer.score(new BufferedReader(new StringReader(input)), out));
+
+        List<Integer> lineNumbers = new ArrayList<>();
+        Map<Integer, JsonNode> results = new HashMap<>();
+        for (String line : out.toString().split("\n")) {
+            JsonNode json = MAPPER.readTree(line);
+            lineNumbers.add(json.path("line").asInt());
+            results.put(json.path("line").asInt(), json);
+        }
+        if (ordered) {
+            assertEquals(List.of(1, 3, 4, 5), lineNumbers);
+        } else {
+            assertEquals(4, lineNumbers.size());
+        }
+        assertTrue(results.get(4).has("error"));
+        assertEquals("PMID_30569521_proband", results.get(3).path("result").path("patientData").path("id").asText());
+        for (Map.Entry<Integer, PatientData> e : expected.entrySet()) {
+            List<BoqaResult> direct = BoqaPatientAnalyzer.computeBoqaResults(e.getValue(), counter, LIMIT, PARAMS).boqaResults();
+            JsonNode actual = results.get(e.getKey()).path("result").path("boqaResults");
+            assertEquals(direct.size(), actual.size());
+            for (int i = 0; i < direct.size(); i++) {
+                assertEquals(direct.get(i).boqaScore(), actual.get(i).path("boqaScore").asDouble(), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void testParsePatientWithExcludedTerms() {
+        PatientData patientData = BoqaStreamScorer.parsePatient("\tHP:0000598", counter::getPrimaryTermId);
+        assertTrue(patientData.getObservedTerms().isEmpty());
+        assertEquals(1, patientData.getExcludedTerms().size());
+    }
+
+    @Test
+    void testParsePatientResolvesAlternativeIds() {
+        // HP:0001388 is an alternative ID of HP:0001382
+        PatientData patientData = BoqaStreamScorer.parsePatient("HP:0001388\tHP:0000598", counter::getPrimaryTermId);
+        assertEquals(Set.of(TermId.of("HP:0001382")), patientData.getObservedTerms());
+        assertEquals(Set.of(TermId.of("HP:0000598")), patientData.getExcludedTerms());
+    }
+}